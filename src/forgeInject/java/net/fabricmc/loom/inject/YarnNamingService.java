@@ -27,22 +27,28 @@ package net.fabricmc.loom.inject;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.Optional;
 import java.util.function.BiFunction;
-import java.util.function.Predicate;
 
 import cpw.mods.modlauncher.api.INameMappingService;
 
+import net.fabricmc.mapping.tree.ClassDef;
+import net.fabricmc.mapping.tree.FieldDef;
+import net.fabricmc.mapping.tree.MethodDef;
 import net.fabricmc.mapping.tree.TinyMappingFactory;
 import net.fabricmc.mapping.tree.TinyTree;
 
 public class YarnNamingService implements INameMappingService {
 	private static final String PATH_TO_MAPPINGS = "fabric.yarnWithSrg.path";
-	private TinyTree mappings = null;
+	// Written by Loom next to the mappings, see SrgNamedWriter.writeLookup
+	private static final String LOOKUP_SUFFIX = ".lookup";
+	private static final String LOOKUP_HEADER = "srg-named-lookup\t1";
+	private volatile Lookup lookup = null;
 
 	@Override
 	public String mappingName() {
@@ -64,64 +70,120 @@ public class YarnNamingService implements INameMappingService {
 		return this::remap;
 	}
 
-	private TinyTree getMappings() {
-		if (mappings != null) {
-			return mappings;
+	private Lookup getLookup() {
+		Lookup lookup = this.lookup;
+
+		if (lookup != null) {
+			return lookup;
 		}
 
-		String pathStr = System.getProperty(PATH_TO_MAPPINGS);
-		if (pathStr == null) throw new RuntimeException("Missing system property '" + PATH_TO_MAPPINGS + "'!");
-		Path path = Paths.get(pathStr);
+		synchronized (this) {
+			if (this.lookup == null) {
+				String pathStr = System.getProperty(PATH_TO_MAPPINGS);
+				if (pathStr == null) throw new RuntimeException("Missing system property '" + PATH_TO_MAPPINGS + "'!");
+				Path path = Paths.get(pathStr);
+				Path lookupPath = path.resolveSibling(path.getFileName() + LOOKUP_SUFFIX);
+
+				try {
+					if (Files.exists(lookupPath) && Files.getLastModifiedTime(lookupPath).compareTo(Files.getLastModifiedTime(path)) >= 0) {
+						this.lookup = Lookup.read(lookupPath);
+					} else {
+						try (BufferedReader reader = Files.newBufferedReader(path)) {
+							this.lookup = Lookup.of(TinyMappingFactory.loadWithDetection(reader));
+						}
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
 
-		try (BufferedReader reader = Files.newBufferedReader(path)) {
-			mappings = TinyMappingFactory.loadWithDetection(reader);
-		} catch (IOException e) {
-			throw new UncheckedIOException(e);
+			return this.lookup;
 		}
-
-		return mappings;
 	}
 
 	private String remap(Domain domain, String name) {
-		TinyTree mappings = getMappings();
+		Lookup lookup = getLookup();
 
 		switch (domain) {
 		case CLASS:
-			boolean dot = name.contains(".");
-			return find(mappings.getClasses(), def -> maybeReplace(dot, def.getName("srg"), '/', '.').equals(name))
-					.map(def -> maybeReplace(dot, def.getName("named"), '/', '.'))
-					.orElse(name);
+			return (name.indexOf('.') >= 0 ? lookup.dottedClasses : lookup.classes).getOrDefault(name, name);
 		case METHOD:
-			return mappings.getClasses().stream()
-					.flatMap(def -> def.getMethods().stream())
-					.filter(def -> def.getName("srg").equals(name))
-					.findAny()
-					.map(def -> def.getName("named"))
-					.orElse(name);
+			return lookup.methods.getOrDefault(name, name);
 		case FIELD:
-			return mappings.getClasses().stream()
-					.flatMap(def -> def.getFields().stream())
-					.filter(def -> def.getName("srg").equals(name))
-					.findAny()
-					.map(def -> def.getName("named"))
-					.orElse(name);
+			return lookup.fields.getOrDefault(name, name);
 		default:
 			return name;
 		}
 	}
 
-	// From CollectionUtil
-	private static <E> Optional<E> find(Iterable<? extends E> collection, Predicate<? super E> filter) {
-		for (E e : collection) {
-			if (filter.test(e)) {
-				return Optional.of(e);
+	/**
+	 * The srg to named mappings of classes, methods and fields, only containing the names that change.
+	 * Members are looked up by name only, the first member with a name wins.
+	 */
+	private static final class Lookup {
+		private final Map<String, String> classes = new HashMap<>();
+		private final Map<String, String> dottedClasses = new HashMap<>();
+		private final Map<String, String> methods = new HashMap<>();
+		private final Map<String, String> fields = new HashMap<>();
+
+		private static Lookup of(TinyTree mappings) {
+			Lookup lookup = new Lookup();
+
+			for (ClassDef def : mappings.getClasses()) {
+				lookup.add('c', def.getName("srg"), def.getName("named"));
+
+				for (MethodDef method : def.getMethods()) {
+					lookup.add('m', method.getName("srg"), method.getName("named"));
+				}
+
+				for (FieldDef field : def.getFields()) {
+					lookup.add('f', field.getName("srg"), field.getName("named"));
+				}
 			}
+
+			return lookup;
 		}
 
-		return Optional.empty();
-	}
+		private static Lookup read(Path path) throws IOException {
+			Lookup lookup = new Lookup();
+
+			try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+				String header = reader.readLine();
+
+				if (!LOOKUP_HEADER.equals(header)) {
+					throw new IOException("Unsupported srg to named lookup file " + path + ": " + header);
+				}
+
+				String line;
 
-	private static String maybeReplace(boolean run, String s, char from, char to) {
-		return run ? s.replace(from, to) : s;
+				while ((line = reader.readLine()) != null) {
+					int first = line.indexOf('\t', 2);
+					lookup.add(line.charAt(0), line.substring(2, first), line.substring(first + 1));
+				}
+			}
+
+			return lookup;
+		}
+
+		private void add(char kind, String srg, String named) {
+			if (srg.equals(named)) {
+				return;
+			}
+
+			switch (kind) {
+			case 'c':
+				classes.putIfAbsent(srg, named);
+				dottedClasses.putIfAbsent(srg.replace('/', '.'), named.replace('/', '.'));
+				break;
+			case 'm':
+				methods.putIfAbsent(srg, named);
+				break;
+			case 'f':
+				fields.putIfAbsent(srg, named);
+				break;
+			default:
+				break;
+			}
+		}
 	}
 }
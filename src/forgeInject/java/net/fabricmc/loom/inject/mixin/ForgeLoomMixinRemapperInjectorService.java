@@ -61,8 +61,13 @@ public class ForgeLoomMixinRemapperInjectorService implements ITransformationSer
 		LOGGER.debug("We will be injecting our remapper.");
 
 		try {
-			MixinEnvironment.getDefaultEnvironment().getRemappers().add(new MixinIntermediaryDevRemapper(Objects.requireNonNull(resolveMappings()), "intermediary", "named"));
+			long start = System.nanoTime();
+			TinyTree mappings = Objects.requireNonNull(resolveMappings());
+			MixinIntermediaryDevRemapper remapper = new MixinIntermediaryDevRemapper(mappings, "intermediary", "named");
+			MixinEnvironment.getDefaultEnvironment().getRemappers().add(remapper);
 			LOGGER.debug("We have successfully injected our remapper.");
+			// The remapper logs its lookup cache stats at debug level as the mixins are applied
+			LOGGER.info("Set up the mixin remapper for {} classes in {} ms", mappings.getClasses().size(), (System.nanoTime() - start) / 1000000);
 		} catch (Exception e) {
 			LOGGER.debug("We have failed to inject our remapper.", e);
 		}
@@ -23,7 +23,12 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.spongepowered.asm.mixin.transformer.ClassInfo;
 
 import net.fabricmc.mapping.tree.ClassDef;
@@ -32,13 +37,21 @@ import net.fabricmc.mapping.tree.TinyTree;
 import net.fabricmc.mapping.util.MixinRemapper;
 
 public class MixinIntermediaryDevRemapper extends MixinRemapper {
+	private static final Logger LOGGER = LogManager.getLogger("ForgeLoomRemapperInjector");
+	private static final long STATS_INTERVAL = 10000; // the cache stats are logged at debug level every this many lookups
 	private static final String ambiguousName = "<ambiguous>"; // dummy value for ambiguous mappings - needs querying with additional owner and/or desc info
+	private static final String noDesc = "<none>"; // memo key for lookups without a desc, the concurrent maps do not take null keys
 
 	private final Set<String> allPossibleClassNames = new HashSet<>();
-	private final Map<String, String> nameFieldLookup = new HashMap<>();
 	private final Map<String, String> nameMethodLookup = new HashMap<>();
-	private final Map<String, String> nameDescFieldLookup = new HashMap<>();
-	private final Map<String, String> nameDescMethodLookup = new HashMap<>();
+	// name -> desc -> mapped name, nested so lookups do not have to build a combined key
+	private final Map<String, Map<String, String>> nameDescFieldLookup = new HashMap<>();
+	private final Map<String, Map<String, String>> nameDescMethodLookup = new HashMap<>();
+	// owner -> name -> desc -> mapped name, including names that do not map to anything else
+	private final Map<String, Map<String, Map<String, String>>> resolvedFields = new ConcurrentHashMap<>();
+	private final Map<String, Map<String, Map<String, String>>> resolvedMethods = new ConcurrentHashMap<>();
+	private final AtomicLong lookups = new AtomicLong();
+	private final LongAdder cacheHits = new LongAdder();
 
 	public MixinIntermediaryDevRemapper(TinyTree mappings, String from, String to) {
 		super(mappings, from, to);
@@ -47,32 +60,38 @@ public class MixinIntermediaryDevRemapper extends MixinRemapper {
 			allPossibleClassNames.add(classDef.getName(from));
 			allPossibleClassNames.add(classDef.getName(to));
 
-			putMemberInLookup(from, to, classDef.getFields(), nameFieldLookup, nameDescFieldLookup);
+			putMemberInLookup(from, to, classDef.getFields(), null, nameDescFieldLookup);
 			putMemberInLookup(from, to, classDef.getMethods(), nameMethodLookup, nameDescMethodLookup);
 		}
 	}
 
-	private <T extends Descriptored> void putMemberInLookup(String from, String to, Collection<T> descriptored, Map<String, String> nameMap, Map<String, String> nameDescMap) {
+	private <T extends Descriptored> void putMemberInLookup(String from, String to, Collection<T> descriptored, Map<String, String> nameMap, Map<String, Map<String, String>> nameDescMap) {
 		for (T field : descriptored) {
 			String nameFrom = field.getName(from);
 			String descFrom = field.getDescriptor(from);
 			String nameTo = field.getName(to);
 
-			String prev = nameMap.putIfAbsent(nameFrom, nameTo);
-
-			if (prev != null && prev != ambiguousName && !prev.equals(nameTo)) {
-				nameDescMap.put(nameFrom, ambiguousName);
+			if (nameMap != null) {
+				nameMap.putIfAbsent(nameFrom, nameTo);
 			}
 
-			String key = getNameDescKey(nameFrom, descFrom);
-			prev = nameDescMap.putIfAbsent(key, nameTo);
+			Map<String, String> descMap = nameDescMap.computeIfAbsent(nameFrom, name -> new HashMap<>(2));
+			String prev = descMap.putIfAbsent(descFrom, nameTo);
 
 			if (prev != null && prev != ambiguousName && !prev.equals(nameTo)) {
-				nameDescMap.put(key, ambiguousName);
+				descMap.put(descFrom, ambiguousName);
 			}
 		}
 	}
 
+	/**
+	 * Gets how many member lookups were made so far, and how many of them were served from the cache of resolved names.
+	 * Mixin has no callback for the end of startup, so this is logged at debug level every {@value #STATS_INTERVAL} lookups.
+	 */
+	public String getCacheStats() {
+		return String.format("%d of %d member lookups served from cache", cacheHits.sum(), lookups.get());
+	}
+
 	private void throwAmbiguousLookup(String type, String name, String desc) {
 		throw new RuntimeException("Ambiguous Mixin: " + type + " lookup " + name + " " + desc + " is not unique");
 	}
@@ -101,6 +120,34 @@ public class MixinIntermediaryDevRemapper extends MixinRemapper {
 
 	@Override
 	public String mapMethodName(String owner, String name, String desc) {
+		return owner == null ? resolveMethodName(null, name, desc) : resolve(resolvedMethods, owner, name, desc, true);
+	}
+
+	@Override
+	public String mapFieldName(String owner, String name, String desc) {
+		return owner == null ? resolveFieldName(null, name, desc) : resolve(resolvedFields, owner, name, desc, false);
+	}
+
+	private String resolve(Map<String, Map<String, Map<String, String>>> resolved, String owner, String name, String desc, boolean method) {
+		if (lookups.incrementAndGet() % STATS_INTERVAL == 0) {
+			LOGGER.debug("Mixin remapper: {}", getCacheStats());
+		}
+
+		Map<String, String> descs = resolved.computeIfAbsent(owner, k -> new ConcurrentHashMap<>()).computeIfAbsent(name, k -> new ConcurrentHashMap<>());
+		String descKey = desc != null ? desc : noDesc;
+		String result = descs.get(descKey);
+
+		if (result != null) {
+			cacheHits.increment();
+			return result;
+		}
+
+		result = method ? resolveMethodName(owner, name, desc) : resolveFieldName(owner, name, desc);
+		descs.put(descKey, result);
+		return result;
+	}
+
+	private String resolveMethodName(String owner, String name, String desc) {
 		// handle unambiguous values early
 		if (owner == null || allPossibleClassNames.contains(owner)) {
 			String newName;
@@ -108,7 +155,7 @@ public class MixinIntermediaryDevRemapper extends MixinRemapper {
 			if (desc == null) {
 				newName = nameMethodLookup.get(name);
 			} else {
-				newName = nameDescMethodLookup.get(getNameDescKey(name, desc));
+				newName = getNameDescLookup(nameDescMethodLookup, name, desc);
 			}
 
 			if (newName != null) {
@@ -174,11 +221,10 @@ public class MixinIntermediaryDevRemapper extends MixinRemapper {
 		return name;
 	}
 
-	@Override
-	public String mapFieldName(String owner, String name, String desc) {
+	private String resolveFieldName(String owner, String name, String desc) {
 		// handle unambiguous values early
 		if (owner == null || allPossibleClassNames.contains(owner)) {
-			String newName = nameDescFieldLookup.get(getNameDescKey(name, desc));
+			String newName = getNameDescLookup(nameDescFieldLookup, name, desc);
 
 			if (newName != null) {
 				if (newName == ambiguousName) {
@@ -227,7 +273,8 @@ public class MixinIntermediaryDevRemapper extends MixinRemapper {
 		return name;
 	}
 
-	private static String getNameDescKey(String name, String descriptor) {
-		return name + ";;" + descriptor;
+	private static String getNameDescLookup(Map<String, Map<String, String>> nameDescMap, String name, String descriptor) {
+		Map<String, String> descMap = nameDescMap.get(name);
+		return descMap != null ? descMap.get(descriptor) : null;
 	}
 }
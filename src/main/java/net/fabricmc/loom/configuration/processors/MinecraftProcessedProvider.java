@@ -26,6 +26,9 @@ package net.fabricmc.loom.configuration.processors;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.function.Consumer;
 
 import org.apache.commons.io.FileUtils;
@@ -34,12 +37,18 @@ import org.gradle.api.Project;
 import net.fabricmc.loom.configuration.providers.MinecraftProvider;
 import net.fabricmc.loom.configuration.providers.mappings.MappingsProvider;
 import net.fabricmc.loom.configuration.providers.minecraft.MinecraftMappedProvider;
+import net.fabricmc.loom.util.CacheLock;
 import net.fabricmc.loom.util.Constants;
+import net.fabricmc.loom.util.srg.AccessTransformerDelta;
 
 public class MinecraftProcessedProvider extends MinecraftMappedProvider {
 	public static final String PROJECT_MAPPED_CLASSIFIER = "projectmapped";
+	public static final String PROJECT_INTERMEDIARY_CLASSIFIER = "projectintermediary";
+	public static final String PROJECT_SRG_CLASSIFIER = "projectsrg";
 
 	private File projectMappedJar;
+	private File projectIntermediaryJar;
+	private File projectSrgJar;
 
 	private final JarProcessorManager jarProcessorManager;
 
@@ -56,6 +65,11 @@ public class MinecraftProcessedProvider extends MinecraftMappedProvider {
 			getProject().getLogger().info(":processing mapped jar");
 			invalidateJars();
 
+			if (getExtension().isForge()) {
+				projectIntermediaryJar.delete();
+				projectSrgJar.delete();
+			}
+
 			try {
 				FileUtils.copyFile(super.getMappedJar(), projectMappedJar);
 			} catch (IOException e) {
@@ -63,6 +77,15 @@ public class MinecraftProcessedProvider extends MinecraftMappedProvider {
 			}
 
 			jarProcessorManager.process(projectMappedJar);
+
+			if (getExtension().isForge()) {
+				applyProjectAccessTransformers(projectMappedJar, "named");
+			}
+		}
+
+		if (getExtension().isForge()) {
+			// The dev launcher reads the intermediary jar from the remap classpath, so it has to exist before the game runs
+			getIntermediaryJar();
 		}
 
 		getProject().getRepositories().flatDir(repository -> repository.dir(getJarDirectory(getExtension().getProjectPersistentCache(), PROJECT_MAPPED_CLASSIFIER)));
@@ -71,6 +94,59 @@ public class MinecraftProcessedProvider extends MinecraftMappedProvider {
 				getProject().getDependencies().module("net.minecraft:minecraft:" + getJarVersionString(PROJECT_MAPPED_CLASSIFIER)));
 	}
 
+	/**
+	 * Applies the project access transformers to a jar in the given namespace.
+	 *
+	 * <p>The cached Forge jars, and the intermediary, srg and named jars remapped from them, only have the Forge access
+	 * transformers applied, so that they can be shared between projects. The project changes are replayed onto the
+	 * project copies of each of them instead.
+	 */
+	private void applyProjectAccessTransformers(File jar, String namespace) {
+		try {
+			AccessTransformerDelta delta = getProjectAccessTransformerDelta();
+
+			if (delta != null) {
+				getProject().getLogger().lifecycle(":applying project access transformers to " + delta.getClasses().size() + " " + namespace + " classes");
+				delta.apply(jar.toPath(), getExtension().getMappingsProvider().getMappingsWithSrg(), namespace);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to apply project access transformers", e);
+		}
+	}
+
+	private AccessTransformerDelta getProjectAccessTransformerDelta() throws IOException {
+		return getExtension().getMappingsProvider().patchedProvider.getProjectAccessTransformerDelta();
+	}
+
+	/**
+	 * Gets the project copy of a shared remapped jar with the project access transformers applied,
+	 * making it again if it is missing or older than the shared jar.
+	 */
+	private File getProjectJar(File sharedJar, File projectJar, String namespace) {
+		try {
+			if (getProjectAccessTransformerDelta() == null) {
+				return sharedJar;
+			}
+
+			if (!projectJar.exists() || projectJar.lastModified() < sharedJar.lastModified()) {
+				Path temp = CacheLock.tempFile(projectJar.toPath());
+				projectJar.getParentFile().mkdirs();
+
+				try {
+					Files.copy(sharedJar.toPath(), temp, StandardCopyOption.REPLACE_EXISTING);
+					applyProjectAccessTransformers(temp.toFile(), namespace);
+					CacheLock.publish(temp, projectJar.toPath());
+				} finally {
+					Files.deleteIfExists(temp);
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to make the project " + namespace + " jar", e);
+		}
+
+		return projectJar;
+	}
+
 	private void invalidateJars() {
 		File dir = getJarDirectory(getExtension().getUserCache(), PROJECT_MAPPED_CLASSIFIER);
 
@@ -90,10 +166,33 @@ public class MinecraftProcessedProvider extends MinecraftMappedProvider {
 		super.initFiles(minecraftProvider, mappingsProvider);
 
 		projectMappedJar = new File(getJarDirectory(getExtension().getProjectPersistentCache(), PROJECT_MAPPED_CLASSIFIER), "minecraft-" + getJarVersionString(PROJECT_MAPPED_CLASSIFIER) + ".jar");
+
+		if (getExtension().isForge()) {
+			projectIntermediaryJar = new File(projectMappedJar.getParentFile(), "minecraft-" + getJarVersionString(PROJECT_INTERMEDIARY_CLASSIFIER) + ".jar");
+			projectSrgJar = new File(projectMappedJar.getParentFile(), "minecraft-" + getJarVersionString(PROJECT_SRG_CLASSIFIER) + ".jar");
+		}
 	}
 
 	@Override
 	public File getMappedJar() {
 		return projectMappedJar;
 	}
+
+	@Override
+	public synchronized File getIntermediaryJar() {
+		if (!getExtension().isForge()) {
+			return super.getIntermediaryJar();
+		}
+
+		return getProjectJar(super.getIntermediaryJar(), projectIntermediaryJar, "intermediary");
+	}
+
+	@Override
+	public synchronized File getSrgJar() {
+		if (!getExtension().isForge()) {
+			return super.getSrgJar();
+		}
+
+		return getProjectJar(super.getSrgJar(), projectSrgJar, "srg");
+	}
 }
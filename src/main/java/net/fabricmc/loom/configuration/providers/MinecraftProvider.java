@@ -28,6 +28,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Path;
 import java.nio.charset.StandardCharsets;
 import java.util.Optional;
 import java.util.function.Consumer;
@@ -45,6 +46,7 @@ import net.fabricmc.loom.configuration.DependencyProvider;
 import net.fabricmc.loom.configuration.providers.minecraft.ManifestVersion;
 import net.fabricmc.loom.configuration.providers.minecraft.MinecraftLibraryProvider;
 import net.fabricmc.loom.configuration.providers.minecraft.MinecraftVersionMeta;
+import net.fabricmc.loom.util.CacheLock;
 import net.fabricmc.loom.util.Constants;
 import net.fabricmc.loom.util.DownloadUtil;
 import net.fabricmc.loom.util.HashedDownloadUtil;
@@ -90,31 +92,34 @@ public class MinecraftProvider extends DependencyProvider {
 		// Add Loom as an annotation processor
 		addDependency(getProject().files(this.getClass().getProtectionDomain().getCodeSource().getLocation()), "compileOnly");
 
-		if (offline) {
-			if (minecraftClientJar.exists() && minecraftServerJar.exists()) {
-				getProject().getLogger().debug("Found client and server jars, presuming up-to-date");
-			} else if (minecraftMergedJar.exists()) {
-				//Strictly we don't need the split jars if the merged one exists, let's try go on
-				getProject().getLogger().warn("Missing game jar but merged jar present, things might end badly");
+		// The jars are shared by every build using this version, the lock makes concurrent builds wait and reuse them
+		try (CacheLock lock = CacheLock.acquire(minecraftMergedJar.toPath(), getProject().getLogger())) {
+			if (offline) {
+				if (minecraftClientJar.exists() && minecraftServerJar.exists()) {
+					getProject().getLogger().debug("Found client and server jars, presuming up-to-date");
+				} else if (minecraftMergedJar.exists()) {
+					//Strictly we don't need the split jars if the merged one exists, let's try go on
+					getProject().getLogger().warn("Missing game jar but merged jar present, things might end badly");
+				} else {
+					throw new GradleException("Missing jar(s); Client: " + minecraftClientJar.exists() + ", Server: " + minecraftServerJar.exists());
+				}
 			} else {
-				throw new GradleException("Missing jar(s); Client: " + minecraftClientJar.exists() + ", Server: " + minecraftServerJar.exists());
+				downloadJars(getProject().getLogger());
 			}
-		} else {
-			downloadJars(getProject().getLogger());
-		}
 
-		libraryProvider = new MinecraftLibraryProvider();
-		libraryProvider.provide(this, getProject());
+			libraryProvider = new MinecraftLibraryProvider();
+			libraryProvider.provide(this, getProject());
 
-		if (!minecraftMergedJar.exists() || isRefreshDeps()) {
-			try {
-				mergeJars(getProject().getLogger());
-			} catch (ZipError e) {
-				DownloadUtil.delete(minecraftClientJar);
-				DownloadUtil.delete(minecraftServerJar);
+			if (!minecraftMergedJar.exists() || isRefreshDeps()) {
+				try {
+					mergeJars(getProject().getLogger());
+				} catch (ZipError e) {
+					DownloadUtil.delete(minecraftClientJar);
+					DownloadUtil.delete(minecraftServerJar);
 
-				getProject().getLogger().error("Could not merge JARs! Deleting source JARs - please re-run the command and move on.", e);
-				throw new RuntimeException();
+					getProject().getLogger().error("Could not merge JARs! Deleting source JARs - please re-run the command and move on.", e);
+					throw new RuntimeException();
+				}
 			}
 		}
 	}
@@ -227,9 +232,18 @@ public class MinecraftProvider extends DependencyProvider {
 	private void mergeJars(Logger logger) throws IOException {
 		logger.info(":merging jars");
 
-		try (JarMerger jarMerger = new JarMerger(minecraftClientJar, minecraftServerJar, minecraftMergedJar)) {
-			jarMerger.enableSyntheticParamsOffset();
-			jarMerger.merge();
+		Path temp = CacheLock.tempFile(minecraftMergedJar.toPath());
+		java.nio.file.Files.deleteIfExists(temp);
+
+		try {
+			try (JarMerger jarMerger = new JarMerger(minecraftClientJar, minecraftServerJar, temp.toFile())) {
+				jarMerger.enableSyntheticParamsOffset();
+				jarMerger.merge();
+			}
+
+			CacheLock.publish(temp, minecraftMergedJar.toPath());
+		} finally {
+			java.nio.file.Files.deleteIfExists(temp);
 		}
 	}
 
@@ -37,6 +37,7 @@ import net.fabricmc.loom.util.Constants;
 
 public class McpConfigProvider extends DependencyProvider {
 	private File mcp;
+	private String mcpVersion;
 
 	public McpConfigProvider(Project project) {
 		super(project);
@@ -58,6 +59,7 @@ public class McpConfigProvider extends DependencyProvider {
 	}
 
 	private void init(String version) {
+		mcpVersion = version;
 		mcp = new File(getExtension().getUserCache(), "mcp-" + version + ".zip");
 	}
 
@@ -65,6 +67,10 @@ public class McpConfigProvider extends DependencyProvider {
 		return mcp;
 	}
 
+	public String getMcpVersion() {
+		return mcpVersion;
+	}
+
 	@Override
 	public String getTargetConfig() {
 		return Constants.Configurations.MCP_CONFIG;
@@ -24,73 +24,63 @@
 
 package net.fabricmc.loom.configuration.providers.forge;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.PrintStream;
-import java.io.UncheckedIOException;
-import java.lang.reflect.Field;
-import java.net.URI;
-import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.HashSet;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.function.Predicate;
-import java.util.stream.Stream;
 
-import com.google.common.base.Predicates;
-import com.google.common.collect.ImmutableMap;
+import com.google.common.base.Stopwatch;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Closer;
 import com.google.gson.JsonParser;
-import de.oceanlabs.mcp.mcinjector.adaptors.ParameterAnnotationFixer;
-import net.minecraftforge.accesstransformer.AccessTransformerEngine;
-import net.minecraftforge.accesstransformer.TransformerProcessor;
-import net.minecraftforge.accesstransformer.parser.AccessTransformerList;
-import net.minecraftforge.binarypatcher.ConsoleTool;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.output.NullOutputStream;
 import org.gradle.api.Project;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.plugins.JavaPluginConvention;
 import org.gradle.api.tasks.SourceSet;
 import org.jetbrains.annotations.Nullable;
-import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassVisitor;
-import org.objectweb.asm.ClassWriter;
-import org.objectweb.asm.tree.ClassNode;
 import org.zeroturnaround.zip.ZipUtil;
 
 import net.fabricmc.loom.configuration.DependencyProvider;
 import net.fabricmc.loom.configuration.providers.MinecraftProvider;
 import net.fabricmc.loom.configuration.providers.mappings.MappingsProvider;
 import net.fabricmc.loom.configuration.providers.minecraft.MinecraftMappedProvider;
+import net.fabricmc.loom.util.CacheLock;
 import net.fabricmc.loom.util.Checksum;
 import net.fabricmc.loom.util.Constants;
-import net.fabricmc.loom.util.DownloadUtil;
-import net.fabricmc.loom.util.FileSystemUtil;
-import net.fabricmc.loom.util.JarUtil;
-import net.fabricmc.loom.util.ThreadingUtils;
+import net.fabricmc.loom.util.JarTransformer;
+import net.fabricmc.loom.util.RawZipFile;
+import net.fabricmc.loom.util.TaskGraph;
 import net.fabricmc.loom.util.TinyRemapperMappingsHelper;
-import net.fabricmc.loom.util.function.FsPathConsumer;
+import net.fabricmc.loom.util.srg.AccessTransformerDelta;
+import net.fabricmc.loom.util.srg.ForgeAccessTransformer;
+import net.fabricmc.loom.util.srg.ForgePatchApplier;
 import net.fabricmc.loom.util.srg.InnerClassRemapper;
+import net.fabricmc.loom.util.srg.ParameterAnnotationTransformer;
 import net.fabricmc.loom.util.srg.SpecialSourceExecutor;
 import net.fabricmc.mapping.tree.TinyTree;
+import net.fabricmc.tinyremapper.InputTag;
 import net.fabricmc.tinyremapper.OutputConsumerPath;
 import net.fabricmc.tinyremapper.TinyRemapper;
 
 public class MinecraftPatchedProvider extends DependencyProvider {
+	// Stage outputs that no build used for this long are deleted, see pruneStages
+	private static final long STAGE_RETENTION = TimeUnit.DAYS.toMillis(Long.getLong("fabric.loom.forgeStageRetentionDays", 30));
 	private final MappingsProvider mappingsProvider;
 	// Step 1: Remap Minecraft to SRG
 	private File minecraftClientSrgJar;
@@ -101,11 +91,17 @@ public class MinecraftPatchedProvider extends DependencyProvider {
 	// Step 3: Access Transform
 	private File minecraftClientPatchedSrgATJar;
 	private File minecraftServerPatchedSrgATJar;
-	// Step 4: Remap Patched AT to Official
+	// Step 4: Remap Patched AT to Official, the server jar only contains the server-only classes
 	private File minecraftClientPatchedOfficialJar;
 	private File minecraftServerPatchedOfficialJar;
 	// Step 5: Merge
 	private File minecraftMergedPatchedJar;
+	// Project access transformers, applied on top of the Forge ones to the classes they target only
+	private File minecraftClientPatchedSrgProjectATJar;
+	private File minecraftServerPatchedSrgProjectATJar;
+	private AccessTransformerDelta projectAtDelta;
+	// Only set while the srg jars are being created
+	private SpecialSourceExecutor.SrgMappings srgMappings;
 	private File projectAtHash;
 	@Nullable
 	private File projectAt = null;
@@ -156,51 +152,120 @@ public class MinecraftPatchedProvider extends DependencyProvider {
 
 		minecraftProvider.setJarSuffix(jarSuffix);
 
-		File globalCache = getExtension().getUserCache();
-		File cache = usesProjectCache() ? getExtension().getProjectPersistentCache() : globalCache;
+		// Every stage is stored under a key derived from the inputs that actually affect its output,
+		// so only invalidated stages are rebuilt and projects with the same inputs share the outputs.
+		String srgKey = stageKey(
+				minecraftProvider.getVersionInfo().getDownload("client").getSha1(),
+				minecraftProvider.getVersionInfo().getDownload("server").getSha1(),
+				getExtension().getMcpConfigProvider().getMcpVersion()
+		);
+		String patchedKey = stageKey(
+				srgKey,
+				hash(patchProvider.clientPatches.toFile()),
+				hash(patchProvider.serverPatches.toFile()),
+				hash(getExtension().getForgeUniversalProvider().getForge()),
+				hash(getExtension().getForgeUserdevProvider().getUserdevJar()),
+				hashInjection(),
+				String.valueOf(getExtension().useFabricMixin)
+		);
+		String atKey = stageKey(patchedKey);
+		String officialKey = stageKey(atKey);
+		String mergedKey = stageKey(officialKey);
+
+		File srgCache = getStageDirectory("srg", srgKey);
+		File patchedCache = getStageDirectory("patched", patchedKey);
+		File atCache = getStageDirectory("at", atKey);
+		File officialCache = getStageDirectory("official", officialKey);
+		File mergedCache = getStageDirectory("merged", mergedKey);
+
+		minecraftClientSrgJar = new File(srgCache, "minecraft-" + minecraftVersion + "-client-srg.jar");
+		minecraftServerSrgJar = new File(srgCache, "minecraft-" + minecraftVersion + "-server-srg.jar");
+		minecraftClientPatchedSrgJar = new File(patchedCache, "minecraft-" + minecraftVersion + "-client-srg" + jarSuffix + ".jar");
+		minecraftServerPatchedSrgJar = new File(patchedCache, "minecraft-" + minecraftVersion + "-server-srg" + jarSuffix + ".jar");
+		minecraftClientPatchedSrgATJar = new File(atCache, "minecraft-" + minecraftVersion + "-client-srg-at" + jarSuffix + ".jar");
+		minecraftServerPatchedSrgATJar = new File(atCache, "minecraft-" + minecraftVersion + "-server-srg-at" + jarSuffix + ".jar");
+		minecraftClientPatchedOfficialJar = new File(officialCache, "minecraft-" + minecraftVersion + "-client" + jarSuffix + ".jar");
+		minecraftServerPatchedOfficialJar = new File(officialCache, "minecraft-" + minecraftVersion + "-server" + jarSuffix + ".jar");
+		minecraftMergedPatchedJar = new File(mergedCache, "minecraft-" + minecraftVersion + "-merged" + jarSuffix + ".jar");
+
+		if (projectAt != null) {
+			File projectAtCache = getStageDirectory("project-at", stageKey(atKey, hash(projectAt)));
+			minecraftClientPatchedSrgProjectATJar = new File(projectAtCache, "minecraft-" + minecraftVersion + "-client-srg-project-at" + jarSuffix + ".jar");
+			minecraftServerPatchedSrgProjectATJar = new File(projectAtCache, "minecraft-" + minecraftVersion + "-server-srg-project-at" + jarSuffix + ".jar");
+		}
+	}
 
-		minecraftClientSrgJar = new File(globalCache, "minecraft-" + minecraftVersion + "-client-srg.jar");
-		minecraftServerSrgJar = new File(globalCache, "minecraft-" + minecraftVersion + "-server-srg.jar");
-		minecraftClientPatchedSrgJar = new File(globalCache, "minecraft-" + minecraftVersion + "-client-srg" + jarSuffix + ".jar");
-		minecraftServerPatchedSrgJar = new File(globalCache, "minecraft-" + minecraftVersion + "-server-srg" + jarSuffix + ".jar");
-		minecraftClientPatchedSrgATJar = new File(cache, "minecraft-" + minecraftVersion + "-client-srg-at" + jarSuffix + ".jar");
-		minecraftServerPatchedSrgATJar = new File(cache, "minecraft-" + minecraftVersion + "-server-srg-at" + jarSuffix + ".jar");
-		minecraftClientPatchedOfficialJar = new File(cache, "minecraft-" + minecraftVersion + "-client" + jarSuffix + ".jar");
-		minecraftServerPatchedOfficialJar = new File(cache, "minecraft-" + minecraftVersion + "-server" + jarSuffix + ".jar");
-		minecraftMergedPatchedJar = new File(cache, "minecraft-" + minecraftVersion + "-merged" + jarSuffix + ".jar");
+	private String stageKey(String... inputs) {
+		return Hashing.sha256().hashString(String.join("\n", inputs), StandardCharsets.UTF_8).toString().substring(0, 16);
+	}
 
-		if (isRefreshDeps() || Stream.of(getGlobalCaches()).anyMatch(Predicates.not(File::exists))) {
-			cleanAllCache();
-		} else if (atDirty || Stream.of(getProjectCache()).anyMatch(Predicates.not(File::exists))) {
-			cleanProjectCache();
-		}
+	private String hash(File file) {
+		return HashCode.fromBytes(Checksum.sha256(file)).toString();
 	}
 
-	public void cleanAllCache() {
-		for (File file : getGlobalCaches()) {
-			file.delete();
+	private String hashInjection() throws IOException {
+		try (InputStream in = MinecraftProvider.class.getResourceAsStream("/inject/injection.jar")) {
+			return Hashing.sha256().hashBytes(IOUtils.toByteArray(in)).toString();
 		}
+	}
 
-		cleanProjectCache();
+	private File getStageDirectory(String stage, String key) {
+		File directory = new File(getExtension().getUserCache(), "forge-stages/" + stage + "/" + key);
+		directory.mkdirs();
+		// The modification time of a key directory is its last use
+		directory.setLastModified(System.currentTimeMillis());
+		return directory;
 	}
 
-	private File[] getGlobalCaches() {
-		return new File[] {
-				minecraftClientSrgJar,
-				minecraftServerSrgJar,
-				minecraftClientPatchedSrgJar,
-				minecraftServerPatchedSrgJar
-		};
+	/**
+	 * Deletes the stage outputs that no build has used for {@code fabric.loom.forgeStageRetentionDays} days, 30 by default,
+	 * since every change of the Forge, MCPConfig or Minecraft version adds new keys to each stage.
+	 * The whole {@code forge-stages} directory of the user cache can also be deleted by hand while no build is running.
+	 */
+	private void pruneStages(Logger logger) {
+		File[] stages = new File(getExtension().getUserCache(), "forge-stages").listFiles(File::isDirectory);
+
+		if (stages == null) {
+			return;
+		}
+
+		long cutoff = System.currentTimeMillis() - STAGE_RETENTION;
+
+		for (File stage : stages) {
+			File[] keys = stage.listFiles(file -> file.isDirectory() && file.lastModified() < cutoff);
+
+			if (keys == null) {
+				continue;
+			}
+
+			for (File key : keys) {
+				try {
+					FileUtils.deleteDirectory(key);
+					logger.info(":deleted unused forge stage " + stage.getName() + "/" + key.getName());
+				} catch (IOException e) {
+					logger.warn(":could not delete unused forge stage " + key, e);
+				}
+			}
+		}
 	}
 
-	public void cleanProjectCache() {
-		for (File file : getProjectCache()) {
+	public void cleanAllCache() {
+		for (File file : getCaches()) {
 			file.delete();
 		}
+
+		if (projectAt != null) {
+			minecraftClientPatchedSrgProjectATJar.delete();
+			minecraftServerPatchedSrgProjectATJar.delete();
+		}
 	}
 
-	private File[] getProjectCache() {
+	private File[] getCaches() {
 		return new File[] {
+				minecraftClientSrgJar,
+				minecraftServerSrgJar,
+				minecraftClientPatchedSrgJar,
+				minecraftServerPatchedSrgJar,
 				minecraftClientPatchedSrgATJar,
 				minecraftServerPatchedSrgATJar,
 				minecraftClientPatchedOfficialJar,
@@ -217,34 +282,126 @@ public class MinecraftPatchedProvider extends DependencyProvider {
 			getProject().getLogger().lifecycle(":found dirty access transformers");
 		}
 
-		boolean dirty = false;
+		Logger logger = getProject().getLogger();
+
+		if (isRefreshDeps()) {
+			cleanAllCache();
+		}
+
+		TaskGraph graph = new TaskGraph();
+		ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		TaskGraph.Task readSrgMappings = null;
 
 		if (!minecraftClientSrgJar.exists() || !minecraftServerSrgJar.exists()) {
-			dirty = true;
-			// Remap official jars to MCPConfig remapped srg jars
-			createSrgJars(getProject().getLogger());
+			readSrgMappings = graph.add("read srg mappings", () -> srgMappings = readSrgMappings());
 		}
 
-		if (!minecraftClientPatchedSrgJar.exists() || !minecraftServerPatchedSrgJar.exists()) {
-			dirty = true;
-			patchJars(getProject().getLogger());
-			injectForgeClasses(getProject().getLogger());
+		TaskGraph.Task[] accessTransformed = new TaskGraph.Task[Environment.values().length];
+
+		// Each side goes through its own srg remap, patch and access transform steps, both sides are joined for the official remap.
+		// Stage outputs are published atomically, so one that exists is complete and is never built again.
+		for (Environment environment : Environment.values()) {
+			String side = environment.side();
+			TaskGraph.Task srg = null;
+			TaskGraph.Task patched = null;
+
+			if (!environment.srgJar.apply(this).exists()) {
+				srg = graph.add("srg remap (" + side + ")", () -> buildStage(logger, outputs -> createSrgJar(logger, environment, outputs[0]), environment.srgJar.apply(this)), readSrgMappings);
+			}
+
+			if (!environment.patchedSrgJar.apply(this).exists()) {
+				patched = graph.add("patch (" + side + ")", () -> buildStage(logger, outputs -> patchJar(logger, environment, outputs[0], pool), environment.patchedSrgJar.apply(this)), srg);
+			}
+
+			if (!environment.patchedSrgATJar.apply(this).exists()) {
+				accessTransformed[environment.ordinal()] = graph.add("access transform (" + side + ")",
+						() -> buildStage(logger, outputs -> accessTransformForge(logger, environment, outputs[0], pool), environment.patchedSrgATJar.apply(this)), patched);
+			}
+
+			if (projectAt != null && !environment.patchedSrgProjectATJar.apply(this).exists()) {
+				graph.add("project access transform (" + side + ")",
+						() -> buildStage(logger, outputs -> accessTransformProject(logger, environment, outputs[0]), environment.patchedSrgProjectATJar.apply(this)), patched);
+			}
 		}
 
-		if (atDirty || !minecraftClientPatchedSrgATJar.exists() || !minecraftServerPatchedSrgATJar.exists()) {
-			dirty = true;
-			accessTransformForge(getProject().getLogger());
+		TaskGraph.Task remapped = null;
+
+		if (!minecraftClientPatchedOfficialJar.exists() || !minecraftServerPatchedOfficialJar.exists()) {
+			// Gradle configurations can't be resolved from the graph's threads
+			Path[] libraries = MinecraftMappedProvider.getRemapClasspath(getProject());
+			remapped = graph.add("official remap", () -> buildStage(logger, outputs -> remapPatchedJars(logger, libraries, outputs[0], outputs[1]),
+					minecraftClientPatchedOfficialJar, minecraftServerPatchedOfficialJar), accessTransformed);
 		}
 
-		if (dirty) {
-			remapPatchedJars(getProject().getLogger());
+		if (!minecraftMergedPatchedJar.exists()) {
+			graph.add("merge", () -> buildStage(logger, outputs -> mergeJars(logger, outputs[0]), minecraftMergedPatchedJar), remapped);
 		}
 
-		if (dirty || !minecraftMergedPatchedJar.exists()) {
-			mergeJars(getProject().getLogger());
+		try {
+			graph.run(logger);
+		} finally {
+			pool.shutdown();
+			srgMappings = null;
+		}
+
+		pruneStages(logger);
+	}
+
+	/**
+	 * Builds the outputs of a stage while holding their cache locks, unless another build made them while this one was waiting.
+	 * The outputs are written to temporary files and moved in place once all of them are complete.
+	 */
+	private void buildStage(Logger logger, StageWriter writer, File... outputs) throws Exception {
+		Path[] temps = new Path[outputs.length];
+		boolean upToDate = true;
+		Closer closer = Closer.create();
+
+		try {
+			for (int i = 0; i < outputs.length; i++) {
+				Path output = outputs[i].toPath();
+				CacheLock lock = closer.register(CacheLock.acquire(output, logger));
+
+				// Only the temporary file can be left half written by a build that died, the output itself is rebuilt to be safe
+				if (lock.isDirty()) {
+					Files.deleteIfExists(output);
+				}
+
+				upToDate &= Files.exists(output);
+				temps[i] = CacheLock.tempFile(output);
+				Files.deleteIfExists(temps[i]);
+			}
+
+			if (upToDate) {
+				logger.info(":reusing " + outputs[0].getName() + " made by another build");
+				return;
+			}
+
+			writer.write(temps);
+
+			for (int i = 0; i < outputs.length; i++) {
+				CacheLock.publish(temps[i], outputs[i].toPath());
+			}
+		} catch (Throwable t) {
+			throw closer.rethrow(t, Exception.class);
+		} finally {
+			// The temporary files are deleted before the locks are released
+			try {
+				for (Path temp : temps) {
+					if (temp != null) {
+						Files.deleteIfExists(temp);
+					}
+				}
+			} finally {
+				closer.close();
+			}
 		}
 	}
 
+	@FunctionalInterface
+	private interface StageWriter {
+		void write(Path[] outputs) throws Exception;
+	}
+
 	private void writeAtHash() throws IOException {
 		try (FileOutputStream out = new FileOutputStream(projectAtHash)) {
 			if (projectAt != null) {
@@ -255,11 +412,9 @@ public class MinecraftPatchedProvider extends DependencyProvider {
 		}
 	}
 
-	private void createSrgJars(Logger logger) throws Exception {
+	private SpecialSourceExecutor.SrgMappings readSrgMappings() throws IOException {
 		McpConfigProvider mcpProvider = getExtension().getMcpConfigProvider();
 
-		MinecraftProvider minecraftProvider = getExtension().getMinecraftProvider();
-
 		String[] mappingsPath = {null};
 
 		if (!ZipUtil.handle(mcpProvider.getMcp(), "config.json", (in, zipEntry) -> {
@@ -268,145 +423,90 @@ public class MinecraftPatchedProvider extends DependencyProvider {
 			throw new IllegalStateException("Failed to find 'config.json' in " + mcpProvider.getMcp().getAbsolutePath() + "!");
 		}
 
-		Path[] tmpSrg = {null};
+		String[] srg = {null};
 
 		if (!ZipUtil.handle(mcpProvider.getMcp(), mappingsPath[0], (in, zipEntry) -> {
-			tmpSrg[0] = Files.createTempFile(null, null);
-
-			try (BufferedWriter writer = Files.newBufferedWriter(tmpSrg[0])) {
-				IOUtils.copy(in, writer, StandardCharsets.UTF_8);
-			}
+			srg[0] = IOUtils.toString(in, StandardCharsets.UTF_8);
 		})) {
 			throw new IllegalStateException("Failed to find mappings '" + mappingsPath[0] + "' in " + mcpProvider.getMcp().getAbsolutePath() + "!");
 		}
 
-		File specialSourceJar = new File(getExtension().getUserCache(), "SpecialSource-1.8.3-shaded.jar");
-		DownloadUtil.downloadIfChanged(new URL("https://repo1.maven.org/maven2/net/md-5/SpecialSource/1.8.3/SpecialSource-1.8.3-shaded.jar"), specialSourceJar, getProject().getLogger(), true);
-
-		ThreadingUtils.run(() -> {
-			Files.copy(SpecialSourceExecutor.produceSrgJar(getProject(), mappingsProvider, "client", specialSourceJar, minecraftProvider.minecraftClientJar.toPath(), tmpSrg[0]), minecraftClientSrgJar.toPath());
-		}, () -> {
-				Files.copy(SpecialSourceExecutor.produceSrgJar(getProject(), mappingsProvider, "server", specialSourceJar, minecraftProvider.minecraftServerJar.toPath(), tmpSrg[0]), minecraftServerSrgJar.toPath());
-			});
+		return SpecialSourceExecutor.readMappings(srg[0]);
 	}
 
-	private void fixParameterAnnotation(File jarFile) throws Exception {
-		getProject().getLogger().info(":fixing parameter annotations for " + jarFile.toString());
-
-		try (FileSystem fs = FileSystems.newFileSystem(new URI("jar:" + jarFile.toURI()), ImmutableMap.of("create", false))) {
-			for (Path rootDir : fs.getRootDirectories()) {
-				for (Path file : (Iterable<? extends Path>) Files.walk(rootDir)::iterator) {
-					if (!file.toString().endsWith(".class")) continue;
-					byte[] bytes = Files.readAllBytes(file);
-					ClassReader reader = new ClassReader(bytes);
-					ClassNode node = new ClassNode();
-					ClassVisitor visitor = new ParameterAnnotationFixer(node, null);
-					reader.accept(visitor, 0);
-
-					ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-					node.accept(writer);
-					byte[] out = writer.toByteArray();
-
-					if (!Arrays.equals(bytes, out)) {
-						Files.delete(file);
-						Files.write(file, out);
-					}
-				}
-			}
-		}
+	private void createSrgJar(Logger logger, Environment environment, Path output) throws IOException {
+		// Remap official jars to MCPConfig remapped srg jars
+		MinecraftProvider minecraftProvider = getExtension().getMinecraftProvider();
+		File officialJar = environment == Environment.CLIENT ? minecraftProvider.minecraftClientJar : minecraftProvider.minecraftServerJar;
+		SpecialSourceExecutor.produceSrgJar(logger, environment.side(), srgMappings, officialJar.toPath(), output);
 	}
 
-	private void injectForgeClasses(Logger logger) throws IOException {
-		logger.lifecycle(":injecting forge classes into minecraft");
-		ThreadingUtils.run(Arrays.asList(Environment.values()), environment -> {
-			copyAll(getExtension().getForgeUniversalProvider().getForge(), environment.patchedSrgJar.apply(this));
-			copyUserdevFiles(getExtension().getForgeUserdevProvider().getUserdevJar(), environment.patchedSrgJar.apply(this));
-		});
-
-		logger.lifecycle(":injecting loom classes into minecraft");
-		File injection = File.createTempFile("loom-injection", ".jar");
+	private void accessTransformForge(Logger logger, Environment environment, Path output, ForkJoinPool pool) throws IOException {
+		String side = environment.side();
+		logger.lifecycle(":access transforming minecraft (" + side + ")");
 
-		try (InputStream in = MinecraftProvider.class.getResourceAsStream("/inject/injection.jar")) {
-			FileUtils.copyInputStreamToFile(in, injection);
-		}
-
-		for (Environment environment : Environment.values()) {
-			String side = environment.side();
-			File target = environment.patchedSrgJar.apply(this);
-			walkFileSystems(injection, target, it -> {
-				if (it.getFileName().toString().equals("MANIFEST.MF")) {
-					return false;
-				}
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		Path input = environment.patchedSrgJar.apply(this).toPath();
+		ForgeAccessTransformer.parse(readForgeAt(input)).apply(input, output, pool);
+		logger.info(":access transformed minecraft (" + side + ") in " + stopwatch.stop());
+	}
 
-				return getExtension().useFabricMixin || !it.getFileName().toString().endsWith("cpw.mods.modlauncher.api.ITransformationService");
-			}, this::copyReplacing);
-		}
+	/**
+	 * Runs the Forge and project access transformers over only the classes targeted by the project one.
+	 * The rest of the jar is left to the cached Forge only output, see {@link #getProjectAccessTransformerDelta()}.
+	 */
+	private void accessTransformProject(Logger logger, Environment environment, Path output) throws IOException {
+		logger.lifecycle(":applying project access transformers (" + environment.side() + ")");
+
+		String projectAtContents = FileUtils.readFileToString(projectAt, StandardCharsets.UTF_8);
+		ForgeAccessTransformer projectTransformer = ForgeAccessTransformer.parse(projectAtContents);
+		Path input = environment.patchedSrgJar.apply(this).toPath();
+		ForgeAccessTransformer transformer = ForgeAccessTransformer.parse(readForgeAt(input), projectAtContents);
+		new JarTransformer()
+				.add(RawZipFile.open(input), projectTransformer::isTarget, true, transformer)
+				.write(output);
 	}
 
-	private void accessTransformForge(Logger logger) throws Exception {
-		for (Environment environment : Environment.values()) {
-			String side = environment.side();
-			logger.lifecycle(":access transforming minecraft (" + side + ")");
-
-			File input = environment.patchedSrgJar.apply(this);
-			File inputCopied = File.createTempFile("at" + side, ".jar");
-			FileUtils.copyFile(input, inputCopied);
-			File target = environment.patchedSrgATJar.apply(this);
-			target.delete();
-			File at = File.createTempFile("at" + side, ".cfg");
-			JarUtil.extractFile(inputCopied, "META-INF/accesstransformer.cfg", at);
-			String[] args = new String[] {
-					"--inJar", inputCopied.getAbsolutePath(),
-					"--outJar", target.getAbsolutePath(),
-					"--atFile", at.getAbsolutePath()
-			};
-
-			if (usesProjectCache()) {
-				args = Arrays.copyOf(args, args.length + 2);
-				args[args.length - 2] = "--atFile";
-				args[args.length - 1] = projectAt.getAbsolutePath();
-			}
+	private String readForgeAt(Path patchedJar) throws IOException {
+		RawZipFile zip = RawZipFile.open(patchedJar);
+		RawZipFile.Entry entry = zip.getEntry("META-INF/accesstransformer.cfg");
 
-			resetAccessTransformerEngine();
-			TransformerProcessor.main(args);
-			inputCopied.delete();
+		if (entry == null) {
+			throw new IllegalStateException("Failed to find 'META-INF/accesstransformer.cfg' in " + patchedJar + "!");
 		}
-	}
 
-	private void resetAccessTransformerEngine() throws Exception {
-		// Thank you Forge, I love you
-		Field field = AccessTransformerEngine.class.getDeclaredField("masterList");
-		field.setAccessible(true);
-		AccessTransformerList list = (AccessTransformerList) field.get(AccessTransformerEngine.INSTANCE);
-		field = AccessTransformerList.class.getDeclaredField("accessTransformers");
-		field.setAccessible(true);
-		((Map<?, ?>) field.get(list)).clear();
+		return new String(zip.getData(entry), StandardCharsets.UTF_8);
 	}
 
 	private enum Environment {
 		CLIENT(provider -> provider.minecraftClientSrgJar,
 				provider -> provider.minecraftClientPatchedSrgJar,
 				provider -> provider.minecraftClientPatchedSrgATJar,
+				provider -> provider.minecraftClientPatchedSrgProjectATJar,
 				provider -> provider.minecraftClientPatchedOfficialJar
 		),
 		SERVER(provider -> provider.minecraftServerSrgJar,
 				provider -> provider.minecraftServerPatchedSrgJar,
 				provider -> provider.minecraftServerPatchedSrgATJar,
+				provider -> provider.minecraftServerPatchedSrgProjectATJar,
 				provider -> provider.minecraftServerPatchedOfficialJar
 		);
 
 		final Function<MinecraftPatchedProvider, File> srgJar;
 		final Function<MinecraftPatchedProvider, File> patchedSrgJar;
 		final Function<MinecraftPatchedProvider, File> patchedSrgATJar;
+		final Function<MinecraftPatchedProvider, File> patchedSrgProjectATJar;
 		final Function<MinecraftPatchedProvider, File> patchedOfficialJar;
 
 		Environment(Function<MinecraftPatchedProvider, File> srgJar,
 				Function<MinecraftPatchedProvider, File> patchedSrgJar,
 				Function<MinecraftPatchedProvider, File> patchedSrgATJar,
+				Function<MinecraftPatchedProvider, File> patchedSrgProjectATJar,
 				Function<MinecraftPatchedProvider, File> patchedOfficialJar) {
 			this.srgJar = srgJar;
 			this.patchedSrgJar = patchedSrgJar;
 			this.patchedSrgATJar = patchedSrgATJar;
+			this.patchedSrgProjectATJar = patchedSrgProjectATJar;
 			this.patchedOfficialJar = patchedOfficialJar;
 		}
 
@@ -415,163 +515,164 @@ public class MinecraftPatchedProvider extends DependencyProvider {
 		}
 	}
 
-	private void remapPatchedJars(Logger logger) throws Exception {
-		Path[] libraries = MinecraftMappedProvider.getRemapClasspath(getProject());
+	private void remapPatchedJars(Logger logger, Path[] libraries, Path clientOutput, Path serverOutput) throws Exception {
+		logger.lifecycle(":remapping minecraft (TinyRemapper, srg -> official)");
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		TinyTree mappingsWithSrg = getExtension().getMappingsProvider().getMappingsWithSrg();
 
-		ThreadingUtils.run(Arrays.asList(Environment.values()), environment -> {
-			logger.lifecycle(":remapping minecraft (TinyRemapper, " + environment.side() + ", srg -> official)");
-			TinyTree mappingsWithSrg = getExtension().getMappingsProvider().getMappingsWithSrg();
+		Path clientInput = minecraftClientPatchedSrgATJar.toPath();
+		Path serverInput = minecraftServerPatchedSrgATJar.toPath();
+		Path serverOnlyInput = Files.createTempFile("server-only", ".jar");
 
-			Path input = environment.patchedSrgATJar.apply(this).toPath();
-			Path output = environment.patchedOfficialJar.apply(this).toPath();
+		// Both sides are remapped by a single remapper, which cannot tell apart two classes with the same name,
+		// so the server input only contains the classes that are not in the client jar.
+		Set<String> clientClasses = new HashSet<>();
 
-			Files.deleteIfExists(output);
-
-			TinyRemapper remapper = TinyRemapper.newRemapper()
-					.logger(getProject().getLogger()::lifecycle)
-					.withMappings(TinyRemapperMappingsHelper.create(mappingsWithSrg, "srg", "official", true))
-					.withMappings(InnerClassRemapper.of(input, mappingsWithSrg, "srg", "official"))
-					.renameInvalidLocals(true)
-					.rebuildSourceFilenames(true)
-					.fixPackageAccess(true)
-					.build();
+		for (RawZipFile.Entry entry : RawZipFile.open(clientInput).getEntries()) {
+			clientClasses.add(entry.getName());
+		}
 
-			try (OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(output).build()) {
-				outputConsumer.addNonClassFiles(input);
+		new JarTransformer()
+				.add(RawZipFile.open(serverInput), name -> name.endsWith(".class") && !clientClasses.contains(name), true, null)
+				.write(serverOnlyInput);
+
+		TinyRemapper remapper = TinyRemapper.newRemapper()
+				.logger(getProject().getLogger()::lifecycle)
+				.withMappings(TinyRemapperMappingsHelper.create(mappingsWithSrg, "srg", "official", true))
+				.withMappings(InnerClassRemapper.of(Arrays.asList(clientInput, serverOnlyInput), mappingsWithSrg, "srg", "official"))
+				.renameInvalidLocals(true)
+				.rebuildSourceFilenames(true)
+				.fixPackageAccess(true)
+				.build();
+
+		try (OutputConsumerPath clientConsumer = new OutputConsumerPath.Builder(clientOutput).build();
+				OutputConsumerPath serverConsumer = new OutputConsumerPath.Builder(serverOutput).build()) {
+			clientConsumer.addNonClassFiles(clientInput);
+			serverConsumer.addNonClassFiles(serverInput);
+
+			InputTag clientTag = remapper.createInputTag();
+			InputTag serverTag = remapper.createInputTag();
+			remapper.readClassPathAsync(libraries);
+			remapper.readInputsAsync(clientTag, clientInput);
+			remapper.readInputsAsync(serverTag, serverOnlyInput);
+
+			remapper.apply(clientConsumer, clientTag);
+			remapper.apply(serverConsumer, serverTag);
+		} finally {
+			remapper.finish();
+			Files.deleteIfExists(serverOnlyInput);
+		}
 
-				remapper.readClassPath(libraries);
-				remapper.readInputs(input);
-				remapper.apply(outputConsumer);
-			} finally {
-				remapper.finish();
-			}
-		});
+		logger.info(":remapped minecraft to official in " + stopwatch.stop());
 	}
 
-	private void patchJars(Logger logger) throws IOException {
-		logger.lifecycle(":patching jars");
+	private void patchJar(Logger logger, Environment environment, Path output, ForkJoinPool pool) throws IOException {
+		logger.lifecycle(":patching minecraft (" + environment.side() + ")");
 
 		PatchProvider patchProvider = getExtension().getPatchProvider();
-		patchJars(minecraftClientSrgJar, minecraftClientPatchedSrgJar, patchProvider.clientPatches);
-		patchJars(minecraftServerSrgJar, minecraftServerPatchedSrgJar, patchProvider.serverPatches);
+		Path patches = environment == Environment.CLIENT ? patchProvider.clientPatches : patchProvider.serverPatches;
+		byte[] injection;
 
-		ThreadingUtils.run(Arrays.asList(Environment.values()), environment -> {
-			copyMissingClasses(environment.srgJar.apply(this), environment.patchedSrgJar.apply(this));
-			fixParameterAnnotation(environment.patchedSrgJar.apply(this));
-		});
-	}
+		try (InputStream in = MinecraftProvider.class.getResourceAsStream("/inject/injection.jar")) {
+			injection = IOUtils.toByteArray(in);
+		}
 
-	private void patchJars(File clean, File output, Path patches) throws IOException {
-		PrintStream previous = System.out;
+		patchJars(logger, environment.side(), environment.srgJar.apply(this), output, patches, injection, pool);
+	}
 
-		try {
-			System.setOut(new PrintStream(new NullOutputStream()));
-		} catch (SecurityException ignored) {
-			// Failed to replace logger filter, just ignore
-		}
+	private void patchJars(Logger logger, String side, File clean, Path output, Path patches, byte[] injection, ForkJoinPool pool) throws IOException {
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		ForgePatchApplier applier = ForgePatchApplier.load(patches);
+		Map<String, byte[]> patched = applier.apply(clean.toPath(), pool);
+		logger.info(":patched " + applier.getPatchedClassCount() + " classes (" + side + ") in " + stopwatch);
+
+		logger.lifecycle(":injecting forge and loom classes into minecraft (" + side + ")");
+
+		// Post-process the patched classes in a single pass:
+		// copy the unpatched classes, fix parameter annotations, then add the Forge, userdev and Loom files.
+		ParameterAnnotationTransformer parameterAnnotationFixer = new ParameterAnnotationTransformer();
+		new JarTransformer()
+				.add(patched, ForgePatchApplier.ZIPTIME, true, parameterAnnotationFixer)
+				.add(RawZipFile.open(clean.toPath()), name -> name.endsWith(".class"), false, parameterAnnotationFixer)
+				.add(RawZipFile.open(getExtension().getForgeUniversalProvider().getForge().toPath()), name -> true, true, null)
+				.add(RawZipFile.open(getExtension().getForgeUserdevProvider().getUserdevJar().toPath()), name -> name.startsWith("inject/"), name -> name.substring("inject/".length()), true, null)
+				.add(RawZipFile.of(injection), name -> {
+					if (name.endsWith("/") || name.endsWith("MANIFEST.MF")) {
+						return false;
+					}
 
-		ConsoleTool.main(new String[] {
-				"--clean", clean.getAbsolutePath(),
-				"--output", output.getAbsolutePath(),
-				"--apply", patches.toAbsolutePath().toString()
-		});
+					return getExtension().useFabricMixin || !name.endsWith("cpw.mods.modlauncher.api.ITransformationService");
+				}, true, null)
+				.write(output, pool);
 
-		try {
-			System.setOut(previous);
-		} catch (SecurityException ignored) {
-			// Failed to replace logger filter, just ignore
-		}
+		logger.info(":fixed parameter annotations (" + side + "): " + parameterAnnotationFixer);
+		logger.info(":patched and post-processed minecraft (" + side + ") in " + stopwatch.stop());
 	}
 
-	private void mergeJars(Logger logger) throws IOException {
-		// FIXME: Hack here: There are no server-only classes so we can just copy the client JAR.
-		FileUtils.copyFile(minecraftClientPatchedOfficialJar, minecraftMergedPatchedJar);
-
-		logger.lifecycle(":copying resources");
+	private void mergeJars(Logger logger, Path output) throws IOException {
+		logger.lifecycle(":merging jars");
 
-		// Copy resources
 		MinecraftProvider minecraftProvider = getExtension().getMinecraftProvider();
-		copyNonClassFiles(minecraftProvider.minecraftClientJar, minecraftMergedPatchedJar);
-		copyNonClassFiles(minecraftProvider.minecraftServerJar, minecraftMergedPatchedJar);
-	}
+		RawZipFile client = RawZipFile.open(minecraftClientPatchedOfficialJar.toPath());
+		RawZipFile server = RawZipFile.open(minecraftServerPatchedOfficialJar.toPath());
+		Set<String> clientEntries = new HashSet<>();
 
-	private void walkFileSystems(File source, File target, Predicate<Path> filter, Function<FileSystem, Iterable<Path>> toWalk, FsPathConsumer action)
-			throws IOException {
-		try (FileSystemUtil.FileSystemDelegate sourceFs = FileSystemUtil.getJarFileSystem(source, false);
-				FileSystemUtil.FileSystemDelegate targetFs = FileSystemUtil.getJarFileSystem(target, false)) {
-			for (Path sourceDir : toWalk.apply(sourceFs.get())) {
-				Path dir = sourceDir.toAbsolutePath();
-				Files.walk(dir)
-						.filter(Files::isRegularFile)
-						.filter(filter)
-						.forEach(it -> {
-							boolean root = dir.getParent() == null;
-
-							try {
-								Path relativeSource = root ? it : dir.relativize(it);
-								Path targetPath = targetFs.get().getPath(relativeSource.toString());
-								action.accept(sourceFs.get(), targetFs.get(), it, targetPath);
-							} catch (IOException e) {
-								throw new UncheckedIOException(e);
-							}
-						});
-			}
+		for (RawZipFile.Entry entry : client.getEntries()) {
+			clientEntries.add(entry.getName());
 		}
-	}
-
-	private void walkFileSystems(File source, File target, Predicate<Path> filter, FsPathConsumer action) throws IOException {
-		walkFileSystems(source, target, filter, FileSystem::getRootDirectories, action);
-	}
 
-	private void copyAll(File source, File target) throws IOException {
-		walkFileSystems(source, target, it -> true, this::copyReplacing);
+		long serverOnlyClasses = server.getEntries().stream()
+				.map(RawZipFile.Entry::getName)
+				.filter(name -> name.endsWith(".class") && !clientEntries.contains(name))
+				.count();
+		logger.info(":found " + serverOnlyClasses + " server-only classes");
+
+		// The patched client jar comes first, then the server-only classes, then the vanilla resources of both sides.
+		new JarTransformer()
+				.add(client, name -> true, true, null)
+				.add(server, name -> name.endsWith(".class"), false, null)
+				.add(RawZipFile.open(minecraftProvider.minecraftClientJar.toPath()), name -> !name.endsWith("/") && !name.endsWith(".class"), true, null)
+				.add(RawZipFile.open(minecraftProvider.minecraftServerJar.toPath()), name -> !name.endsWith("/") && !name.endsWith(".class"), true, null)
+				.write(output);
 	}
 
-	private void copyMissingClasses(File source, File target) throws IOException {
-		walkFileSystems(source, target, it -> it.toString().endsWith(".class"), (sourceFs, targetFs, sourcePath, targetPath) -> {
-			if (Files.exists(targetPath)) return;
-			Path parent = targetPath.getParent();
-
-			if (parent != null) {
-				Files.createDirectories(parent);
-			}
-
-			Files.copy(sourcePath, targetPath);
-		});
+	public File getMergedJar() {
+		return minecraftMergedPatchedJar;
 	}
 
-	private void copyNonClassFiles(File source, File target) throws IOException {
-		walkFileSystems(source, target, it -> !it.toString().endsWith(".class"), this::copyReplacing);
+	public boolean usesProjectCache() {
+		return projectAt != null;
 	}
 
-	private void copyReplacing(FileSystem sourceFs, FileSystem targetFs, Path sourcePath, Path targetPath) throws IOException {
-		Path parent = targetPath.getParent();
-
-		if (parent != null) {
-			Files.createDirectories(parent);
+	/**
+	 * Gets the access changes made by the project access transformer on top of the Forge ones, in srg names.
+	 * The merged jar only has the Forge access transformers applied, so these have to be applied to the mapped jars.
+	 *
+	 * @return the changes, or null if the project has no access transformer
+	 */
+	@Nullable
+	public AccessTransformerDelta getProjectAccessTransformerDelta() throws IOException {
+		if (projectAt == null) {
+			return null;
 		}
 
-		Files.copy(sourcePath, targetPath, StandardCopyOption.REPLACE_EXISTING);
-	}
+		if (projectAtDelta == null) {
+			AccessTransformerDelta delta = null;
 
-	private void copyUserdevFiles(File source, File target) throws IOException {
-		walkFileSystems(source, target, file -> true, fs -> Collections.singleton(fs.getPath("inject")), (sourceFs, targetFs, sourcePath, targetPath) -> {
-			Path parent = targetPath.getParent();
+			for (Environment environment : Environment.values()) {
+				AccessTransformerDelta sideDelta = AccessTransformerDelta.compute(environment.patchedSrgATJar.apply(this).toPath(), environment.patchedSrgProjectATJar.apply(this).toPath());
 
-			if (parent != null) {
-				Files.createDirectories(parent);
+				if (delta == null) {
+					delta = sideDelta;
+				} else {
+					delta.merge(sideDelta);
+				}
 			}
 
-			Files.copy(sourcePath, targetPath);
-		});
-	}
-
-	public File getMergedJar() {
-		return minecraftMergedPatchedJar;
-	}
+			projectAtDelta = delta;
+		}
 
-	public boolean usesProjectCache() {
-		return projectAt != null;
+		return projectAtDelta;
 	}
 
 	public boolean isAtDirty() {
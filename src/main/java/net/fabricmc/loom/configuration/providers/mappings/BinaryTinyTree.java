@@ -0,0 +1,760 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.configuration.providers.mappings;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jetbrains.annotations.Nullable;
+
+import net.fabricmc.loom.util.OperatingSystem;
+import net.fabricmc.mapping.tree.ClassDef;
+import net.fabricmc.mapping.tree.FieldDef;
+import net.fabricmc.mapping.tree.LocalVariableDef;
+import net.fabricmc.mapping.tree.Mapped;
+import net.fabricmc.mapping.tree.MethodDef;
+import net.fabricmc.mapping.tree.ParameterDef;
+import net.fabricmc.mapping.tree.TinyMappingFactory;
+import net.fabricmc.mapping.tree.TinyMetadata;
+import net.fabricmc.mapping.tree.TinyTree;
+
+/**
+ * A {@link TinyTree} backed by a compiled, memory mapped copy of a tiny file.
+ *
+ * <p>The compiled file holds a pool of the distinct strings and the classes and members as arrays of string indices,
+ * along with the classes sorted by name in every namespace. Nothing is parsed when it is opened,
+ * and the views of classes and members are only created when they are accessed. Every string is decoded once, the first
+ * time it is read, and shared by all the views that refer to it.
+ */
+public final class BinaryTinyTree implements TinyTree {
+	private static final int MAGIC = 0x4C544254;
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 48;
+
+	private final ByteBuffer buffer;
+	private final int namespaceCount;
+	private final Map<String, Integer> namespaceIndices = new HashMap<>();
+	private final Metadata metadata;
+	private final int stringOffsets;
+	private final int stringData;
+	// The decoded strings by id, filled in as they are first read. Racing threads at worst decode a string twice.
+	private final String[] strings;
+	private final int classCount;
+	private final int classTable;
+	private final int records;
+
+	private BinaryTinyTree(ByteBuffer buffer) {
+		this.buffer = buffer;
+		int meta = buffer.getInt(32);
+		int pool = buffer.getInt(36);
+		this.classTable = buffer.getInt(40) + 4;
+		this.records = buffer.getInt(44);
+		this.stringOffsets = pool + 4;
+		this.stringData = stringOffsets + 4 * (buffer.getInt(pool) + 1);
+		this.strings = new String[buffer.getInt(pool)];
+		this.classCount = buffer.getInt(classTable - 4);
+		this.namespaceCount = buffer.getInt(meta);
+
+		List<String> namespaces = new ArrayList<>(namespaceCount);
+
+		for (int i = 0; i < namespaceCount; i++) {
+			String namespace = string(buffer.getInt(meta + 4 + 4 * i));
+			namespaces.add(namespace);
+			namespaceIndices.put(namespace, i);
+		}
+
+		Map<String, String> properties = new LinkedHashMap<>();
+		int propertyTable = meta + 4 + 4 * namespaceCount;
+
+		for (int i = 0; i < buffer.getInt(propertyTable); i++) {
+			String value = string(buffer.getInt(propertyTable + 8 + 8 * i));
+			properties.put(string(buffer.getInt(propertyTable + 4 + 8 * i)), value);
+		}
+
+		this.metadata = new Metadata(buffer.getInt(24), buffer.getInt(28), Collections.unmodifiableList(namespaces), Collections.unmodifiableMap(properties));
+	}
+
+	/**
+	 * Loads a tiny file through its compiled copy next to it, compiling it first if it is missing or out of date.
+	 *
+	 * @param source the tiny file
+	 * @return the mappings
+	 */
+	public static BinaryTinyTree load(Path source) throws IOException {
+		Path compiled = source.resolveSibling(source.getFileName() + ".bin");
+		long size = Files.size(source);
+		long modified = Files.getLastModifiedTime(source).toMillis();
+
+		if (!isUpToDate(compiled, size, modified)) {
+			TinyTree mappings;
+
+			try (BufferedReader reader = Files.newBufferedReader(source)) {
+				mappings = TinyMappingFactory.loadWithDetection(reader);
+			}
+
+			Path temp = Files.createTempFile(source.getParent(), source.getFileName().toString(), ".tmp");
+
+			try {
+				Files.write(temp, compile(mappings, size, modified));
+				Files.move(temp, compiled, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		}
+
+		return open(compiled);
+	}
+
+	private static boolean isUpToDate(Path compiled, long size, long modified) throws IOException {
+		if (!Files.exists(compiled)) {
+			return false;
+		}
+
+		try (InputStream in = Files.newInputStream(compiled); DataInputStream data = new DataInputStream(in)) {
+			return Files.size(compiled) >= HEADER_SIZE && data.readInt() == MAGIC && data.readInt() == VERSION && data.readLong() == size && data.readLong() == modified;
+		}
+	}
+
+	private static BinaryTinyTree open(Path compiled) throws IOException {
+		// Mapped files cannot be deleted or replaced on Windows until they are garbage collected, so read them there instead.
+		if (OperatingSystem.getOS().equals("windows")) {
+			return new BinaryTinyTree(ByteBuffer.wrap(Files.readAllBytes(compiled)));
+		}
+
+		try (FileChannel channel = FileChannel.open(compiled, StandardOpenOption.READ)) {
+			return new BinaryTinyTree(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Compiles mappings into the binary format.
+	 *
+	 * @param mappings the mappings
+	 * @param size     the size of the source file, used to detect changes
+	 * @param modified the modification time of the source file, used to detect changes
+	 * @return the contents of the compiled file
+	 */
+	static byte[] compile(TinyTree mappings, long size, long modified) throws IOException {
+		return new Compiler(mappings).write(size, modified);
+	}
+
+	/**
+	 * Gets the size of the compiled mappings in bytes, which is also the memory they take once fully paged in.
+	 * The names that were read are cached on the heap on top of that.
+	 */
+	public int getSize() {
+		return buffer.capacity();
+	}
+
+	@Override
+	public TinyMetadata getMetadata() {
+		return metadata;
+	}
+
+	@Override
+	public Map<String, ClassDef> getDefaultNamespaceClassMap() {
+		return new ClassMap(metadata.getNamespaces().get(0));
+	}
+
+	@Override
+	public Collection<ClassDef> getClasses() {
+		return new AbstractList<ClassDef>() {
+			@Override
+			public ClassDef get(int index) {
+				return new ClassView(records + buffer.getInt(classTable + 4 * index));
+			}
+
+			@Override
+			public int size() {
+				return classCount;
+			}
+		};
+	}
+
+	/**
+	 * Finds a class by its name in a namespace with a binary search, without creating views of the other classes.
+	 *
+	 * @return the class, or null if there is no class with that name
+	 */
+	@Nullable
+	public ClassDef findClass(String namespace, String name) {
+		int sorted = classTable + 4 * classCount * (1 + namespaceIndex(namespace));
+		int nameOffset = 4 * namespaceIndex(namespace);
+		byte[] key = name.getBytes(StandardCharsets.UTF_8);
+		int low = 0;
+		int high = classCount - 1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int record = records + buffer.getInt(classTable + 4 * buffer.getInt(sorted + 4 * middle));
+			int comparison = compare(resolved(buffer.getInt(record + nameOffset)), key);
+
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return new ClassView(record);
+			}
+		}
+
+		return null;
+	}
+
+	private int namespaceIndex(String namespace) {
+		Integer index = namespaceIndices.get(namespace);
+
+		if (index == null) {
+			throw new IllegalArgumentException("Unknown namespace " + namespace + ", expected one of " + metadata.getNamespaces());
+		}
+
+		return index;
+	}
+
+	/**
+	 * Gets the id of a name that is stored with a flag telling that its raw name is missing, see {@link Compiler#writeName}.
+	 */
+	private static int resolved(int id) {
+		return id < -1 ? -id - 2 : id;
+	}
+
+	@Nullable
+	private String string(int id) {
+		if (id < 0) {
+			return null;
+		}
+
+		String string = strings[id];
+
+		if (string == null) {
+			int start = buffer.getInt(stringOffsets + 4 * id);
+			byte[] bytes = new byte[buffer.getInt(stringOffsets + 4 * (id + 1)) - start];
+			ByteBuffer data = buffer.duplicate();
+			data.position(stringData + start);
+			data.get(bytes);
+			string = new String(bytes, StandardCharsets.UTF_8);
+			strings[id] = string;
+		}
+
+		return string;
+	}
+
+	private int compare(int id, byte[] key) {
+		int start = stringData + buffer.getInt(stringOffsets + 4 * id);
+		int length = stringData + buffer.getInt(stringOffsets + 4 * (id + 1)) - start;
+
+		for (int i = 0; i < Math.min(length, key.length); i++) {
+			int comparison = Integer.compare(buffer.get(start + i) & 0xFF, key[i] & 0xFF);
+
+			if (comparison != 0) {
+				return comparison;
+			}
+		}
+
+		return Integer.compare(length, key.length);
+	}
+
+	private static int compare(byte[] a, byte[] b) {
+		for (int i = 0; i < Math.min(a.length, b.length); i++) {
+			int comparison = Integer.compare(a[i] & 0xFF, b[i] & 0xFF);
+
+			if (comparison != 0) {
+				return comparison;
+			}
+		}
+
+		return Integer.compare(a.length, b.length);
+	}
+
+	/**
+	 * A view of a record starting with its names in every namespace.
+	 */
+	private class MappedView {
+		final int offset;
+
+		MappedView(int offset) {
+			this.offset = offset;
+		}
+
+		public String getName(String namespace) {
+			return string(resolved(buffer.getInt(offset + 4 * namespaceIndex(namespace))));
+		}
+
+		// Names are stored resolved, the raw name is empty when the resolved name is a fallback.
+		public String getRawName(String namespace) {
+			int id = buffer.getInt(offset + 4 * namespaceIndex(namespace));
+			return id < 0 ? "" : string(id);
+		}
+
+		int commentOffset() {
+			return offset + 4 * namespaceCount;
+		}
+
+		@Nullable
+		public String getComment() {
+			return string(buffer.getInt(commentOffset()));
+		}
+	}
+
+	private final class ClassView extends MappedView implements ClassDef {
+		ClassView(int offset) {
+			super(offset);
+		}
+
+		@Override
+		public Collection<FieldDef> getFields() {
+			int fields = commentOffset() + 12 + 4 * methodCount();
+
+			return new AbstractList<FieldDef>() {
+				@Override
+				public FieldDef get(int index) {
+					return new FieldView(fields + 4 * (2 * namespaceCount + 1) * index);
+				}
+
+				@Override
+				public int size() {
+					return buffer.getInt(commentOffset() + 4);
+				}
+			};
+		}
+
+		@Override
+		public Collection<MethodDef> getMethods() {
+			return new AbstractList<MethodDef>() {
+				@Override
+				public MethodDef get(int index) {
+					return new MethodView(records + buffer.getInt(commentOffset() + 12 + 4 * index));
+				}
+
+				@Override
+				public int size() {
+					return methodCount();
+				}
+			};
+		}
+
+		private int methodCount() {
+			return buffer.getInt(commentOffset() + 8);
+		}
+	}
+
+	private final class FieldView extends MappedView implements FieldDef {
+		FieldView(int offset) {
+			super(offset);
+		}
+
+		@Override
+		public String getDescriptor(String namespace) {
+			return string(buffer.getInt(offset + 4 * (namespaceCount + namespaceIndex(namespace))));
+		}
+
+		@Override
+		int commentOffset() {
+			return offset + 8 * namespaceCount;
+		}
+	}
+
+	private final class MethodView extends MappedView implements MethodDef {
+		MethodView(int offset) {
+			super(offset);
+		}
+
+		@Override
+		public String getDescriptor(String namespace) {
+			return string(buffer.getInt(offset + 4 * (namespaceCount + namespaceIndex(namespace))));
+		}
+
+		@Override
+		int commentOffset() {
+			return offset + 8 * namespaceCount;
+		}
+
+		@Override
+		public Collection<ParameterDef> getParameters() {
+			int parameters = commentOffset() + 12;
+
+			return new AbstractList<ParameterDef>() {
+				@Override
+				public ParameterDef get(int index) {
+					return new ParameterView(parameters + 4 * (namespaceCount + 2) * index);
+				}
+
+				@Override
+				public int size() {
+					return buffer.getInt(commentOffset() + 4);
+				}
+			};
+		}
+
+		@Override
+		public Collection<LocalVariableDef> getLocalVariables() {
+			int locals = commentOffset() + 12 + 4 * (namespaceCount + 2) * buffer.getInt(commentOffset() + 4);
+
+			return new AbstractList<LocalVariableDef>() {
+				@Override
+				public LocalVariableDef get(int index) {
+					return new LocalVariableView(locals + 4 * (namespaceCount + 4) * index);
+				}
+
+				@Override
+				public int size() {
+					return buffer.getInt(commentOffset() + 8);
+				}
+			};
+		}
+	}
+
+	private final class ParameterView extends MappedView implements ParameterDef {
+		ParameterView(int offset) {
+			super(offset + 4);
+		}
+
+		@Override
+		public int getLocalVariableIndex() {
+			return buffer.getInt(offset - 4);
+		}
+	}
+
+	private final class LocalVariableView extends MappedView implements LocalVariableDef {
+		LocalVariableView(int offset) {
+			super(offset + 12);
+		}
+
+		@Override
+		public int getLocalVariableIndex() {
+			return buffer.getInt(offset - 12);
+		}
+
+		@Override
+		public int getLocalVariableStartOffset() {
+			return buffer.getInt(offset - 8);
+		}
+
+		@Override
+		public int getLocalVariableTableIndex() {
+			return buffer.getInt(offset - 4);
+		}
+	}
+
+	private final class ClassMap extends AbstractMap<String, ClassDef> {
+		private final String namespace;
+
+		private ClassMap(String namespace) {
+			this.namespace = namespace;
+		}
+
+		@Override
+		public ClassDef get(Object key) {
+			return key instanceof String ? findClass(namespace, (String) key) : null;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public Set<Entry<String, ClassDef>> entrySet() {
+			return new AbstractSet<Entry<String, ClassDef>>() {
+				@Override
+				public Iterator<Entry<String, ClassDef>> iterator() {
+					Iterator<ClassDef> classes = getClasses().iterator();
+
+					return new Iterator<Entry<String, ClassDef>>() {
+						@Override
+						public boolean hasNext() {
+							return classes.hasNext();
+						}
+
+						@Override
+						public Entry<String, ClassDef> next() {
+							ClassDef def = classes.next();
+							return new SimpleImmutableEntry<>(def.getName(namespace), def);
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return classCount;
+				}
+			};
+		}
+	}
+
+	private static final class Metadata implements TinyMetadata {
+		private final int majorVersion;
+		private final int minorVersion;
+		private final List<String> namespaces;
+		private final Map<String, String> properties;
+
+		private Metadata(int majorVersion, int minorVersion, List<String> namespaces, Map<String, String> properties) {
+			this.majorVersion = majorVersion;
+			this.minorVersion = minorVersion;
+			this.namespaces = namespaces;
+			this.properties = properties;
+		}
+
+		@Override
+		public int getMajorVersion() {
+			return majorVersion;
+		}
+
+		@Override
+		public int getMinorVersion() {
+			return minorVersion;
+		}
+
+		@Override
+		public List<String> getNamespaces() {
+			return namespaces;
+		}
+
+		@Override
+		public Map<String, String> getProperties() {
+			return properties;
+		}
+
+		public int index(String namespace) {
+			int index = namespaces.indexOf(namespace);
+
+			if (index < 0) {
+				throw new IllegalArgumentException("Unknown namespace " + namespace);
+			}
+
+			return index;
+		}
+	}
+
+	private static final class Compiler {
+		private final TinyTree mappings;
+		private final List<String> namespaces;
+		private final Map<String, Integer> strings = new HashMap<>();
+		private final List<byte[]> stringBytes = new ArrayList<>();
+
+		private Compiler(TinyTree mappings) {
+			this.mappings = mappings;
+			this.namespaces = mappings.getMetadata().getNamespaces();
+		}
+
+		private int id(@Nullable String string) {
+			if (string == null) {
+				return -1;
+			}
+
+			return strings.computeIfAbsent(string, s -> {
+				stringBytes.add(s.getBytes(StandardCharsets.UTF_8));
+				return stringBytes.size() - 1;
+			});
+		}
+
+		private byte[] write(long size, long modified) throws IOException {
+			List<ClassDef> classes = new ArrayList<>(mappings.getClasses());
+
+			ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+			DataOutputStream records = new DataOutputStream(recordBytes);
+			int[] classOffsets = new int[classes.size()];
+
+			for (int i = 0; i < classes.size(); i++) {
+				classOffsets[i] = records.size();
+				writeClass(records, classes.get(i));
+			}
+
+			ByteArrayOutputStream metaBytes = new ByteArrayOutputStream();
+			DataOutputStream meta = new DataOutputStream(metaBytes);
+			meta.writeInt(namespaces.size());
+
+			for (String namespace : namespaces) {
+				meta.writeInt(id(namespace));
+			}
+
+			meta.writeInt(mappings.getMetadata().getProperties().size());
+
+			for (Map.Entry<String, String> property : mappings.getMetadata().getProperties().entrySet()) {
+				meta.writeInt(id(property.getKey()));
+				meta.writeInt(id(property.getValue()));
+			}
+
+			ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+			DataOutputStream classTable = new DataOutputStream(classBytes);
+			classTable.writeInt(classes.size());
+
+			for (int offset : classOffsets) {
+				classTable.writeInt(offset);
+			}
+
+			for (String namespace : namespaces) {
+				List<Integer> sorted = new ArrayList<>(classes.size());
+				List<byte[]> names = new ArrayList<>(classes.size());
+
+				for (int i = 0; i < classes.size(); i++) {
+					sorted.add(i);
+					String name = classes.get(i).getName(namespace);
+					names.add(name != null ? name.getBytes(StandardCharsets.UTF_8) : new byte[0]);
+				}
+
+				sorted.sort((a, b) -> compare(names.get(a), names.get(b)));
+
+				for (int index : sorted) {
+					classTable.writeInt(index);
+				}
+			}
+
+			ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+			DataOutputStream pool = new DataOutputStream(poolBytes);
+			pool.writeInt(stringBytes.size());
+			int stringOffset = 0;
+
+			for (byte[] bytes : stringBytes) {
+				pool.writeInt(stringOffset);
+				stringOffset += bytes.length;
+			}
+
+			pool.writeInt(stringOffset);
+
+			for (byte[] bytes : stringBytes) {
+				pool.write(bytes);
+			}
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			DataOutputStream header = new DataOutputStream(out);
+			int metaStart = HEADER_SIZE;
+			int poolStart = metaStart + meta.size();
+			int classesStart = poolStart + pool.size();
+			header.writeInt(MAGIC);
+			header.writeInt(VERSION);
+			header.writeLong(size);
+			header.writeLong(modified);
+			header.writeInt(mappings.getMetadata().getMajorVersion());
+			header.writeInt(mappings.getMetadata().getMinorVersion());
+			header.writeInt(metaStart);
+			header.writeInt(poolStart);
+			header.writeInt(classesStart);
+			header.writeInt(classesStart + classTable.size());
+			metaBytes.writeTo(out);
+			poolBytes.writeTo(out);
+			classBytes.writeTo(out);
+			recordBytes.writeTo(out);
+			return out.toByteArray();
+		}
+
+		/**
+		 * Writes the id of the resolved name, negated below -1 when there is no raw name, so both can be read back.
+		 */
+		private void writeName(DataOutputStream out, Mapped mapped, String namespace) throws IOException {
+			int id = id(mapped.getName(namespace));
+			String rawName = mapped.getRawName(namespace);
+
+			if (id >= 0 && (rawName == null || rawName.isEmpty())) {
+				id = -id - 2;
+			}
+
+			out.writeInt(id);
+		}
+
+		private void writeNames(DataOutputStream out, Mapped mapped) throws IOException {
+			for (String namespace : namespaces) {
+				writeName(out, mapped, namespace);
+			}
+		}
+
+		private void writeClass(DataOutputStream out, ClassDef def) throws IOException {
+			int start = out.size();
+			writeNames(out, def);
+			out.writeInt(id(def.getComment()));
+			out.writeInt(def.getFields().size());
+			out.writeInt(def.getMethods().size());
+
+			// The method records follow the fields, their offsets are relative to the start of the records.
+			int methodsStart = start + 4 * (namespaces.size() + 3 + def.getMethods().size()) + 4 * (2 * namespaces.size() + 1) * def.getFields().size();
+			ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+			DataOutputStream methods = new DataOutputStream(methodBytes);
+
+			for (MethodDef method : def.getMethods()) {
+				out.writeInt(methodsStart + methods.size());
+				writeNames(methods, method);
+
+				for (String namespace : namespaces) {
+					methods.writeInt(id(method.getDescriptor(namespace)));
+				}
+
+				methods.writeInt(id(method.getComment()));
+				methods.writeInt(method.getParameters().size());
+				methods.writeInt(method.getLocalVariables().size());
+
+				for (ParameterDef parameter : method.getParameters()) {
+					methods.writeInt(parameter.getLocalVariableIndex());
+					writeNames(methods, parameter);
+
+					methods.writeInt(id(parameter.getComment()));
+				}
+
+				for (LocalVariableDef local : method.getLocalVariables()) {
+					methods.writeInt(local.getLocalVariableIndex());
+					methods.writeInt(local.getLocalVariableStartOffset());
+					methods.writeInt(local.getLocalVariableTableIndex());
+					writeNames(methods, local);
+
+					methods.writeInt(id(local.getComment()));
+				}
+			}
+
+			for (FieldDef field : def.getFields()) {
+				writeNames(out, field);
+
+				for (String namespace : namespaces) {
+					out.writeInt(id(field.getDescriptor(namespace)));
+				}
+
+				out.writeInt(id(field.getComment()));
+			}
+
+			methodBytes.writeTo(out);
+		}
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.configuration.providers.mappings;
+
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jetbrains.annotations.Nullable;
+
+import net.fabricmc.mapping.tree.ClassDef;
+import net.fabricmc.mapping.tree.FieldDef;
+import net.fabricmc.mapping.tree.MethodDef;
+import net.fabricmc.mapping.tree.TinyTree;
+
+/**
+ * Hash indexes over the classes and members of a {@link TinyTree}, to replace linear scans of {@link TinyTree#getClasses()}.
+ *
+ * <p>There is one index per tree, and the index of a namespace is only built the first time it is used.
+ * Lookups without an owner return the first matching member in class order, like scanning the tree would.
+ * This class is thread safe.
+ */
+public final class MappingIndex {
+	// The indices reference their trees, so they are only softly reachable to let both be collected.
+	private static final Map<TinyTree, SoftReference<MappingIndex>> INDICES = new WeakHashMap<>();
+
+	private final TinyTree mappings;
+	private final Map<String, NamespaceIndex> namespaces = new ConcurrentHashMap<>();
+
+	private MappingIndex(TinyTree mappings) {
+		this.mappings = mappings;
+	}
+
+	/**
+	 * Gets the index of a tree, creating it if needed.
+	 */
+	public static MappingIndex of(TinyTree mappings) {
+		synchronized (INDICES) {
+			SoftReference<MappingIndex> ref = INDICES.get(mappings);
+			MappingIndex index = ref != null ? ref.get() : null;
+
+			if (index == null) {
+				index = new MappingIndex(mappings);
+				INDICES.put(mappings, new SoftReference<>(index));
+			}
+
+			return index;
+		}
+	}
+
+	private NamespaceIndex get(String namespace) {
+		return namespaces.computeIfAbsent(namespace, this::build);
+	}
+
+	private NamespaceIndex build(String namespace) {
+		if (!mappings.getMetadata().getNamespaces().contains(namespace)) {
+			throw new IllegalArgumentException("Unknown namespace " + namespace + ", expected one of " + mappings.getMetadata().getNamespaces());
+		}
+
+		NamespaceIndex index = new NamespaceIndex();
+
+		for (ClassDef def : mappings.getClasses()) {
+			String owner = def.getName(namespace);
+			index.classes.putIfAbsent(owner, def);
+
+			for (MethodDef method : def.getMethods()) {
+				String name = method.getName(namespace);
+				String key = name + method.getDescriptor(namespace);
+				index.methods.putIfAbsent(owner + "." + key, method);
+				index.anyMethods.putIfAbsent(key, method);
+				index.methodsByName.putIfAbsent(name, method);
+			}
+
+			for (FieldDef field : def.getFields()) {
+				String name = field.getName(namespace);
+				String key = name + ":" + field.getDescriptor(namespace);
+				index.fields.putIfAbsent(owner + "." + key, field);
+				index.anyFields.putIfAbsent(key, field);
+				index.fieldsByName.putIfAbsent(name, field);
+			}
+		}
+
+		return index;
+	}
+
+	@Nullable
+	public ClassDef getClass(String namespace, String name) {
+		return get(namespace).classes.get(name);
+	}
+
+	/**
+	 * Maps a class name between two namespaces.
+	 *
+	 * @return the mapped name, or {@code name} itself if the class is not in the mappings
+	 */
+	public String mapClass(String from, String to, String name) {
+		ClassDef def = getClass(from, name);
+		return def != null ? def.getName(to) : name;
+	}
+
+	@Nullable
+	public MethodDef getMethod(String namespace, String owner, String name, String descriptor) {
+		return get(namespace).methods.get(owner + "." + name + descriptor);
+	}
+
+	/**
+	 * Finds a method in any class by its name and descriptor.
+	 */
+	@Nullable
+	public MethodDef getAnyMethod(String namespace, String name, String descriptor) {
+		return get(namespace).anyMethods.get(name + descriptor);
+	}
+
+	/**
+	 * Finds a method in any class by its name only.
+	 */
+	@Nullable
+	public MethodDef getAnyMethodByName(String namespace, String name) {
+		return get(namespace).methodsByName.get(name);
+	}
+
+	@Nullable
+	public FieldDef getField(String namespace, String owner, String name, String descriptor) {
+		return get(namespace).fields.get(owner + "." + name + ":" + descriptor);
+	}
+
+	/**
+	 * Finds a field in any class by its name and descriptor.
+	 */
+	@Nullable
+	public FieldDef getAnyField(String namespace, String name, String descriptor) {
+		return get(namespace).anyFields.get(name + ":" + descriptor);
+	}
+
+	/**
+	 * Finds a field in any class by its name only.
+	 */
+	@Nullable
+	public FieldDef getAnyFieldByName(String namespace, String name) {
+		return get(namespace).fieldsByName.get(name);
+	}
+
+	private static final class NamespaceIndex {
+		private final Map<String, ClassDef> classes = new HashMap<>();
+		private final Map<String, MethodDef> methods = new HashMap<>();
+		private final Map<String, MethodDef> anyMethods = new HashMap<>();
+		private final Map<String, MethodDef> methodsByName = new HashMap<>();
+		private final Map<String, FieldDef> fields = new HashMap<>();
+		private final Map<String, FieldDef> anyFields = new HashMap<>();
+		private final Map<String, FieldDef> fieldsByName = new HashMap<>();
+	}
+}
@@ -24,46 +24,165 @@
 
 package net.fabricmc.loom.configuration.providers.mappings;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.lang.ref.SoftReference;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.hash.Hashing;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
 
-import net.fabricmc.loom.util.StaticPathWatcher;
-import net.fabricmc.mapping.tree.TinyMappingFactory;
 import net.fabricmc.mapping.tree.TinyTree;
 
+/**
+ * A cache of parsed mappings shared by the projects of a Gradle daemon.
+ *
+ * <p>Mappings are keyed by the hash of their content, so a changed file is never served from the cache,
+ * and identical files in different locations share an entry. The file hash is only recomputed when the size or
+ * the modification time of a file changes. The cache is bounded by the total size of the compiled mappings it holds,
+ * see {@link BinaryTinyTree}, evicting the least recently used mappings first. Concurrent requests for the same mappings
+ * wait for a single load.
+ */
 public final class MappingsCache {
 	public static final MappingsCache INSTANCE = new MappingsCache();
+	private static final Logger LOGGER = Logging.getLogger(MappingsCache.class);
+	private static final long MAX_WEIGHT = Long.getLong("loom.mappingsCache.maxBytes", 256L * 1024 * 1024);
 
-	private final Map<Path, SoftReference<TinyTree>> mappingsCache = new HashMap<>();
+	private final Map<Path, FileHash> fileHashes = new ConcurrentHashMap<>();
+	// Guarded by this, in access order for eviction
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75F, true);
+	private long totalWeight;
+	private long hits;
+	private long misses;
+	private long loadNanos;
 
-	// TODO: loom doesn't actually use new mappings when the mappings change until the gradle daemons are stopped
 	public TinyTree get(Path mappingsPath) throws IOException {
-		mappingsPath = mappingsPath.toAbsolutePath();
+		Path path = mappingsPath.toAbsolutePath();
+		String hash = hash(path);
+		Entry entry;
+		boolean load = false;
+
+		synchronized (this) {
+			entry = entries.get(hash);
+
+			if (entry == null) {
+				entry = new Entry();
+				entries.put(hash, entry);
+				misses++;
+				load = true;
+			} else {
+				hits++;
+			}
+		}
+
+		if (load) {
+			load(path, hash, entry);
+		}
 
-		if (StaticPathWatcher.INSTANCE.hasFileChanged(mappingsPath)) {
-			mappingsCache.remove(mappingsPath);
+		try {
+			return entry.mappings.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+
+			throw e;
 		}
+	}
 
-		SoftReference<TinyTree> ref = mappingsCache.get(mappingsPath);
+	private void load(Path path, String hash, Entry entry) {
+		long start = System.nanoTime();
 
-		if (ref != null && ref.get() != null) {
-			return ref.get();
-		} else {
-			try (BufferedReader reader = Files.newBufferedReader(mappingsPath)) {
-				TinyTree mappings = TinyMappingFactory.loadWithDetection(reader);
-				ref = new SoftReference<>(mappings);
-				mappingsCache.put(mappingsPath, ref);
-				return mappings;
+		try {
+			// Only parsed once per tiny file, later loads map the compiled copy written next to it
+			BinaryTinyTree mappings = BinaryTinyTree.load(path);
+			long time = System.nanoTime() - start;
+
+			synchronized (this) {
+				loadNanos += time;
+				entry.weight = mappings.getSize();
+				totalWeight += entry.weight;
+				entry.loaded = true;
+				evict();
+				LOGGER.info(":loaded mappings {} in {} ms", path.getFileName(), TimeUnit.NANOSECONDS.toMillis(time));
 			}
+
+			entry.mappings.complete(mappings);
+		} catch (IOException | RuntimeException e) {
+			synchronized (this) {
+				entries.remove(hash, entry);
+			}
+
+			entry.mappings.completeExceptionally(e);
 		}
 	}
 
-	public void invalidate() {
-		mappingsCache.clear();
+	/**
+	 * Removes the least recently used mappings until the cache fits its weight, always keeping the most recent entry.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+
+		while (totalWeight > MAX_WEIGHT && entries.size() > 1 && iterator.hasNext()) {
+			Entry entry = iterator.next().getValue();
+
+			if (entry.loaded) {
+				iterator.remove();
+				totalWeight -= entry.weight;
+			}
+		}
+	}
+
+	private String hash(Path path) throws IOException {
+		long size = Files.size(path);
+		long modified = Files.getLastModifiedTime(path).toMillis();
+		FileHash fileHash = fileHashes.get(path);
+
+		if (fileHash == null || fileHash.size != size || fileHash.modified != modified) {
+			fileHash = new FileHash(size, modified, com.google.common.io.Files.asByteSource(path.toFile()).hash(Hashing.sha256()).toString());
+			fileHashes.put(path, fileHash);
+		}
+
+		return fileHash.hash;
+	}
+
+	/**
+	 * Logs how the cache has been used so far, including the requests served without loading anything.
+	 */
+	public synchronized void logStats() {
+		LOGGER.info(":mappings cache: {} hits, {} misses, {} ms loading, {} of {} KiB", hits, misses, TimeUnit.NANOSECONDS.toMillis(loadNanos),
+				totalWeight / 1024, MAX_WEIGHT / 1024);
+	}
+
+	public synchronized void invalidate() {
+		entries.clear();
+		fileHashes.clear();
+		totalWeight = 0;
+	}
+
+	private static final class Entry {
+		private final CompletableFuture<TinyTree> mappings = new CompletableFuture<>();
+		// The size of the compiled mappings, only known once they are loaded
+		private long weight;
+		private boolean loaded;
+	}
+
+	private static final class FileHash {
+		private final long size;
+		private final long modified;
+		private final String hash;
+
+		FileHash(long size, long modified, String hash) {
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+		}
 	}
 }
@@ -33,7 +33,6 @@ import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
@@ -58,6 +57,7 @@ import net.fabricmc.loom.configuration.providers.MinecraftProvider;
 import net.fabricmc.loom.configuration.providers.forge.MinecraftPatchedProvider;
 import net.fabricmc.loom.configuration.providers.forge.SrgProvider;
 import net.fabricmc.loom.configuration.providers.minecraft.MinecraftMappedProvider;
+import net.fabricmc.loom.util.CacheLock;
 import net.fabricmc.loom.util.Constants;
 import net.fabricmc.loom.util.DeletingFileVisitor;
 import net.fabricmc.loom.util.DownloadUtil;
@@ -68,10 +68,6 @@ import net.fabricmc.mapping.reader.v2.TinyV2Factory;
 import net.fabricmc.mapping.tree.TinyTree;
 import net.fabricmc.stitch.Command;
 import net.fabricmc.stitch.commands.CommandProposeFieldNames;
-import net.fabricmc.stitch.commands.tinyv2.CommandMergeTinyV2;
-import net.fabricmc.stitch.commands.tinyv2.CommandReorderTinyV2;
-import net.fabricmc.stitch.commands.tinyv2.TinyFile;
-import net.fabricmc.stitch.commands.tinyv2.TinyV2Writer;
 
 public class MappingsProvider extends DependencyProvider {
 	public MinecraftMappedProvider mappedProvider;
@@ -82,7 +78,7 @@ public class MappingsProvider extends DependencyProvider {
 	public String mappingsVersion;
 
 	private final Path mappingsDir;
-	private final Path mappingsStepsDir;
+	private final Path mappingsStepsDir; // No longer written, only cleaned up from older caches
 	private Path intermediaryTiny;
 	private boolean hasRefreshed = false;
 	// The mappings that gradle gives us
@@ -94,6 +90,7 @@ public class MappingsProvider extends DependencyProvider {
 	public Path tinyMappingsWithSrg;
 	public File mixinTinyMappingsWithSrg; // FORGE: The mixin mappings have srg names in intermediary.
 	public File srgToNamedSrg; // FORGE: srg to named in srg file format
+	public Path srgToNamedLookup; // FORGE: srg to named names for the runtime naming service
 
 	public MappingsProvider(Project project) {
 		super(project);
@@ -158,12 +155,7 @@ public class MappingsProvider extends DependencyProvider {
 
 		initFiles();
 
-		if (isRefreshDeps()) {
-			cleanFiles();
-		}
-
 		Files.createDirectories(mappingsDir);
-		Files.createDirectories(mappingsStepsDir);
 
 		String[] depStringSplit = dependency.getDepString().split(":");
 		String jarClassifier = "final";
@@ -177,35 +169,52 @@ public class MappingsProvider extends DependencyProvider {
 		tinyMappingsWithSrg = mappingsDir.resolve(StringUtils.removeSuffix(mappingsJar.getName(), ".jar") + "-srg.tiny");
 		mixinTinyMappingsWithSrg = mappingsDir.resolve(StringUtils.removeSuffix(mappingsJar.getName(), ".jar") + "-mixin-srg.tiny").toFile();
 		srgToNamedSrg = mappingsDir.resolve(StringUtils.removeSuffix(mappingsJar.getName(), ".jar") + "-srg-named.srg").toFile();
+		srgToNamedLookup = tinyMappingsWithSrg.resolveSibling(tinyMappingsWithSrg.getFileName() + ".lookup");
 
-		if (!tinyMappings.exists() || isRefreshDeps()) {
-			storeMappings(getProject(), minecraftProvider, mappingsJar.toPath(), postPopulationScheduler);
-		}
+		// Other builds using the same mappings wait for the lock and then reuse the files instead of writing them again
+		try (CacheLock lock = CacheLock.acquire(baseTinyMappings, getProject().getLogger())) {
+			boolean rebuild = isRefreshDeps() || lock.isDirty();
 
-		if (!tinyMappingsJar.exists() || isRefreshDeps()) {
-			ZipUtil.pack(new ZipEntrySource[] {new FileSource("mappings/mappings.tiny", tinyMappings)}, tinyMappingsJar);
-		}
+			if (rebuild) {
+				cleanFiles();
+			}
 
-		if (getExtension().shouldGenerateSrgTiny()) {
-			if (Files.notExists(tinyMappingsWithSrg) || isRefreshDeps()) {
-				SrgMerger.mergeSrg(getExtension().getSrgProvider().getSrg().toPath(), tinyMappings.toPath(), tinyMappingsWithSrg, true);
+			Path yarnJar = mappingsJar.toPath();
+
+			if (!tinyMappings.exists() || rebuild) {
+				writeAtomically(tinyMappings.toPath(), output -> storeMappings(getProject(), minecraftProvider, yarnJar, output, postPopulationScheduler));
 			}
-		}
 
-		if (getExtension().isForge()) {
-			if (!getExtension().shouldGenerateSrgTiny()) {
-				throw new IllegalStateException("We have to generate srg tiny in a forge environment!");
+			if (!tinyMappingsJar.exists() || rebuild) {
+				writeAtomically(tinyMappingsJar.toPath(), output -> ZipUtil.pack(new ZipEntrySource[] {new FileSource("mappings/mappings.tiny", tinyMappings)}, output.toFile()));
 			}
 
-			if (!mixinTinyMappingsWithSrg.exists() || isRefreshDeps()) {
-				List<String> lines = new ArrayList<>(Files.readAllLines(tinyMappingsWithSrg));
-				lines.set(0, lines.get(0).replace("intermediary", "yraidemretni").replace("srg", "intermediary"));
-				Files.deleteIfExists(mixinTinyMappingsWithSrg.toPath());
-				Files.write(mixinTinyMappingsWithSrg.toPath(), lines);
+			if (getExtension().shouldGenerateSrgTiny()) {
+				if (Files.notExists(tinyMappingsWithSrg) || rebuild) {
+					writeAtomically(tinyMappingsWithSrg, output -> SrgMerger.mergeSrg(getExtension().getSrgProvider().getSrg().toPath(), tinyMappings.toPath(), output, true));
+				}
 			}
 
-			if (!srgToNamedSrg.exists() || isRefreshDeps()) {
-				SrgNamedWriter.writeTo(getProject().getLogger(), srgToNamedSrg.toPath(), getMappingsWithSrg(), "srg", "named");
+			if (getExtension().isForge()) {
+				if (!getExtension().shouldGenerateSrgTiny()) {
+					throw new IllegalStateException("We have to generate srg tiny in a forge environment!");
+				}
+
+				if (!mixinTinyMappingsWithSrg.exists() || rebuild) {
+					List<String> lines = new ArrayList<>(Files.readAllLines(tinyMappingsWithSrg));
+					lines.set(0, lines.get(0).replace("intermediary", "yraidemretni").replace("srg", "intermediary"));
+					writeAtomically(mixinTinyMappingsWithSrg.toPath(), output -> Files.write(output, lines));
+				}
+
+				if (!srgToNamedSrg.exists() || rebuild) {
+					writeAtomically(srgToNamedSrg.toPath(), output -> SrgNamedWriter.writeTo(getProject().getLogger(), output, getMappingsWithSrg(), "srg", "named"));
+				}
+
+				// The naming service only uses the lookup if it is not older than the srg tiny file
+				if (Files.notExists(srgToNamedLookup) || rebuild
+						|| Files.getLastModifiedTime(srgToNamedLookup).compareTo(Files.getLastModifiedTime(tinyMappingsWithSrg)) < 0) {
+					SrgNamedWriter.writeLookup(srgToNamedLookup, getMappingsWithSrg());
+				}
 			}
 		}
 
@@ -237,12 +246,33 @@ public class MappingsProvider extends DependencyProvider {
 		mappedProvider.provide(dependency, postPopulationScheduler);
 	}
 
-	private void storeMappings(Project project, MinecraftProvider minecraftProvider, Path yarnJar, Consumer<Runnable> postPopulationScheduler)
+	/**
+	 * Writes a file next to its output and moves it in place once complete, as {@link MappingsCache} and the mapped jar
+	 * provider read the mappings files without taking their cache lock.
+	 */
+	private static void writeAtomically(Path output, OutputWriter writer) throws Exception {
+		Path temp = CacheLock.tempFile(output);
+		Files.deleteIfExists(temp);
+
+		try {
+			writer.write(temp);
+			CacheLock.publish(temp, output);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	@FunctionalInterface
+	private interface OutputWriter {
+		void write(Path output) throws Exception;
+	}
+
+	private void storeMappings(Project project, MinecraftProvider minecraftProvider, Path yarnJar, Path output, Consumer<Runnable> postPopulationScheduler)
 			throws Exception {
 		project.getLogger().info(":extracting " + yarnJar.getFileName());
 
 		if (isMCP(yarnJar)) {
-			readAndMergeMCP(yarnJar, postPopulationScheduler);
+			readAndMergeMCP(yarnJar, output, postPopulationScheduler);
 			return;
 		}
 
@@ -252,19 +282,15 @@ public class MappingsProvider extends DependencyProvider {
 
 		if (baseMappingsAreV2()) {
 			// These are unmerged v2 mappings
-			mergeAndSaveMappings(project, yarnJar);
+			mergeAndSaveMappings(project, output);
 		} else {
 			// These are merged v1 mappings
-			if (tinyMappings.exists()) {
-				tinyMappings.delete();
-			}
-
 			project.getLogger().lifecycle(":populating field names");
-			suggestFieldNames(minecraftProvider, baseTinyMappings, tinyMappings.toPath());
+			suggestFieldNames(minecraftProvider, baseTinyMappings, output);
 		}
 	}
 
-	private void readAndMergeMCP(Path mcpJar, Consumer<Runnable> postPopulationScheduler) throws Exception {
+	private void readAndMergeMCP(Path mcpJar, Path output, Consumer<Runnable> postPopulationScheduler) throws Exception {
 		Path intermediaryTinyPath = getIntermediaryTiny();
 		SrgProvider provider = getExtension().getSrgProvider();
 
@@ -282,8 +308,7 @@ public class MappingsProvider extends DependencyProvider {
 
 		Path srgPath = provider.getSrg().toPath();
 
-		TinyFile file = new MCPReader(intermediaryTinyPath, srgPath).read(mcpJar);
-		TinyV2Writer.write(file, tinyMappings.toPath());
+		new MCPReader(intermediaryTinyPath, srgPath).read(mcpJar, output);
 	}
 
 	private boolean isMCP(Path path) throws IOException {
@@ -325,42 +350,9 @@ public class MappingsProvider extends DependencyProvider {
 		}
 	}
 
-	private void mergeAndSaveMappings(Project project, Path unmergedYarnJar) throws IOException {
-		Path unmergedYarn = Paths.get(mappingsStepsDir.toString(), "unmerged-yarn.tiny");
-		project.getLogger().info(":extracting " + unmergedYarnJar.getFileName());
-
-		try (FileSystem unmergedYarnJarFs = FileSystems.newFileSystem(unmergedYarnJar, (ClassLoader) null)) {
-			extractMappings(unmergedYarnJarFs, unmergedYarn);
-		}
-
-		Path invertedIntermediary = Paths.get(mappingsStepsDir.toString(), "inverted-intermediary.tiny");
-		reorderMappings(getIntermediaryTiny(), invertedIntermediary, "intermediary", "official");
-		Path unorderedMergedMappings = Paths.get(mappingsStepsDir.toString(), "unordered-merged.tiny");
+	private void mergeAndSaveMappings(Project project, Path output) throws IOException {
 		project.getLogger().info(":merging");
-		mergeMappings(invertedIntermediary, unmergedYarn, unorderedMergedMappings);
-		reorderMappings(unorderedMergedMappings, tinyMappings.toPath(), "official", "intermediary", "named");
-	}
-
-	private void reorderMappings(Path oldMappings, Path newMappings, String... newOrder) {
-		Command command = new CommandReorderTinyV2();
-		String[] args = new String[2 + newOrder.length];
-		args[0] = oldMappings.toAbsolutePath().toString();
-		args[1] = newMappings.toAbsolutePath().toString();
-		System.arraycopy(newOrder, 0, args, 2, newOrder.length);
-		runCommand(command, args);
-	}
-
-	private void mergeMappings(Path intermediaryMappings, Path yarnMappings, Path newMergedMappings) {
-		try {
-			Command command = new CommandMergeTinyV2();
-			runCommand(command, intermediaryMappings.toAbsolutePath().toString(),
-					yarnMappings.toAbsolutePath().toString(),
-					newMergedMappings.toAbsolutePath().toString(),
-					"intermediary", "official");
-		} catch (Exception e) {
-			throw new RuntimeException("Could not merge mappings from " + intermediaryMappings.toString()
-					+ " with mappings from " + yarnMappings, e);
-		}
+		TinyMappingsMerger.mergeIntermediaryAndYarn(getIntermediaryTiny(), baseTinyMappings, output);
 	}
 
 	private void suggestFieldNames(MinecraftProvider minecraftProvider, Path oldMappings, Path newMappings) {
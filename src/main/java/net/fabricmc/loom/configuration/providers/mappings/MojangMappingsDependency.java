@@ -25,26 +25,24 @@
 package net.fabricmc.loom.configuration.providers.mappings;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.io.StringWriter;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.io.Writer;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Collections;
 import java.util.Set;
-import java.util.function.Consumer;
-
-import org.cadixdev.lorenz.MappingSet;
-import org.cadixdev.lorenz.io.TextMappingsWriter;
-import org.cadixdev.lorenz.io.proguard.ProGuardReader;
-import org.cadixdev.lorenz.model.ClassMapping;
-import org.cadixdev.lorenz.model.FieldMapping;
-import org.cadixdev.lorenz.model.InnerClassMapping;
-import org.cadixdev.lorenz.model.MethodMapping;
-import org.cadixdev.lorenz.model.TopLevelClassMapping;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
 import org.gradle.api.Action;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Dependency;
@@ -59,16 +57,16 @@ import org.gradle.api.internal.artifacts.ModuleVersionSelectorStrictSpec;
 import org.gradle.api.internal.artifacts.dependencies.AbstractModuleDependency;
 import org.gradle.api.internal.artifacts.dependencies.DefaultMutableVersionConstraint;
 import org.gradle.api.tasks.TaskDependency;
-import org.zeroturnaround.zip.ByteSource;
-import org.zeroturnaround.zip.ZipEntrySource;
-import org.zeroturnaround.zip.ZipUtil;
 
 import net.fabricmc.loom.LoomGradleExtension;
 import net.fabricmc.loom.LoomGradlePlugin;
 import net.fabricmc.loom.configuration.providers.minecraft.MinecraftVersionMeta;
 import net.fabricmc.loom.util.DownloadUtil;
-import net.fabricmc.lorenztiny.TinyMappingsReader;
+import net.fabricmc.mapping.tree.ClassDef;
+import net.fabricmc.mapping.tree.FieldDef;
+import net.fabricmc.mapping.tree.MethodDef;
 import net.fabricmc.mapping.tree.TinyMappingFactory;
+import net.fabricmc.mapping.tree.TinyTree;
 
 public class MojangMappingsDependency extends AbstractModuleDependency implements SelfResolvingDependency, ExternalModuleDependency {
 	public static final String GROUP = "net.minecraft";
@@ -132,19 +130,8 @@ public class MojangMappingsDependency extends AbstractModuleDependency implement
 		Path serverMappings = mappingsDir.resolve(String.format("%s.%s-%s-server.map", GROUP, MODULE, getVersion()));
 
 		if (!Files.exists(mappingsFile) || LoomGradlePlugin.refreshDeps) {
-			MappingSet mappingSet;
-
 			try {
-				mappingSet = getMappingsSet(clientMappings, serverMappings);
-
-				try (Writer writer = new StringWriter()) {
-					new TinyWriter(writer, "intermediary", "named").write(mappingSet);
-					Files.deleteIfExists(mappingsFile);
-
-					ZipUtil.pack(new ZipEntrySource[] {
-							new ByteSource("mappings/mappings.tiny", writer.toString().getBytes(StandardCharsets.UTF_8))
-					}, mappingsFile.toFile());
-				}
+				writeMappings(clientMappings, serverMappings, mappingsFile);
 			} catch (IOException e) {
 				throw new RuntimeException("Failed to resolve Mojang mappings", e);
 			}
@@ -171,7 +158,11 @@ public class MojangMappingsDependency extends AbstractModuleDependency implement
 		return Collections.singleton(mappingsFile.toFile());
 	}
 
-	private MappingSet getMappingsSet(Path clientMappings, Path serverMappings) throws IOException {
+	/**
+	 * Joins the Mojang mappings with intermediary, and writes them as intermediary to named tiny v2 mappings in a jar.
+	 * The client and server mappings are read in parallel, and the tiny file is written straight into the jar.
+	 */
+	private void writeMappings(Path clientMappings, Path serverMappings, Path mappingsFile) throws IOException {
 		MinecraftVersionMeta versionInfo = extension.getMinecraftProvider().getVersionInfo();
 
 		if (versionInfo.getDownload(MANIFEST_CLIENT_MAPPINGS) == null) {
@@ -179,57 +170,82 @@ public class MojangMappingsDependency extends AbstractModuleDependency implement
 		}
 
 		String clientMappingsUrl = versionInfo.getDownload(MANIFEST_CLIENT_MAPPINGS).getUrl();
-		String serverMappingsUrl = versionInfo.getDownload(MANIFEST_CLIENT_MAPPINGS).getUrl();
+		String serverMappingsUrl = versionInfo.getDownload(MANIFEST_SERVER_MAPPINGS).getUrl();
 
 		DownloadUtil.downloadIfChanged(new URL(clientMappingsUrl), clientMappings.toFile(), project.getLogger());
 		DownloadUtil.downloadIfChanged(new URL(serverMappingsUrl), serverMappings.toFile(), project.getLogger());
 
-		MappingSet mappings = MappingSet.create();
+		CompletableFuture<ProGuardMappings> client = readAsync(clientMappings);
+		CompletableFuture<ProGuardMappings> server = readAsync(serverMappings);
+		TinyTree intermediary;
+
+		try (BufferedReader reader = Files.newBufferedReader(extension.getMappingsProvider().getIntermediaryTiny(), StandardCharsets.UTF_8)) {
+			intermediary = TinyMappingFactory.loadWithDetection(reader);
+		}
+
+		ProGuardMappings officialToNamed;
 
-		try (BufferedReader clientBufferedReader = Files.newBufferedReader(clientMappings, StandardCharsets.UTF_8);
-				BufferedReader serverBufferedReader = Files.newBufferedReader(serverMappings, StandardCharsets.UTF_8)) {
-			try (ProGuardReader proGuardReaderClient = new ProGuardReader(clientBufferedReader);
-					ProGuardReader proGuardReaderServer = new ProGuardReader(serverBufferedReader)) {
-				proGuardReaderClient.read(mappings);
-				proGuardReaderServer.read(mappings);
+		try {
+			officialToNamed = client.join();
+			officialToNamed.addMissing(server.join());
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) e.getCause()).getCause();
 			}
+
+			throw e;
 		}
 
-		MappingSet officialToNamed = mappings.reverse();
-		MappingSet intermediaryToOfficial;
+		officialToNamed.resolve();
+		Path tmp = mappingsFile.resolveSibling(mappingsFile.getFileName() + ".tmp");
 
-		try (BufferedReader reader = Files.newBufferedReader(extension.getMappingsProvider().getIntermediaryTiny(), StandardCharsets.UTF_8)) {
-			intermediaryToOfficial = new TinyMappingsReader(TinyMappingFactory.loadWithDetection(reader), "intermediary", "official").read();
+		try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(tmp));
+				Writer writer = new BufferedWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8))) {
+			zip.putNextEntry(new ZipEntry("mappings/mappings.tiny"));
+			writer.write("tiny\t2\t0\tintermediary\tnamed\n");
+
+			for (ClassDef classDef : intermediary.getClasses()) {
+				String official = classDef.getName("official");
+				String named = officialToNamed.getClassName(official);
+
+				if (named == null) {
+					continue;
+				}
+
+				writer.write("c\t" + classDef.getName("intermediary") + "\t" + named + "\n");
+
+				for (FieldDef field : classDef.getFields()) {
+					String namedField = officialToNamed.getFieldName(official, field.getName("official"));
+
+					if (namedField != null) {
+						writer.write("\tf\t" + field.getDescriptor("intermediary") + "\t" + field.getName("intermediary") + "\t" + namedField + "\n");
+					}
+				}
+
+				for (MethodDef method : classDef.getMethods()) {
+					String namedMethod = officialToNamed.getMethodName(official, method.getName("official"), method.getDescriptor("official"));
+
+					if (namedMethod != null) {
+						writer.write("\tm\t" + method.getDescriptor("intermediary") + "\t" + method.getName("intermediary") + "\t" + namedMethod + "\n");
+					}
+				}
+			}
+
+			writer.flush();
+			zip.closeEntry();
 		}
 
-		MappingSet intermediaryToMojang = MappingSet.create();
-
-		// Merging. Don't use MappingSet#merge
-		iterateClasses(intermediaryToOfficial, inputMappings -> {
-			officialToNamed.getClassMapping(inputMappings.getFullDeobfuscatedName())
-					.ifPresent(namedClass -> {
-						ClassMapping<?, ?> mojangClassMapping = intermediaryToMojang.getOrCreateClassMapping(inputMappings.getFullObfuscatedName())
-								.setDeobfuscatedName(namedClass.getFullDeobfuscatedName());
-
-						for (FieldMapping fieldMapping : inputMappings.getFieldMappings()) {
-							namedClass.getFieldMapping(fieldMapping.getDeobfuscatedName())
-									.ifPresent(namedField -> {
-										mojangClassMapping.getOrCreateFieldMapping(fieldMapping.getSignature())
-												.setDeobfuscatedName(namedField.getDeobfuscatedName());
-									});
-						}
-
-						for (MethodMapping methodMapping : inputMappings.getMethodMappings()) {
-							namedClass.getMethodMapping(methodMapping.getDeobfuscatedSignature())
-									.ifPresent(namedMethod -> {
-										mojangClassMapping.getOrCreateMethodMapping(methodMapping.getSignature())
-												.setDeobfuscatedName(namedMethod.getDeobfuscatedName());
-									});
-						}
-					});
-		});
+		Files.move(tmp, mappingsFile, StandardCopyOption.REPLACE_EXISTING);
+	}
 
-		return intermediaryToMojang;
+	private static CompletableFuture<ProGuardMappings> readAsync(Path path) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return ProGuardMappings.read(path);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
 	}
 
 	@Override
@@ -290,48 +306,4 @@ public class MojangMappingsDependency extends AbstractModuleDependency implement
 	@Override
 	public void because(String s) {
 	}
-
-	private static void iterateClasses(MappingSet mappings, Consumer<ClassMapping<?, ?>> consumer) {
-		for (TopLevelClassMapping classMapping : mappings.getTopLevelClassMappings()) {
-			iterateClass(classMapping, consumer);
-		}
-	}
-
-	private static void iterateClass(ClassMapping<?, ?> classMapping, Consumer<ClassMapping<?, ?>> consumer) {
-		consumer.accept(classMapping);
-
-		for (InnerClassMapping innerClassMapping : classMapping.getInnerClassMappings()) {
-			iterateClass(innerClassMapping, consumer);
-		}
-	}
-
-	private static class TinyWriter extends TextMappingsWriter {
-		private final String namespaceFrom;
-		private final String namespaceTo;
-
-		protected TinyWriter(Writer writer, String namespaceFrom, String namespaceTo) {
-			super(writer);
-			this.namespaceFrom = namespaceFrom;
-			this.namespaceTo = namespaceTo;
-		}
-
-		@Override
-		public void write(MappingSet mappings) {
-			writer.println("tiny\t2\t0\t" + namespaceFrom + "\t" + namespaceTo);
-
-			iterateClasses(mappings, classMapping -> {
-				writer.println("c\t" + classMapping.getFullObfuscatedName() + "\t" + classMapping.getFullDeobfuscatedName());
-
-				for (FieldMapping fieldMapping : classMapping.getFieldMappings()) {
-					fieldMapping.getType().ifPresent(fieldType -> {
-						writer.println("\tf\t" + fieldType + "\t" + fieldMapping.getObfuscatedName() + "\t" + fieldMapping.getDeobfuscatedName());
-					});
-				}
-
-				for (MethodMapping methodMapping : classMapping.getMethodMappings()) {
-					writer.println("\tm\t" + methodMapping.getSignature().getDescriptor() + "\t" + methodMapping.getObfuscatedName() + "\t" + methodMapping.getDeobfuscatedName());
-				}
-			});
-		}
-	}
 }
@@ -0,0 +1,220 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.configuration.providers.mappings;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Official to named mappings read from a ProGuard mappings file, as published by Mojang.
+ *
+ * <p>Only the index of the names is kept. Method descriptors are given in named types in the file,
+ * they are converted to official types by {@link #resolve()} once all the mappings have been read.
+ */
+public final class ProGuardMappings {
+	private final Map<String, ClassEntry> classes = new HashMap<>();
+
+	private ProGuardMappings() {
+	}
+
+	public static ProGuardMappings read(Path path) throws IOException {
+		ProGuardMappings mappings = new ProGuardMappings();
+
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			ClassEntry current = null;
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+
+				if (!Character.isWhitespace(line.charAt(0))) {
+					int arrow = line.indexOf(" -> ");
+					String official = line.substring(arrow + 4, line.endsWith(":") ? line.length() - 1 : line.length());
+					current = new ClassEntry(line.substring(0, arrow).replace('.', '/'));
+					mappings.classes.put(official, current);
+				} else if (current != null) {
+					current.readMember(line.trim());
+				}
+			}
+		}
+
+		return mappings;
+	}
+
+	/**
+	 * Adds the classes of other mappings that are missing from these mappings.
+	 */
+	public void addMissing(ProGuardMappings other) {
+		for (Map.Entry<String, ClassEntry> entry : other.classes.entrySet()) {
+			classes.putIfAbsent(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Converts the method descriptors to official types, must be called after all the mappings have been added.
+	 */
+	public void resolve() {
+		Map<String, String> namedToOfficial = new HashMap<>(classes.size() * 2);
+
+		for (Map.Entry<String, ClassEntry> entry : classes.entrySet()) {
+			namedToOfficial.put(entry.getValue().named, entry.getKey());
+		}
+
+		for (ClassEntry entry : classes.values()) {
+			entry.resolve(namedToOfficial);
+		}
+	}
+
+	@Nullable
+	public String getClassName(String official) {
+		ClassEntry entry = classes.get(official);
+		return entry != null ? entry.named : null;
+	}
+
+	@Nullable
+	public String getFieldName(String owner, String official) {
+		ClassEntry entry = classes.get(owner);
+		return entry != null ? entry.fields.get(official) : null;
+	}
+
+	@Nullable
+	public String getMethodName(String owner, String official, String descriptor) {
+		ClassEntry entry = classes.get(owner);
+		return entry != null && entry.methods != null ? entry.methods.get(official + descriptor) : null;
+	}
+
+	private static String toDescriptor(String type) {
+		int dimensions = 0;
+
+		while (type.endsWith("[]")) {
+			type = type.substring(0, type.length() - 2);
+			dimensions++;
+		}
+
+		StringBuilder builder = new StringBuilder(type.length() + dimensions + 2);
+
+		for (int i = 0; i < dimensions; i++) {
+			builder.append('[');
+		}
+
+		switch (type) {
+		case "void":
+			return builder.append('V').toString();
+		case "boolean":
+			return builder.append('Z').toString();
+		case "byte":
+			return builder.append('B').toString();
+		case "char":
+			return builder.append('C').toString();
+		case "short":
+			return builder.append('S').toString();
+		case "int":
+			return builder.append('I').toString();
+		case "long":
+			return builder.append('J').toString();
+		case "float":
+			return builder.append('F').toString();
+		case "double":
+			return builder.append('D').toString();
+		default:
+			return builder.append('L').append(type.replace('.', '/')).append(';').toString();
+		}
+	}
+
+	private static final class ClassEntry {
+		private final String named;
+		private final Map<String, String> fields = new HashMap<>();
+		// official name, named name and named descriptor of each method, until resolved
+		private List<String> rawMethods = new ArrayList<>();
+		private Map<String, String> methods;
+
+		ClassEntry(String named) {
+			this.named = named;
+		}
+
+		/**
+		 * Reads a member line, {@code type name -> official} for fields,
+		 * and {@code [from:to:]returnType name(args)[:from:to] -> official} for methods.
+		 */
+		void readMember(String line) {
+			int arrow = line.lastIndexOf(" -> ");
+
+			if (arrow < 0) {
+				return;
+			}
+
+			String official = line.substring(arrow + 4);
+			String left = line.substring(0, arrow);
+			int paren = left.indexOf('(');
+
+			if (paren < 0) {
+				fields.put(official, left.substring(left.lastIndexOf(' ') + 1));
+				return;
+			}
+
+			String head = left.substring(0, paren);
+			int space = head.lastIndexOf(' ');
+			String returnType = head.substring(head.lastIndexOf(':', space) + 1, space);
+			String args = left.substring(paren + 1, left.indexOf(')', paren));
+			StringBuilder descriptor = new StringBuilder("(");
+
+			if (!args.isEmpty()) {
+				for (String arg : args.split(",")) {
+					descriptor.append(toDescriptor(arg));
+				}
+			}
+
+			descriptor.append(')').append(toDescriptor(returnType));
+			rawMethods.add(official);
+			rawMethods.add(head.substring(space + 1));
+			rawMethods.add(descriptor.toString());
+		}
+
+		void resolve(Map<String, String> namedToOfficial) {
+			if (methods != null) {
+				return;
+			}
+
+			methods = new HashMap<>(rawMethods.size() / 3 * 2);
+
+			for (int i = 0; i < rawMethods.size(); i += 3) {
+				methods.put(rawMethods.get(i) + TinyMappingsMerger.remapDescriptor(rawMethods.get(i + 2), namedToOfficial), rawMethods.get(i + 1));
+			}
+
+			rawMethods = null;
+		}
+	}
+}
@@ -0,0 +1,428 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.configuration.providers.mappings;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Merges intermediary and unmerged yarn tiny v2 mappings into {@code official intermediary named} mappings.
+ *
+ * <p>Both files are read once, and the merged mappings are written once. Classes and members are keyed
+ * by their intermediary name and descriptor. Names missing from one of the files default to the intermediary name,
+ * except for parameters and locals, which keep empty names.
+ *
+ * <p>Names are unescaped when read from a file with the {@code escaped-names} property. The merged mappings
+ * have the property, with escaped names, when any of the files has it.
+ */
+public final class TinyMappingsMerger {
+	private static final String[] NAMESPACES = {"official", "intermediary", "named"};
+	private static final String ESCAPED_NAMES = "escaped-names";
+	private static final String ESCAPED_CHARS = "\\\n\r\0\t";
+	private static final String ESCAPES = "\\nr0t";
+
+	private TinyMappingsMerger() {
+	}
+
+	public static void mergeIntermediaryAndYarn(Path intermediaryFile, Path yarnFile, Path out) throws IOException {
+		TinyFile intermediary = TinyFile.read(intermediaryFile);
+		TinyFile yarn = TinyFile.read(yarnFile);
+		int officialIndex = intermediary.getNamespaceIndex("official");
+		int intermediaryIndex = intermediary.getNamespaceIndex("intermediary");
+		int yarnIntermediaryIndex = yarn.getNamespaceIndex("intermediary");
+		int namedIndex = yarn.getNamespaceIndex("named");
+
+		Map<String, String> intermediaryToOfficial = new HashMap<>();
+
+		for (RawClass raw : intermediary.classes) {
+			intermediaryToOfficial.put(raw.getName(intermediaryIndex), raw.getName(officialIndex));
+		}
+
+		Map<String, MergedClass> classes = new LinkedHashMap<>();
+
+		Set<String> properties = new LinkedHashSet<>(intermediary.properties);
+		properties.addAll(yarn.properties);
+		boolean escaped = intermediary.escapedNames || yarn.escapedNames;
+
+		if (escaped) {
+			properties.add("\t" + ESCAPED_NAMES);
+		}
+
+		merge(intermediary, intermediaryIndex, escaped, classes, (merged, raw) -> merged.official = raw.getName(officialIndex));
+		merge(yarn, yarnIntermediaryIndex, escaped, classes, (merged, raw) -> merged.named = raw.getName(namedIndex));
+
+		try (BufferedWriter writer = Files.newBufferedWriter(out)) {
+			writer.write("tiny\t2\t0\t" + String.join("\t", NAMESPACES) + "\n");
+
+			for (String property : properties) {
+				writer.write(property);
+				writer.write('\n');
+			}
+
+			for (MergedClass merged : classes.values()) {
+				writeLine(writer, escaped, "c", merged.official, merged.intermediary, merged.named);
+
+				for (String line : merged.lines) {
+					writer.write(line);
+					writer.write('\n');
+				}
+
+				for (MergedMember member : merged.members.values()) {
+					String desc = remapDescriptor(member.desc, intermediaryToOfficial);
+					writeLine(writer, escaped, "\t" + member.kind + "\t" + escape(desc, escaped), member.official, member.intermediary, member.named);
+
+					for (String line : member.lines) {
+						writer.write(line);
+						writer.write('\n');
+					}
+				}
+			}
+		}
+	}
+
+	private static void merge(TinyFile file, int intermediaryIndex, boolean escaped, Map<String, MergedClass> classes, NameSetter names) {
+		// Descriptors are in the first namespace of the file, the merge is keyed by intermediary descriptors
+		Map<String, String> toIntermediary = new HashMap<>();
+
+		if (intermediaryIndex != 0) {
+			for (RawClass raw : file.classes) {
+				toIntermediary.put(raw.names[0], raw.getName(intermediaryIndex));
+			}
+		}
+
+		for (RawClass raw : file.classes) {
+			String name = raw.getName(intermediaryIndex);
+			MergedClass merged = classes.computeIfAbsent(name, MergedClass::new);
+			names.set(merged, raw);
+			merged.lines.addAll(raw.lines);
+
+			for (RawMember rawMember : raw.members) {
+				String memberName = rawMember.getName(intermediaryIndex);
+				String desc = toIntermediary.isEmpty() ? rawMember.desc : remapDescriptor(rawMember.desc, toIntermediary);
+				MergedMember member = merged.members.computeIfAbsent(rawMember.kind + memberName + ";" + desc, k -> new MergedMember(rawMember.kind, memberName, desc));
+				names.set(member, rawMember);
+
+				for (String line : rawMember.lines) {
+					member.lines.add(file.toOutputLine(line, escaped));
+				}
+			}
+		}
+	}
+
+	private static void writeLine(BufferedWriter writer, boolean escaped, String prefix, String... names) throws IOException {
+		writer.write(prefix);
+
+		for (String name : names) {
+			writer.write('\t');
+			writer.write(escape(name, escaped));
+		}
+
+		writer.write('\n');
+	}
+
+	static String escape(String name, boolean escaped) {
+		if (!escaped) {
+			return name;
+		}
+
+		StringBuilder builder = null;
+
+		for (int i = 0; i < name.length(); i++) {
+			int index = ESCAPED_CHARS.indexOf(name.charAt(i));
+
+			if (index >= 0 && builder == null) {
+				builder = new StringBuilder(name.length() + 8).append(name, 0, i);
+			}
+
+			if (index >= 0) {
+				builder.append('\\').append(ESCAPES.charAt(index));
+			} else if (builder != null) {
+				builder.append(name.charAt(i));
+			}
+		}
+
+		return builder == null ? name : builder.toString();
+	}
+
+	static String unescape(String name) {
+		int start = name.indexOf('\\');
+
+		if (start < 0) {
+			return name;
+		}
+
+		StringBuilder builder = new StringBuilder(name.length()).append(name, 0, start);
+
+		for (int i = start; i < name.length(); i++) {
+			char c = name.charAt(i);
+
+			if (c != '\\') {
+				builder.append(c);
+				continue;
+			}
+
+			int index = i + 1 < name.length() ? ESCAPES.indexOf(name.charAt(i + 1)) : -1;
+
+			if (index < 0) {
+				throw new IllegalArgumentException("Invalid escape sequence in name '" + name + "'");
+			}
+
+			builder.append(ESCAPED_CHARS.charAt(index));
+			i++;
+		}
+
+		return builder.toString();
+	}
+
+	static String remapDescriptor(String desc, Map<String, String> classes) {
+		int start = desc.indexOf('L');
+
+		if (start < 0) {
+			return desc;
+		}
+
+		StringBuilder builder = new StringBuilder(desc.length() + 16);
+		int last = 0;
+
+		for (int i = start; i < desc.length(); i++) {
+			if (desc.charAt(i) == 'L') {
+				int end = desc.indexOf(';', i);
+				String name = desc.substring(i + 1, end);
+				builder.append(desc, last, i + 1).append(classes.getOrDefault(name, name));
+				last = end;
+				i = end;
+			}
+		}
+
+		return builder.append(desc, last, desc.length()).toString();
+	}
+
+	@FunctionalInterface
+	private interface NameSetter {
+		void set(Names merged, Named raw);
+	}
+
+	private abstract static class Names {
+		final String intermediary;
+		String official;
+		String named;
+		final List<String> lines = new ArrayList<>();
+
+		Names(String intermediary) {
+			this.intermediary = intermediary;
+			this.official = intermediary;
+			this.named = intermediary;
+		}
+	}
+
+	private static final class MergedClass extends Names {
+		final Map<String, MergedMember> members = new LinkedHashMap<>();
+
+		MergedClass(String intermediary) {
+			super(intermediary);
+		}
+	}
+
+	private static final class MergedMember extends Names {
+		final char kind;
+		final String desc;
+
+		MergedMember(char kind, String intermediary, String desc) {
+			super(intermediary);
+			this.kind = kind;
+			this.desc = desc;
+		}
+	}
+
+	private abstract static class Named {
+		final String[] names;
+		final List<String> lines = new ArrayList<>();
+
+		Named(String[] names) {
+			this.names = names;
+		}
+
+		/**
+		 * Gets the name in a namespace, empty names fall back to the name in the first namespace.
+		 */
+		String getName(int namespace) {
+			String name = names[namespace];
+			return name.isEmpty() ? names[0] : name;
+		}
+	}
+
+	private static final class RawClass extends Named {
+		final List<RawMember> members = new ArrayList<>();
+
+		RawClass(String[] names) {
+			super(names);
+		}
+	}
+
+	private static final class RawMember extends Named {
+		final char kind;
+		final String desc;
+
+		RawMember(char kind, String desc, String[] names) {
+			super(names);
+			this.kind = kind;
+			this.desc = desc;
+		}
+	}
+
+	/**
+	 * A tiny v2 file, with the lines nested in members (parameters, locals and comments) kept as they are.
+	 */
+	private static final class TinyFile {
+		final Path path;
+		final List<String> namespaces;
+		final List<String> properties = new ArrayList<>();
+		final List<RawClass> classes = new ArrayList<>();
+		boolean escapedNames;
+
+		private TinyFile(Path path, List<String> namespaces) {
+			this.path = path;
+			this.namespaces = namespaces;
+		}
+
+		static TinyFile read(Path path) throws IOException {
+			try (BufferedReader reader = Files.newBufferedReader(path)) {
+				String[] header = reader.readLine().split("\t", -1);
+
+				if (header.length < 5 || !"tiny".equals(header[0]) || !"2".equals(header[1])) {
+					throw new IllegalArgumentException("Mappings file " + path + " is not in the tiny v2 format");
+				}
+
+				List<String> namespaces = new ArrayList<>();
+
+				for (int i = 3; i < header.length; i++) {
+					namespaces.add(header[i]);
+				}
+
+				TinyFile file = new TinyFile(path, namespaces);
+				RawClass currentClass = null;
+				Named currentParent = null;
+				String line;
+
+				while ((line = reader.readLine()) != null) {
+					if (line.isEmpty()) {
+						continue;
+					}
+
+					if (line.startsWith("c\t")) {
+						currentClass = new RawClass(file.names(line.split("\t", -1), 1));
+						currentParent = currentClass;
+						file.classes.add(currentClass);
+					} else if (currentClass == null) {
+						if (line.equals("\t" + ESCAPED_NAMES) || line.startsWith("\t" + ESCAPED_NAMES + "\t")) {
+							file.escapedNames = true;
+						} else {
+							file.properties.add(line);
+						}
+					} else if (line.startsWith("\tm\t") || line.startsWith("\tf\t")) {
+						String[] parts = line.split("\t", -1);
+						RawMember member = new RawMember(parts[1].charAt(0), file.unescapeName(parts[2]), file.names(parts, 3));
+						currentClass.members.add(member);
+						currentParent = member;
+					} else if (line.startsWith("\t\t")) {
+						currentParent.lines.add(line);
+					} else {
+						currentClass.lines.add(line);
+					}
+				}
+
+				return file;
+			}
+		}
+
+		int getNamespaceIndex(String namespace) {
+			int index = namespaces.indexOf(namespace);
+
+			if (index < 0) {
+				throw new IllegalArgumentException("Mappings file " + path + " does not have the '" + namespace + "' namespace, found " + namespaces);
+			}
+
+			return index;
+		}
+
+		private String[] names(String[] parts, int offset) {
+			String[] names = new String[namespaces.size()];
+
+			for (int i = 0; i < names.length; i++) {
+				names[i] = offset + i < parts.length ? unescapeName(parts[offset + i]) : "";
+			}
+
+			return names;
+		}
+
+		private String unescapeName(String name) {
+			return escapedNames ? unescape(name) : name;
+		}
+
+		/**
+		 * Rewrites the names of a parameter or local line to the output namespaces, escaped if the output is.
+		 */
+		String toOutputLine(String line, boolean escaped) {
+			int offset;
+
+			if (line.startsWith("\t\tp\t")) {
+				offset = 4;
+			} else if (line.startsWith("\t\tv\t")) {
+				offset = 6;
+			} else {
+				return line;
+			}
+
+			String[] parts = line.split("\t", -1);
+			StringBuilder builder = new StringBuilder(line.length() + 8);
+
+			for (int i = 0; i < offset; i++) {
+				if (i > 0) {
+					builder.append('\t');
+				}
+
+				builder.append(parts[i]);
+			}
+
+			for (String namespace : NAMESPACES) {
+				int index = namespaces.indexOf(namespace);
+				String name = index >= 0 && offset + index < parts.length ? unescapeName(parts[offset + index]) : "";
+				builder.append('\t').append(escape(name, escaped));
+			}
+
+			return builder.toString();
+		}
+	}
+}
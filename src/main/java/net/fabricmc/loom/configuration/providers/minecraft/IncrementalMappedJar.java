@@ -0,0 +1,524 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.configuration.providers.minecraft;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import com.google.common.hash.Hashing;
+import org.gradle.api.logging.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import net.fabricmc.loom.configuration.providers.mappings.MappingIndex;
+import net.fabricmc.loom.configuration.providers.mappings.MappingsCache;
+import net.fabricmc.loom.util.JarTransformer;
+import net.fabricmc.loom.util.RawZipFile;
+import net.fabricmc.mapping.tree.ClassDef;
+import net.fabricmc.mapping.tree.FieldDef;
+import net.fabricmc.mapping.tree.LocalVariableDef;
+import net.fabricmc.mapping.tree.MethodDef;
+import net.fabricmc.mapping.tree.ParameterDef;
+import net.fabricmc.mapping.tree.TinyTree;
+
+/**
+ * Reuses a named Minecraft jar remapped with older mappings, so that only the classes affected by a mappings change
+ * are remapped again.
+ *
+ * <p>Every named jar gets a {@code .remap} file next to it, recording the mappings and the input jar it was remapped from.
+ * When the mappings change, the old and new mappings are compared by official name, and the classes to remap are:
+ * <ul>
+ *     <li>the classes with a changed name,</li>
+ *     <li>the classes with changed members, and their subclasses, since member names are propagated through the hierarchy,</li>
+ *     <li>the classes with changed parameter or local names,</li>
+ *     <li>and every class referring to a class of the first two groups in its constant pool.</li>
+ * </ul>
+ * The other classes are copied from the old jar.
+ */
+public final class IncrementalMappedJar {
+	private static final String STATE_SUFFIX = ".remap";
+	// Past this share of remapped classes, a full remap is simpler and about as fast
+	private static final double MAX_AFFECTED_RATIO = 0.5;
+
+	private final Path previousJar;
+	private final Set<String> affected;
+	// class file names in the input jar -> class file names in the previous jar
+	private final Map<String, String> reused;
+
+	private IncrementalMappedJar(Path previousJar, Set<String> affected, Map<String, String> reused) {
+		this.previousJar = previousJar;
+		this.affected = affected;
+		this.reused = reused;
+	}
+
+	/**
+	 * Records the mappings and the input jar a named jar was remapped from.
+	 */
+	public static void writeState(Path jar, Path mappings, Path input) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty("mappings", mappings.toAbsolutePath().toString());
+		properties.setProperty("mappingsHash", hash(mappings));
+		properties.setProperty("inputHash", hash(input));
+
+		try (OutputStream out = Files.newOutputStream(getStateFile(jar))) {
+			properties.store(out, "Mappings and input of the named Minecraft jar");
+		}
+	}
+
+	public static void deleteState(Path jar) throws IOException {
+		Files.deleteIfExists(getStateFile(jar));
+	}
+
+	/**
+	 * Finds the most recent named jar in a directory of jars that was remapped from the same input,
+	 * and works out which classes have to be remapped with the new mappings.
+	 *
+	 * @param jars       the jars to consider, the ones without a valid state are skipped
+	 * @param input      the official input jar
+	 * @param mappings   the new mappings, with the official and named namespaces
+	 * @return the reusable jar, or null if there is none or if too many classes changed
+	 */
+	@Nullable
+	public static IncrementalMappedJar find(Collection<Path> jars, Path input, TinyTree mappings, Logger logger) throws IOException {
+		String inputHash = null;
+		Path best = null;
+		Properties bestState = null;
+
+		for (Path jar : jars) {
+			Path stateFile = getStateFile(jar);
+
+			if (!Files.exists(jar) || !Files.exists(stateFile)) {
+				continue;
+			}
+
+			Properties state = new Properties();
+
+			try (InputStream in = Files.newInputStream(stateFile)) {
+				state.load(in);
+			}
+
+			if (inputHash == null) {
+				inputHash = hash(input);
+			}
+
+			if (!inputHash.equals(state.getProperty("inputHash"))) {
+				continue;
+			}
+
+			Path oldMappings = state.getProperty("mappings") != null ? Paths.get(state.getProperty("mappings")) : null;
+
+			if (oldMappings == null || !Files.exists(oldMappings) || !hash(oldMappings).equals(state.getProperty("mappingsHash"))) {
+				continue;
+			}
+
+			if (best == null || Files.getLastModifiedTime(jar).compareTo(Files.getLastModifiedTime(best)) > 0) {
+				best = jar;
+				bestState = state;
+			}
+		}
+
+		if (best == null) {
+			return null;
+		}
+
+		TinyTree oldMappings = MappingsCache.INSTANCE.get(Paths.get(bestState.getProperty("mappings")));
+		Diff diff = new Diff(oldMappings, mappings);
+		RawZipFile inputZip = RawZipFile.open(input);
+		Map<String, ClassInfo> classes = readClasses(inputZip);
+		Set<String> affected = diff.getAffected(inputZip, classes);
+
+		MappingIndex index = MappingIndex.of(mappings);
+		Map<String, String> reused = new HashMap<>();
+		Set<String> previousEntries = new HashSet<>();
+
+		for (RawZipFile.Entry entry : RawZipFile.open(best).getEntries()) {
+			previousEntries.add(entry.getName());
+		}
+
+		for (ClassInfo info : classes.values()) {
+			if (affected.contains(info.name)) {
+				continue;
+			}
+
+			String named = index.mapClass("official", "named", info.name) + ".class";
+
+			if (previousEntries.contains(named)) {
+				reused.put(info.name + ".class", named);
+			} else {
+				affected.add(info.name);
+			}
+		}
+
+		logger.info(":{} of {} minecraft classes changed since {}", affected.size(), classes.size(), best.getFileName());
+
+		if (affected.size() > classes.size() * MAX_AFFECTED_RATIO) {
+			return null;
+		}
+
+		Set<String> affectedFiles = new HashSet<>();
+
+		for (String name : affected) {
+			affectedFiles.add(name + ".class");
+		}
+
+		return new IncrementalMappedJar(best, affectedFiles, reused);
+	}
+
+	public Path getPreviousJar() {
+		return previousJar;
+	}
+
+	public int getAffectedCount() {
+		return affected.size();
+	}
+
+	/**
+	 * Splits the class files of the input jar in the ones to remap and the ones to reuse.
+	 */
+	public void splitInput(Path input, Path affectedJar, Path reusedJar) throws IOException {
+		RawZipFile zip = RawZipFile.open(input);
+		new JarTransformer().add(zip, affected::contains, false, null).write(affectedJar);
+		new JarTransformer().add(zip, reused::containsKey, false, null).write(reusedJar);
+	}
+
+	/**
+	 * Passes the reused classes of the previous jar to an output, by class name and content.
+	 */
+	public void copyReused(BiConsumer<String, byte[]> output) throws IOException {
+		RawZipFile zip = RawZipFile.open(previousJar);
+		Set<String> names = new HashSet<>(reused.values());
+
+		for (RawZipFile.Entry entry : zip.getEntries()) {
+			if (names.contains(entry.getName())) {
+				String name = entry.getName();
+				output.accept(name.substring(0, name.length() - ".class".length()), zip.getData(entry));
+			}
+		}
+	}
+
+	private static Path getStateFile(Path jar) {
+		return jar.resolveSibling(jar.getFileName() + STATE_SUFFIX);
+	}
+
+	private static String hash(Path path) throws IOException {
+		return com.google.common.io.Files.asByteSource(path.toFile()).hash(Hashing.sha256()).toString();
+	}
+
+	/**
+	 * Lists the jars in the subdirectories of a directory, where each jar is named after its directory.
+	 */
+	public static List<Path> listJars(Path directory, String prefix, String suffix, Path exclude) throws IOException {
+		List<Path> jars = new ArrayList<>();
+
+		if (!Files.isDirectory(directory)) {
+			return jars;
+		}
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, path -> {
+			String name = path.getFileName().toString();
+			return name.startsWith(prefix) && name.endsWith(suffix) && Files.isDirectory(path);
+		})) {
+			for (Path dir : stream) {
+				Path jar = dir.resolve("minecraft-" + dir.getFileName() + ".jar");
+
+				if (!jar.equals(exclude)) {
+					jars.add(jar);
+				}
+			}
+		}
+
+		return jars;
+	}
+
+	private static Map<String, ClassInfo> readClasses(RawZipFile zip) throws IOException {
+		Map<String, ClassInfo> classes = new HashMap<>();
+
+		for (RawZipFile.Entry entry : zip.getEntries()) {
+			if (entry.getName().endsWith(".class")) {
+				ClassInfo info = ClassInfo.read(zip.getData(entry));
+				classes.put(info.name, info);
+			}
+		}
+
+		return classes;
+	}
+
+	/**
+	 * The changes between two mappings trees, by official class name.
+	 */
+	private static final class Diff {
+		// Classes with a new named name, or missing from one of the trees
+		private final Set<String> renamed = new HashSet<>();
+		// Classes with changed field or method names
+		private final Set<String> changedMembers = new HashSet<>();
+		// Classes with changed parameter or local names
+		private final Set<String> changedLocals = new HashSet<>();
+
+		Diff(TinyTree oldMappings, TinyTree newMappings) {
+			Map<String, ClassDef> oldClasses = new HashMap<>();
+
+			for (ClassDef def : oldMappings.getClasses()) {
+				oldClasses.put(def.getName("official"), def);
+			}
+
+			for (ClassDef def : newMappings.getClasses()) {
+				String name = def.getName("official");
+				ClassDef old = oldClasses.remove(name);
+
+				if (old == null) {
+					renamed.add(name);
+					changedMembers.add(name);
+					continue;
+				}
+
+				if (!def.getName("named").equals(old.getName("named"))) {
+					renamed.add(name);
+				}
+
+				Map<String, String> locals = new HashMap<>();
+				Map<String, String> oldLocals = new HashMap<>();
+
+				if (!members(def, locals).equals(members(old, oldLocals))) {
+					changedMembers.add(name);
+				}
+
+				if (!locals.equals(oldLocals)) {
+					changedLocals.add(name);
+				}
+			}
+
+			renamed.addAll(oldClasses.keySet());
+			changedMembers.addAll(oldClasses.keySet());
+		}
+
+		private static Map<String, String> members(ClassDef def, Map<String, String> locals) {
+			Map<String, String> members = new HashMap<>();
+
+			for (FieldDef field : def.getFields()) {
+				members.put("f" + field.getName("official") + ";" + field.getDescriptor("official"), field.getName("named"));
+			}
+
+			for (MethodDef method : def.getMethods()) {
+				String key = "m" + method.getName("official") + method.getDescriptor("official");
+				members.put(key, method.getName("named"));
+
+				for (ParameterDef parameter : method.getParameters()) {
+					locals.put(key + "p" + parameter.getLocalVariableIndex(), parameter.getName("named"));
+				}
+
+				for (LocalVariableDef local : method.getLocalVariables()) {
+					locals.put(key + "v" + local.getLocalVariableIndex() + ":" + local.getLocalVariableStartOffset() + ":" + local.getLocalVariableTableIndex(), local.getName("named"));
+				}
+			}
+
+			return members;
+		}
+
+		/**
+		 * Gets the classes of a jar that have to be remapped again.
+		 */
+		Set<String> getAffected(RawZipFile zip, Map<String, ClassInfo> classes) throws IOException {
+			Map<String, List<String>> children = new HashMap<>();
+
+			for (ClassInfo info : classes.values()) {
+				if (info.superName != null) {
+					children.computeIfAbsent(info.superName, k -> new ArrayList<>()).add(info.name);
+				}
+
+				for (String itf : info.interfaces) {
+					children.computeIfAbsent(itf, k -> new ArrayList<>()).add(info.name);
+				}
+			}
+
+			Set<String> dirty = new HashSet<>(renamed);
+			Queue<String> queue = new ArrayDeque<>(changedMembers);
+
+			while (!queue.isEmpty()) {
+				String name = queue.remove();
+
+				if (dirty.add(name) || changedMembers.contains(name)) {
+					queue.addAll(children.getOrDefault(name, Collections.emptyList()));
+				}
+			}
+
+			Set<String> affected = new HashSet<>();
+
+			for (RawZipFile.Entry entry : zip.getEntries()) {
+				if (!entry.getName().endsWith(".class")) {
+					continue;
+				}
+
+				String name = entry.getName().substring(0, entry.getName().length() - ".class".length());
+
+				if (dirty.contains(name) || changedLocals.contains(name) || ClassInfo.refersTo(zip.getData(entry), dirty)) {
+					affected.add(name);
+				}
+			}
+
+			return affected;
+		}
+	}
+
+	/**
+	 * The name and the direct supertypes of a class file.
+	 */
+	private static final class ClassInfo {
+		private final String name;
+		@Nullable
+		private final String superName;
+		private final String[] interfaces;
+
+		private ClassInfo(String name, @Nullable String superName, String[] interfaces) {
+			this.name = name;
+			this.superName = superName;
+			this.interfaces = interfaces;
+		}
+
+		static ClassInfo read(byte[] b) {
+			ConstantPool pool = new ConstantPool(b);
+			int offset = pool.end;
+			int superIndex = readShort(b, offset + 4);
+			String[] interfaces = new String[readShort(b, offset + 6)];
+
+			for (int i = 0; i < interfaces.length; i++) {
+				interfaces[i] = pool.getClassName(readShort(b, offset + 8 + i * 2));
+			}
+
+			return new ClassInfo(pool.getClassName(readShort(b, offset + 2)), superIndex == 0 ? null : pool.getClassName(superIndex), interfaces);
+		}
+
+		/**
+		 * Checks whether a class name, or a descriptor or signature containing it, is in the constant pool of a class file.
+		 */
+		static boolean refersTo(byte[] b, Set<String> names) {
+			for (String s : new ConstantPool(b).utf8) {
+				if (s == null) {
+					continue;
+				}
+
+				if (names.contains(s)) {
+					return true;
+				}
+
+				for (int i = s.indexOf('L'); i >= 0; i = s.indexOf('L', i + 1)) {
+					int end = i + 1;
+
+					while (end < s.length() && s.charAt(end) != ';' && s.charAt(end) != '<') {
+						end++;
+					}
+
+					if (end < s.length() && names.contains(s.substring(i + 1, end))) {
+						return true;
+					}
+				}
+			}
+
+			return false;
+		}
+	}
+
+	private static final class ConstantPool {
+		private final String[] utf8;
+		private final int[] classes;
+		// The offset of the access flags, right after the pool
+		private final int end;
+
+		ConstantPool(byte[] b) {
+			int count = readShort(b, 8);
+			utf8 = new String[count];
+			classes = new int[count];
+			int offset = 10;
+
+			for (int i = 1; i < count; i++) {
+				int tag = b[offset] & 0xFF;
+
+				switch (tag) {
+				case 1: // Utf8
+					int length = readShort(b, offset + 1);
+					utf8[i] = new String(b, offset + 3, length, StandardCharsets.UTF_8);
+					offset += 3 + length;
+					break;
+				case 7: // Class
+					classes[i] = readShort(b, offset + 1);
+					offset += 3;
+					break;
+				case 8: // String
+				case 16: // MethodType
+				case 19: // Module
+				case 20: // Package
+					offset += 3;
+					break;
+				case 15: // MethodHandle
+					offset += 4;
+					break;
+				case 3: // Integer
+				case 4: // Float
+				case 9: // Fieldref
+				case 10: // Methodref
+				case 11: // InterfaceMethodref
+				case 12: // NameAndType
+				case 17: // Dynamic
+				case 18: // InvokeDynamic
+					offset += 5;
+					break;
+				case 5: // Long
+				case 6: // Double
+					offset += 9;
+					i++;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown constant pool tag " + tag);
+				}
+			}
+
+			end = offset;
+		}
+
+		String getClassName(int index) {
+			return utf8[classes[index]];
+		}
+	}
+
+	private static int readShort(byte[] b, int offset) {
+		return ((b[offset] & 0xFF) << 8) | (b[offset + 1] & 0xFF);
+	}
+}
@@ -25,23 +25,17 @@
 package net.fabricmc.loom.configuration.providers.minecraft;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.URI;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Consumer;
-import java.util.jar.Attributes;
-import java.util.jar.Manifest;
+import java.util.jar.JarFile;
 
+import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableMap;
 import org.gradle.api.Project;
 import org.jetbrains.annotations.Nullable;
@@ -49,10 +43,12 @@ import org.jetbrains.annotations.Nullable;
 import net.fabricmc.loom.configuration.DependencyProvider;
 import net.fabricmc.loom.configuration.providers.MinecraftProvider;
 import net.fabricmc.loom.configuration.providers.mappings.MappingsProvider;
+import net.fabricmc.loom.util.CacheLock;
 import net.fabricmc.loom.util.Constants;
+import net.fabricmc.loom.util.JarTransformer;
+import net.fabricmc.loom.util.RawZipFile;
 import net.fabricmc.loom.util.TinyRemapperMappingsHelper;
-import net.fabricmc.loom.util.srg.AtRemapper;
-import net.fabricmc.loom.util.srg.CoreModClassRemapper;
+import net.fabricmc.loom.util.srg.ForgeJarFinalizer;
 import net.fabricmc.loom.util.srg.InnerClassRemapper;
 import net.fabricmc.mapping.tree.TinyTree;
 import net.fabricmc.tinyremapper.IMappingProvider;
@@ -88,36 +84,37 @@ public class MinecraftMappedProvider extends DependencyProvider {
 			throw new RuntimeException("input merged jar not found");
 		}
 
-		boolean isForgeAtDirty = getExtension().isForge() && getExtension().getMappingsProvider().patchedProvider.isAtDirty();
+		// The merged Forge jar only has the Forge access transformers applied, so these jars do not depend on the project ones and
+		// are not remapped when they change. MinecraftProcessedProvider applies them to its own copies of the named, intermediary and srg jars.
+		// The srg jar is only made when it is first asked for, see getSrgJar. It is a separate official -> srg remap of the input jar.
+		// The intermediary jar stays eager: the dev launcher reads it from the remap classpath file without going through this
+		// provider, and remapping it here reuses the classpath TinyRemapper already read and prepared for the named jar.
+		// Other builds sharing the cache wait for the lock and then reuse the jars instead of remapping them again
+		try (CacheLock lock = CacheLock.acquire(minecraftMappedJar.toPath(), getProject().getLogger())) {
+			if (!minecraftMappedJar.exists() || !minecraftIntermediaryJar.exists() || isRefreshDeps() || lock.isDirty()) {
+				// The jars are replaced once complete, so builds still using the previous ones are not broken
+				IncrementalMappedJar.deleteState(minecraftMappedJar.toPath());
 
-		if (!minecraftMappedJar.exists() || !getIntermediaryJar().exists() || (getExtension().isForge() && !getSrgJar().exists()) || isRefreshDeps() || isForgeAtDirty) {
-			if (minecraftMappedJar.exists()) {
-				minecraftMappedJar.delete();
-			}
+				minecraftMappedJar.getParentFile().mkdirs();
 
-			minecraftMappedJar.getParentFile().mkdirs();
+				if (getExtension().isForge() && minecraftSrgJar.exists()) {
+					minecraftSrgJar.delete();
+				}
 
-			if (minecraftIntermediaryJar.exists()) {
-				minecraftIntermediaryJar.delete();
-			}
+				try {
+					mapMinecraftJar();
+				} catch (Throwable t) {
+					// Cleanup some some things that may be in a bad state now
+					minecraftMappedJar.delete();
+					minecraftIntermediaryJar.delete();
 
-			if (getExtension().isForge() && minecraftSrgJar.exists()) {
-				minecraftSrgJar.delete();
-			}
-
-			try {
-				mapMinecraftJar();
-			} catch (Throwable t) {
-				// Cleanup some some things that may be in a bad state now
-				minecraftMappedJar.delete();
-				minecraftIntermediaryJar.delete();
+					if (getExtension().isForge()) {
+						minecraftSrgJar.delete();
+					}
 
-				if (getExtension().isForge()) {
-					minecraftSrgJar.delete();
+					getExtension().getMappingsProvider().cleanFiles();
+					throw new RuntimeException("Failed to remap minecraft", t);
 				}
-
-				getExtension().getMappingsProvider().cleanFiles();
-				throw new RuntimeException("Failed to remap minecraft", t);
 			}
 		}
 
@@ -136,72 +133,203 @@ public class MinecraftMappedProvider extends DependencyProvider {
 		Path input = inputJar.toPath();
 		Path outputMapped = minecraftMappedJar.toPath();
 		Path outputIntermediary = minecraftIntermediaryJar.toPath();
-		Path outputSrg = minecraftSrgJar == null ? null : minecraftSrgJar.toPath();
+		// Each jar is streamed to disk by TinyRemapper, and only finalised in a second pass on Forge
+		Path remappedIntermediary = getRemappedJar(outputIntermediary);
+		Path remappedMapped = getRemappedJar(outputMapped);
 
 		Path[] libraries = getRemapClasspath(getProject());
 		TinyRemapper remapper = getTinyRemapper();
 		remapper.readClassPath(libraries);
 		remapper.prepareClasses();
+		IncrementalMappedJar incremental = findIncrementalJar(input);
 
-		for (String toM : getExtension().isForge() ? Arrays.asList("named", "intermediary", "srg") : Arrays.asList("named", "intermediary")) {
-			Path output = "named".equals(toM) ? outputMapped : "srg".equals(toM) ? outputSrg : outputIntermediary;
+		try {
+			try {
+				remap(remapper, input, remappedIntermediary, fromM, "intermediary");
 
-			getProject().getLogger().lifecycle(":remapping minecraft (TinyRemapper, " + fromM + " -> " + toM + ")");
+				if (incremental == null) {
+					remap(remapper, input, remappedMapped, fromM, "named");
+				}
+			} finally {
+				remapper.finish();
+			}
 
-			try (OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(output).build()) {
-				if (getExtension().isForge()) {
-					outputConsumer.addNonClassFiles(input, NonClassCopyMode.FIX_META_INF, remapper);
-				} else {
-					outputConsumer.addNonClassFiles(input);
+			if (incremental != null) {
+				remapIncrementally(incremental, input, remappedMapped, libraries, fromM, "named");
+			}
+
+			ForgeJarFinalizer finalizer = null;
+
+			if (getExtension().isForge()) {
+				// The remapped jars are deleted once published, so they are unmapped as soon as they are read
+				try (RawZipFile resources = RawZipFile.open(remappedIntermediary)) {
+					finalizer = new ForgeJarFinalizer(getProject().getLogger(), getExtension().getForgeUniversalProvider().getForgeManifest(), mappingsProvider.getMappingsWithSrg(), resources);
 				}
+			}
+
+			publishJar(remappedIntermediary, outputIntermediary, finalizer);
+			publishJar(remappedMapped, outputMapped, finalizer);
+
+			if (finalizer != null) {
+				finalizer.logTimes();
+			}
+		} catch (Exception e) {
+			Files.deleteIfExists(outputIntermediary);
+			Files.deleteIfExists(outputMapped);
+			throw new RuntimeException("Failed to remap JAR " + input + " with mappings from " + mappingsProvider.tinyMappings, e);
+		} finally {
+			Files.deleteIfExists(remappedIntermediary);
+			Files.deleteIfExists(remappedMapped);
+		}
+
+		IncrementalMappedJar.writeState(outputMapped, getMappingsPath(), input);
+	}
+
+	private void remap(TinyRemapper remapper, Path input, Path output, String fromM, String toM) throws IOException {
+		getProject().getLogger().lifecycle(":remapping minecraft (TinyRemapper, " + fromM + " -> " + toM + ")");
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		Files.deleteIfExists(output);
+
+		try (OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(output).build()) {
+			addNonClassFiles(outputConsumer, input, remapper);
+			remapper.replaceMappings(getMappings(input, fromM, toM));
+			remapper.readInputs(input);
+			remapper.apply(outputConsumer);
+		} finally {
+			remapper.removeInput();
+		}
 
+		getProject().getLogger().info(":remapped minecraft to " + toM + " in " + stopwatch.stop());
+	}
+
+	private void remapIncrementally(IncrementalMappedJar incremental, Path input, Path output, Path[] libraries, String fromM, String toM) throws IOException {
+		getProject().getLogger().lifecycle(":remapping " + incremental.getAffectedCount() + " changed minecraft classes (TinyRemapper, " + fromM + " -> " + toM + "), reusing "
+				+ incremental.getPreviousJar().getFileName());
+		Path affectedJar = Files.createTempFile("minecraft-affected", ".jar");
+		Path reusedJar = Files.createTempFile("minecraft-reused", ".jar");
+		// The reused classes are only on the classpath, so that the hierarchy is complete
+		TinyRemapper remapper = getTinyRemapper();
+		Files.deleteIfExists(output);
+
+		try {
+			incremental.splitInput(input, affectedJar, reusedJar);
+			remapper.readClassPath(libraries);
+			remapper.readClassPath(reusedJar);
+
+			try (OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(output).build()) {
+				addNonClassFiles(outputConsumer, input, remapper);
 				remapper.replaceMappings(getMappings(input, fromM, toM));
-				remapper.readInputs(input);
+				remapper.readInputs(affectedJar);
 				remapper.apply(outputConsumer);
-			} catch (Exception e) {
-				Files.deleteIfExists(output);
-				throw new RuntimeException("Failed to remap JAR " + input + " with mappings from " + mappingsProvider.tinyMappings, e);
-			} finally {
-				remapper.removeInput();
+				incremental.copyReused(outputConsumer);
 			}
+		} finally {
+			remapper.finish();
+			Files.deleteIfExists(affectedJar);
+			Files.deleteIfExists(reusedJar);
+		}
+	}
 
-			if (getExtension().isForge() && !"srg".equals(toM)) {
-				getProject().getLogger().info(":running forge finalising tasks");
+	private static Path getRemappedJar(Path output) {
+		return output.resolveSibling(output.getFileName() + ".remapped");
+	}
 
-				// TODO: Relocate this to its own class
-				try (FileSystem fs = FileSystems.newFileSystem(URI.create("jar:" + output.toUri()), ImmutableMap.of("create", false))) {
-					Path manifestPath = fs.getPath("META-INF", "MANIFEST.MF");
-					Manifest minecraftManifest;
-					Manifest forgeManifest;
+	private void addNonClassFiles(OutputConsumerPath outputConsumer, Path input, TinyRemapper remapper) throws IOException {
+		if (getExtension().isForge()) {
+			outputConsumer.addNonClassFiles(input, NonClassCopyMode.FIX_META_INF, remapper);
+		} else {
+			outputConsumer.addNonClassFiles(input);
+		}
+	}
 
-					try (InputStream in = Files.newInputStream(manifestPath)) {
-						minecraftManifest = new Manifest(in);
-					}
+	private Path getMappingsPath() {
+		MappingsProvider mappingsProvider = getExtension().getMappingsProvider();
+		return getExtension().isForge() ? mappingsProvider.tinyMappingsWithSrg : mappingsProvider.tinyMappings.toPath();
+	}
 
-					try (InputStream in = new FileInputStream(getExtension().getForgeUniversalProvider().getForgeManifest())) {
-						forgeManifest = new Manifest(in);
-					}
+	/**
+	 * Finds a named jar of the same Minecraft jar remapped with other mappings, to only remap the classes affected by the mappings change.
+	 */
+	@Nullable
+	private IncrementalMappedJar findIncrementalJar(Path input) {
+		if (isRefreshDeps()) {
+			return null;
+		}
 
-					for (Map.Entry<String, Attributes> forgeEntry : forgeManifest.getEntries().entrySet()) {
-						if (forgeEntry.getKey().endsWith("/")) {
-							minecraftManifest.getEntries().put(forgeEntry.getKey(), forgeEntry.getValue());
-						}
-					}
+		try {
+			MappingsProvider mappingsProvider = getExtension().getMappingsProvider();
+			String prefix = String.format("%s-mapped-%s-", minecraftProvider.getMinecraftVersion(), mappingsProvider.mappingsName);
+			List<Path> jars = IncrementalMappedJar.listJars(getExtension().getUserCache().toPath(), prefix, minecraftProvider.getJarSuffix(), minecraftMappedJar.toPath());
+			TinyTree mappings = getExtension().isForge() ? mappingsProvider.getMappingsWithSrg() : mappingsProvider.getMappings();
+			return jars.isEmpty() ? null : IncrementalMappedJar.find(jars, input, mappings, getProject().getLogger());
+		} catch (IOException | RuntimeException e) {
+			getProject().getLogger().info(":could not reuse a previous named minecraft jar", e);
+			return null;
+		}
+	}
 
-					Files.delete(manifestPath);
+	/**
+	 * Remaps the merged jar to srg, in a temporary file that is moved in place once complete.
+	 */
+	private void mapSrgJar() throws IOException {
+		getProject().getLogger().lifecycle(":remapping minecraft (TinyRemapper, official -> srg)");
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		Path input = inputJar.toPath();
+		Path output = minecraftSrgJar.toPath();
+		Path temp = CacheLock.tempFile(output);
+		Files.deleteIfExists(temp);
+		TinyRemapper remapper = getTinyRemapper();
 
-					try (OutputStream out = Files.newOutputStream(manifestPath)) {
-						minecraftManifest.write(out);
-					}
-				}
+		try {
+			try (OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(temp).build()) {
+				remapper.readClassPath(getRemapClasspath(getProject()));
+				addNonClassFiles(outputConsumer, input, remapper);
+				remapper.replaceMappings(getMappings(input, "official", "srg"));
+				remapper.readInputs(input);
+				remapper.apply(outputConsumer);
+			} finally {
+				remapper.finish();
+			}
 
-				TinyTree yarnWithSrg = getExtension().getMappingsProvider().getMappingsWithSrg();
-				AtRemapper.remap(getProject().getLogger(), output, yarnWithSrg);
-				CoreModClassRemapper.remapJar(output, yarnWithSrg, getProject().getLogger());
+			CacheLock.publish(temp, output);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+
+		getProject().getLogger().info(":remapped minecraft to srg in " + stopwatch.stop());
+	}
+
+	/**
+	 * Moves a remapped jar in place, running the Forge finaliser over its non class files first.
+	 * The classes are copied as they are, without being inflated again.
+	 *
+	 * @param finalizer the Forge finaliser to apply to the non class files, or null
+	 */
+	private void publishJar(Path remapped, Path output, @Nullable ForgeJarFinalizer finalizer) throws IOException {
+		if (finalizer == null) {
+			CacheLock.publish(remapped, output);
+			return;
+		}
+
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		Path temp = CacheLock.tempFile(output);
+
+		try {
+			try (RawZipFile zip = RawZipFile.open(remapped)) {
+				// The manifest has to stay at the start of the jar for JarInputStream
+				new JarTransformer()
+						.add(zip, JarFile.MANIFEST_NAME::equals, false, finalizer)
+						.add(zip, finalizer::handles, false, finalizer)
+						.add(zip, name -> true, false, null)
+						.write(temp);
 			}
+
+			CacheLock.publish(temp, output);
+		} finally {
+			Files.deleteIfExists(temp);
 		}
 
-		remapper.finish();
+		getProject().getLogger().info(":finalised " + output.getFileName() + " in " + stopwatch.stop());
 	}
 
 	public TinyRemapper getTinyRemapper() throws IOException {
@@ -270,10 +398,29 @@ public class MinecraftMappedProvider extends DependencyProvider {
 		return minecraftIntermediaryJar;
 	}
 
-	public File getSrgJar() {
+	/**
+	 * Gets the srg jar, remapping it if it is missing or older than the intermediary jar.
+	 * It is only used as a classpath to remap mods and sources, so most builds never need it.
+	 */
+	public synchronized File getSrgJar() {
+		if (minecraftSrgJar != null && !isSrgJarUpToDate()) {
+			try (CacheLock lock = CacheLock.acquire(minecraftSrgJar.toPath(), getProject().getLogger())) {
+				// Another build may have remapped it while this one was waiting
+				if (!isSrgJarUpToDate()) {
+					mapSrgJar();
+				}
+			} catch (IOException e) {
+				throw new RuntimeException("Failed to remap minecraft to srg", e);
+			}
+		}
+
 		return minecraftSrgJar;
 	}
 
+	private boolean isSrgJarUpToDate() {
+		return minecraftSrgJar.exists() && minecraftSrgJar.lastModified() >= minecraftIntermediaryJar.lastModified();
+	}
+
 	public File getMappedJar() {
 		return minecraftMappedJar;
 	}
@@ -39,7 +39,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
@@ -68,6 +67,7 @@ import net.fabricmc.loom.build.JarRemapper;
 import net.fabricmc.loom.build.MixinRefmapHelper;
 import net.fabricmc.loom.build.NestedJars;
 import net.fabricmc.loom.configuration.accesswidener.AccessWidenerJarProcessor;
+import net.fabricmc.loom.configuration.providers.mappings.MappingIndex;
 import net.fabricmc.loom.configuration.providers.mappings.MappingsProvider;
 import net.fabricmc.loom.util.LoggerFilter;
 import net.fabricmc.loom.util.TinyRemapperMappingsHelper;
@@ -76,7 +76,6 @@ import net.fabricmc.loom.util.gradle.GradleSupport;
 import net.fabricmc.mapping.tree.ClassDef;
 import net.fabricmc.mapping.tree.FieldDef;
 import net.fabricmc.mapping.tree.MethodDef;
-import net.fabricmc.mapping.tree.TinyTree;
 import net.fabricmc.stitch.util.Pair;
 import net.fabricmc.tinyremapper.IMappingProvider;
 import net.fabricmc.tinyremapper.OutputConsumerPath;
@@ -231,67 +230,38 @@ public class RemapJarTask extends Jar {
 	}
 
 	private ReferenceRemapper createReferenceRemapper(LoomGradleExtension extension) throws IOException {
-		TinyTree srg = extension.getMappingsProvider().getMappingsWithSrg();
+		MappingIndex srg = MappingIndex.of(extension.getMappingsProvider().getMappingsWithSrg());
 
 		return new SimpleReferenceRemapper(new SimpleReferenceRemapper.Remapper() {
 			@Override
 			@Nullable
 			public String mapClass(String value) {
-				return srg.getClasses().stream()
-						.filter(classDef -> Objects.equals(classDef.getName("intermediary"), value))
-						.findFirst()
-						.map(classDef -> classDef.getName("srg"))
-						.orElse(null);
+				ClassDef classDef = srg.getClass("intermediary", value);
+				return classDef != null ? classDef.getName("srg") : null;
 			}
 
 			@Override
 			@Nullable
 			public String mapMethod(@Nullable String className, String methodName, String methodDescriptor) {
-				if (className != null) {
-					Optional<ClassDef> classDef = srg.getClasses().stream()
-							.filter(c -> Objects.equals(c.getName("intermediary"), className))
-							.findFirst();
-
-					if (classDef.isPresent()) {
-						for (MethodDef methodDef : classDef.get().getMethods()) {
-							if (Objects.equals(methodDef.getName("intermediary"), methodName) && Objects.equals(methodDef.getDescriptor("intermediary"), methodDescriptor)) {
-								return methodDef.getName("srg");
-							}
-						}
-					}
+				MethodDef methodDef = className != null ? srg.getMethod("intermediary", className, methodName, methodDescriptor) : null;
+
+				if (methodDef == null) {
+					methodDef = srg.getAnyMethod("intermediary", methodName, methodDescriptor);
 				}
 
-				return srg.getClasses().stream()
-						.flatMap(classDef -> classDef.getMethods().stream())
-						.filter(methodDef -> Objects.equals(methodDef.getName("intermediary"), methodName) && Objects.equals(methodDef.getDescriptor("intermediary"), methodDescriptor))
-						.findFirst()
-						.map(methodDef -> methodDef.getName("srg"))
-						.orElse(null);
+				return methodDef != null ? methodDef.getName("srg") : null;
 			}
 
 			@Override
 			@Nullable
 			public String mapField(@Nullable String className, String fieldName, String fieldDescriptor) {
-				if (className != null) {
-					Optional<ClassDef> classDef = srg.getClasses().stream()
-							.filter(c -> Objects.equals(c.getName("intermediary"), className))
-							.findFirst();
-
-					if (classDef.isPresent()) {
-						for (FieldDef fieldDef : classDef.get().getFields()) {
-							if (Objects.equals(fieldDef.getName("intermediary"), fieldName) && Objects.equals(fieldDef.getDescriptor("intermediary"), fieldDescriptor)) {
-								return fieldDef.getName("srg");
-							}
-						}
-					}
+				FieldDef fieldDef = className != null ? srg.getField("intermediary", className, fieldName, fieldDescriptor) : null;
+
+				if (fieldDef == null) {
+					fieldDef = srg.getAnyField("intermediary", fieldName, fieldDescriptor);
 				}
 
-				return srg.getClasses().stream()
-						.flatMap(classDef -> classDef.getFields().stream())
-						.filter(fieldDef -> Objects.equals(fieldDef.getName("intermediary"), fieldName) && Objects.equals(fieldDef.getDescriptor("intermediary"), fieldDescriptor))
-						.findFirst()
-						.map(fieldDef -> fieldDef.getName("srg"))
-						.orElse(null);
+				return fieldDef != null ? fieldDef.getName("srg") : null;
 			}
 		});
 	}
@@ -370,43 +340,25 @@ public class RemapJarTask extends Jar {
 	}
 
 	private IMappingProvider remapToSrg(LoomGradleExtension extension, IMappingProvider parent) throws IOException {
-		TinyTree srg = extension.getMappingsProvider().getMappingsWithSrg();
+		MappingIndex srg = MappingIndex.of(extension.getMappingsProvider().getMappingsWithSrg());
 
 		return sink -> {
 			parent.load(new IMappingProvider.MappingAcceptor() {
 				@Override
 				public void acceptClass(String srcName, String dstName) {
-					String srgName = srg.getClasses()
-							.stream()
-							.filter(it -> Objects.equals(it.getName("intermediary"), dstName))
-							.findFirst()
-							.map(it -> it.getName("srg"))
-							.orElse(dstName);
-					sink.acceptClass(srcName, srgName);
+					sink.acceptClass(srcName, srg.mapClass("intermediary", "srg", dstName));
 				}
 
 				@Override
 				public void acceptMethod(IMappingProvider.Member method, String dstName) {
-					String srgName = srg.getClasses()
-							.stream()
-							.flatMap(it -> it.getMethods().stream())
-							.filter(it -> Objects.equals(it.getName("intermediary"), dstName))
-							.findFirst()
-							.map(it -> it.getName("srg"))
-							.orElse(dstName);
-					sink.acceptMethod(method, srgName);
+					MethodDef def = srg.getAnyMethodByName("intermediary", dstName);
+					sink.acceptMethod(method, def != null ? def.getName("srg") : dstName);
 				}
 
 				@Override
 				public void acceptField(IMappingProvider.Member field, String dstName) {
-					String srgName = srg.getClasses()
-							.stream()
-							.flatMap(it -> it.getFields().stream())
-							.filter(it -> Objects.equals(it.getName("intermediary"), dstName))
-							.findFirst()
-							.map(it -> it.getName("srg"))
-							.orElse(dstName);
-					sink.acceptField(field, srgName);
+					FieldDef def = srg.getAnyFieldByName("intermediary", dstName);
+					sink.acceptField(field, def != null ? def.getName("srg") : dstName);
 				}
 
 				@Override
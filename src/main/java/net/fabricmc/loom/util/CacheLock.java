@@ -0,0 +1,230 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.gradle.api.logging.Logger;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Locks an entry of the global cache against the other builds sharing it, in this and in other processes.
+ *
+ * <p>The lock is a file lock on {@code <entry>.lock}, which also records the owner while it is held. The system releases
+ * the file lock of a process that dies, so a record left behind means the previous owner died while writing the entry,
+ * and {@link #isDirty()} tells the new owner to rebuild it. The record is cleared when the lock is closed, even after a failure,
+ * as the entries are {@linkplain #publish(Path, Path) published} atomically and a failed write leaves nothing behind.
+ *
+ * <p>Builds have to check whether an entry is up to date while holding its lock, so a build that waited for another one
+ * reuses its output instead of computing it again. The wait is bounded by the {@code fabric.loom.cacheLockTimeout} system
+ * property, in seconds.
+ */
+public final class CacheLock implements Closeable {
+	private static final long TIMEOUT = TimeUnit.SECONDS.toMillis(Long.getLong("fabric.loom.cacheLockTimeout", 900));
+	private static final long POLL_INTERVAL = 200;
+	private static final Map<Path, ReentrantLock> LOCAL_LOCKS = new ConcurrentHashMap<>();
+
+	private final ReentrantLock localLock;
+	@Nullable
+	private final FileChannel channel;
+	@Nullable
+	private final FileLock fileLock;
+	@Nullable
+	private final String previousOwner;
+
+	private CacheLock(ReentrantLock localLock, @Nullable FileChannel channel, @Nullable FileLock fileLock, @Nullable String previousOwner) {
+		this.localLock = localLock;
+		this.channel = channel;
+		this.fileLock = fileLock;
+		this.previousOwner = previousOwner;
+	}
+
+	/**
+	 * Waits for the lock of a cache entry.
+	 *
+	 * @param entry the file or directory to lock, it does not have to exist
+	 * @throws IOException if the lock is still held by another build after the timeout
+	 */
+	public static CacheLock acquire(Path entry, Logger logger) throws IOException {
+		Path lockFile = entry.resolveSibling(entry.getFileName() + ".lock").toAbsolutePath().normalize();
+		ReentrantLock localLock = LOCAL_LOCKS.computeIfAbsent(lockFile, path -> new ReentrantLock());
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+
+		try {
+			if (!localLock.tryLock()) {
+				logger.lifecycle(":waiting for another project to finish writing " + entry.getFileName());
+
+				if (!localLock.tryLock(TIMEOUT, TimeUnit.MILLISECONDS)) {
+					throw new IOException("Timed out waiting for another project to finish writing " + entry);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the lock of " + entry, e);
+		}
+
+		// The file lock is held once per process, nested acquisitions from the same thread only take the local lock
+		if (localLock.getHoldCount() > 1) {
+			return new CacheLock(localLock, null, null, null);
+		}
+
+		FileChannel channel = null;
+
+		try {
+			Files.createDirectories(lockFile.getParent());
+			channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			FileLock fileLock = lock(channel, entry, deadline, logger);
+
+			if (fileLock == null) {
+				channel.close();
+				return new CacheLock(localLock, null, null, null);
+			}
+
+			String previousOwner = channel.size() > 0 ? readOwner(channel) : null;
+
+			if (previousOwner != null) {
+				logger.warn(":" + entry.getFileName() + " was left incomplete by " + previousOwner + ", rebuilding it");
+			}
+
+			writeOwner(channel, ManagementFactory.getRuntimeMXBean().getName() + " since " + Instant.now());
+			return new CacheLock(localLock, channel, fileLock, previousOwner);
+		} catch (IOException | RuntimeException e) {
+			if (channel != null) {
+				channel.close();
+			}
+
+			localLock.unlock();
+			throw e;
+		}
+	}
+
+	/**
+	 * Moves a file written next to its target in place, so that other builds never see it half written.
+	 */
+	public static void publish(Path temp, Path target) throws IOException {
+		try {
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Gets the file to write a target to before it is {@linkplain #publish(Path, Path) published}.
+	 */
+	public static Path tempFile(Path target) {
+		return target.resolveSibling(target.getFileName() + ".tmp");
+	}
+
+	@Nullable
+	private static FileLock lock(FileChannel channel, Path entry, long deadline, Logger logger) throws IOException {
+		String owner = null;
+
+		while (true) {
+			FileLock fileLock;
+
+			try {
+				// The locked region is past the owner record, as locked regions can't be read on Windows
+				fileLock = channel.tryLock(Long.MAX_VALUE - 1, 1, false);
+			} catch (IOException e) {
+				logger.warn(":could not lock " + entry.getFileName() + ", the file system may not support locking", e);
+				return null;
+			}
+
+			if (fileLock != null) {
+				return fileLock;
+			}
+
+			if (owner == null) {
+				owner = readOwner(channel);
+				logger.lifecycle(":waiting for " + owner + " to finish writing " + entry.getFileName());
+			}
+
+			if (System.currentTimeMillis() > deadline) {
+				throw new IOException("Timed out waiting for " + owner + " to finish writing " + entry);
+			}
+
+			try {
+				Thread.sleep(POLL_INTERVAL);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for the lock of " + entry, e);
+			}
+		}
+	}
+
+	private static String readOwner(FileChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(channel.size(), 1024));
+		channel.read(buffer, 0);
+		String owner = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8).trim();
+		return owner.isEmpty() ? "another build" : owner;
+	}
+
+	private static void writeOwner(FileChannel channel, String owner) throws IOException {
+		channel.truncate(0);
+		channel.write(ByteBuffer.wrap(owner.getBytes(StandardCharsets.UTF_8)), 0);
+		channel.force(false);
+	}
+
+	/**
+	 * Checks whether the previous owner of the lock died before finishing the entry, so its content can't be trusted.
+	 */
+	public boolean isDirty() {
+		return previousOwner != null;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if (channel != null) {
+				try {
+					channel.truncate(0);
+					channel.force(false);
+					fileLock.release();
+				} finally {
+					channel.close();
+				}
+			}
+		} finally {
+			localLock.unlock();
+		}
+	}
+}
@@ -108,16 +108,21 @@ public class DownloadUtil {
 			logger.info("'{}' Changed, downloading {}", to, toNiceSize(contentLength));
 		}
 
-		try { // Try download to the output
-			FileUtils.copyInputStreamToFile(connection.getInputStream(), to);
-		} catch (IOException e) {
-			to.delete(); // Probably isn't good if it fails to copy/save
-			throw e;
-		}
+		// Download next to the output and move it in place, so that other builds never read a partial download
+		File temp = createTempFile(to);
+
+		try {
+			FileUtils.copyInputStreamToFile(connection.getInputStream(), temp);
+
+			//Set the modify time to match the server's (if we know it)
+			if (modifyTime > 0) {
+				temp.setLastModified(modifyTime);
+			}
 
-		//Set the modify time to match the server's (if we know it)
-		if (modifyTime > 0) {
-			to.setLastModified(modifyTime);
+			CacheLock.publish(temp.toPath(), to.toPath());
+		} finally {
+			// Only the temporary file can be partial, the output is either the previous one or the complete download
+			temp.delete();
 		}
 
 		//Save the ETag (if we know it)
@@ -145,6 +150,15 @@ public class DownloadUtil {
 		return new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".etag");
 	}
 
+	/**
+	 * Creates a uniquely named file next to the given one, to download to before moving it in place.
+	 */
+	static File createTempFile(File to) throws IOException {
+		File parent = to.getAbsoluteFile().getParentFile();
+		parent.mkdirs();
+		return File.createTempFile(to.getName() + ".", ".tmp", parent);
+	}
+
 	/**
 	 * Attempt to load an ETag for the given file, if it exists.
 	 *
@@ -86,18 +86,22 @@ public class HashedDownloadUtil {
 			logger.info("'{}' Changed, downloading {}", to, DownloadUtil.toNiceSize(contentLength));
 		}
 
-		try { // Try download to the output
-			FileUtils.copyInputStreamToFile(connection.getInputStream(), to);
-		} catch (IOException e) {
-			delete(to); // Probably isn't good if it fails to copy/save
-			throw e;
-		}
+		// Download next to the output and only move it in place once the hash is checked
+		File temp = DownloadUtil.createTempFile(to);
 
-		if (!Checksum.equals(to, expectedHash)) {
-			String actualHash = Files.asByteSource(to).hash(Hashing.sha1()).toString();
-			delete(to);
+		try {
+			// A failed download only leaves the temporary file behind, which is deleted below
+			FileUtils.copyInputStreamToFile(connection.getInputStream(), temp);
+
+			if (!Checksum.equals(temp, expectedHash)) {
+				String actualHash = Files.asByteSource(temp).hash(Hashing.sha1()).toString();
+
+				throw new IOException(String.format("Downloaded file from %s to %s and got unexpected hash of %s expected %s", from, to, actualHash, expectedHash));
+			}
 
-			throw new IOException(String.format("Downloaded file from %s to %s and got unexpected hash of %s expected %s", from, to, actualHash, expectedHash));
+			CacheLock.publish(temp.toPath(), to.toPath());
+		} finally {
+			temp.delete();
 		}
 
 		saveSha1(to, expectedHash, logger);
@@ -0,0 +1,201 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Builds a jar out of several sources in a single read, transform and write pass.
+ *
+ * <p>Sources are added in order, and each one either replaces entries of the earlier sources or only adds the missing ones.
+ * Entries are only inflated when a transformer has to look at them, and entries the transformer leaves unchanged
+ * are copied raw without being deflated again.
+ */
+public final class JarTransformer {
+	private final Map<String, Candidate> entries = new LinkedHashMap<>();
+
+	/**
+	 * Adds the entries of a zip, keeping their names.
+	 *
+	 * @param zip         the source zip
+	 * @param filter      the entries to add
+	 * @param replace     whether the entries replace the ones added by earlier sources
+	 * @param transformer the transformer to apply to the added entries, or null
+	 * @return this transformer
+	 */
+	public JarTransformer add(RawZipFile zip, Predicate<String> filter, boolean replace, @Nullable EntryTransformer transformer) {
+		return add(zip, filter, UnaryOperator.identity(), replace, transformer);
+	}
+
+	/**
+	 * Adds the entries of a zip under new names.
+	 *
+	 * @param zip         the source zip
+	 * @param filter      the entries to add, tested against the original names
+	 * @param rename      the function mapping original names to output names
+	 * @param replace     whether the entries replace the ones added by earlier sources
+	 * @param transformer the transformer to apply to the added entries, or null
+	 * @return this transformer
+	 */
+	public JarTransformer add(RawZipFile zip, Predicate<String> filter, UnaryOperator<String> rename, boolean replace, @Nullable EntryTransformer transformer) {
+		for (RawZipFile.Entry entry : zip.getEntries()) {
+			if (!filter.test(entry.getName())) {
+				continue;
+			}
+
+			String name = rename.apply(entry.getName());
+
+			if (!name.isEmpty()) {
+				add(name, new Candidate(zip, entry, null, entry.getDosTime(), transformer), replace);
+			}
+		}
+
+		return this;
+	}
+
+	/**
+	 * Adds entries that only exist in memory.
+	 *
+	 * @param files       the entry names and uncompressed contents
+	 * @param time        the Java timestamp of the entries
+	 * @param replace     whether the entries replace the ones added by earlier sources
+	 * @param transformer the transformer to apply to the added entries, or null
+	 * @return this transformer
+	 */
+	public JarTransformer add(Map<String, byte[]> files, long time, boolean replace, @Nullable EntryTransformer transformer) {
+		int dosTime = RawZipWriter.toDosTime(time);
+
+		for (Map.Entry<String, byte[]> file : files.entrySet()) {
+			add(file.getKey(), new Candidate(null, null, file.getValue(), dosTime, transformer), replace);
+		}
+
+		return this;
+	}
+
+	private void add(String name, Candidate candidate, boolean replace) {
+		if (replace) {
+			entries.put(name, candidate);
+		} else {
+			entries.putIfAbsent(name, candidate);
+		}
+	}
+
+	public void write(Path output) throws IOException {
+		write(output, null);
+	}
+
+	/**
+	 * Writes the jar, running the transformers on a pool if one is given.
+	 * The entries are still written in order.
+	 *
+	 * @param output the output jar
+	 * @param pool   the pool to run the transformers on, or null to run them on this thread
+	 */
+	public void write(Path output, @Nullable ForkJoinPool pool) throws IOException {
+		Files.deleteIfExists(output);
+		Map<String, ForkJoinTask<byte[]>> transformed = new HashMap<>();
+
+		if (pool != null) {
+			for (Map.Entry<String, Candidate> entry : entries.entrySet()) {
+				if (entry.getValue().transformer != null && !entry.getKey().endsWith("/")) {
+					transformed.put(entry.getKey(), pool.submit(() -> transform(entry.getKey(), entry.getValue())));
+				}
+			}
+		}
+
+		try (RawZipWriter writer = new RawZipWriter(output)) {
+			for (Map.Entry<String, Candidate> entry : entries.entrySet()) {
+				String name = entry.getKey();
+				Candidate candidate = entry.getValue();
+				ForkJoinTask<byte[]> task = transformed.get(name);
+				byte[] data = task != null ? task.join() : transform(name, candidate);
+
+				if (data != null) {
+					writer.write(name, data, candidate.dosTime);
+				} else {
+					writer.copy(name, candidate.zip, candidate.entry);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(output);
+			throw e;
+		}
+	}
+
+	/**
+	 * Runs the transformer of an entry.
+	 *
+	 * @return the data to write, or null if the entry can be copied raw
+	 */
+	@Nullable
+	private static byte[] transform(String name, Candidate candidate) throws IOException {
+		if (candidate.transformer == null || name.endsWith("/")) {
+			return candidate.data;
+		}
+
+		byte[] original = candidate.data != null ? candidate.data : candidate.zip.getData(candidate.entry);
+		byte[] data = candidate.transformer.transform(name, original);
+		return data == original && candidate.zip != null ? null : data;
+	}
+
+	@FunctionalInterface
+	public interface EntryTransformer {
+		/**
+		 * Transforms the contents of an entry.
+		 *
+		 * @param name the name of the entry
+		 * @param data the uncompressed contents
+		 * @return the new contents, or {@code data} itself if the entry is left unchanged
+		 */
+		byte[] transform(String name, byte[] data) throws IOException;
+	}
+
+	private static final class Candidate {
+		private final RawZipFile zip;
+		private final RawZipFile.Entry entry;
+		private final byte[] data;
+		private final int dosTime;
+		private final EntryTransformer transformer;
+
+		private Candidate(RawZipFile zip, RawZipFile.Entry entry, byte[] data, int dosTime, EntryTransformer transformer) {
+			this.zip = zip;
+			this.entry = entry;
+			this.data = data;
+			this.dosTime = dosTime;
+			this.transformer = transformer;
+		}
+	}
+}
@@ -0,0 +1,299 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A read-only zip file that gives access to the raw, still compressed, data of its entries.
+ *
+ * <p>Together with {@link RawZipWriter} this allows copying entries between jars without inflating and deflating them again.
+ * Zip64 archives are not supported.
+ *
+ * <p>Files are memory mapped rather than read onto the heap. The mapping lasts until the zip is {@linkplain #close() closed}
+ * or garbage collected, and the file must not be changed in the meantime. On Windows, a mapped file can not be deleted or
+ * replaced either, so the zips of files that are deleted or replaced by the same build should be closed first.
+ */
+public final class RawZipFile implements Closeable {
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_HEADER = 0x06054b50;
+
+	private final ByteBuffer buffer;
+	private final List<Entry> entries;
+	private boolean closed;
+
+	private RawZipFile(ByteBuffer buffer) throws ZipException {
+		this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+		this.entries = Collections.unmodifiableList(readCentralDirectory());
+	}
+
+	public static RawZipFile open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new ZipException("Zip64 archives are not supported");
+			}
+
+			return new RawZipFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	public static RawZipFile of(byte[] bytes) throws ZipException {
+		return new RawZipFile(ByteBuffer.wrap(bytes));
+	}
+
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	@Nullable
+	public Entry getEntry(String name) {
+		for (Entry entry : entries) {
+			if (entry.getName().equals(name)) {
+				return entry;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Unmaps the file if it is mapped and the JVM allows it, otherwise the mapping is left to the garbage collector.
+	 * Neither this zip nor the data it returned may be used afterwards.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed || !(buffer instanceof MappedByteBuffer)) {
+			return;
+		}
+
+		closed = true;
+
+		try {
+			// Java 9 and later
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+		} catch (NoSuchMethodException e) {
+			try {
+				// Java 8
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+
+				if (cleaner != null) {
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+			} catch (ReflectiveOperationException | RuntimeException ignored) {
+				// Left to the garbage collector
+			}
+		} catch (ReflectiveOperationException | RuntimeException ignored) {
+			// Left to the garbage collector
+		}
+	}
+
+	private List<Entry> readCentralDirectory() throws ZipException {
+		int end = -1;
+
+		for (int i = buffer.limit() - 22; i >= Math.max(0, buffer.limit() - 22 - 0xFFFF); i--) {
+			if (buffer.getInt(i) == END_HEADER) {
+				end = i;
+				break;
+			}
+		}
+
+		if (end < 0) {
+			throw new ZipException("Could not find the end of the central directory");
+		}
+
+		int count = Short.toUnsignedInt(buffer.getShort(end + 10));
+		long offset = Integer.toUnsignedLong(buffer.getInt(end + 16));
+
+		if (count == 0xFFFF || offset == 0xFFFFFFFFL) {
+			throw new ZipException("Zip64 archives are not supported");
+		}
+
+		List<Entry> entries = new ArrayList<>(count);
+		int position = (int) offset;
+
+		for (int i = 0; i < count; i++) {
+			if (buffer.getInt(position) != CENTRAL_HEADER) {
+				throw new ZipException("Invalid central directory header at " + position);
+			}
+
+			int nameLength = Short.toUnsignedInt(buffer.getShort(position + 28));
+			int extraLength = Short.toUnsignedInt(buffer.getShort(position + 30));
+			int commentLength = Short.toUnsignedInt(buffer.getShort(position + 32));
+			byte[] name = new byte[nameLength];
+			ByteBuffer nameBuffer = buffer.duplicate();
+			nameBuffer.position(position + 46);
+			nameBuffer.get(name);
+
+			entries.add(new Entry(
+					new String(name, StandardCharsets.UTF_8),
+					Short.toUnsignedInt(buffer.getShort(position + 10)),
+					buffer.getInt(position + 12),
+					buffer.getInt(position + 16),
+					Integer.toUnsignedLong(buffer.getInt(position + 20)),
+					Integer.toUnsignedLong(buffer.getInt(position + 24)),
+					Integer.toUnsignedLong(buffer.getInt(position + 42))
+			));
+
+			position += 46 + nameLength + extraLength + commentLength;
+		}
+
+		return entries;
+	}
+
+	/**
+	 * Gets the compressed data of an entry, as stored in the zip.
+	 */
+	public ByteBuffer getRawData(Entry entry) throws ZipException {
+		int local = (int) entry.localHeaderOffset;
+
+		if (buffer.getInt(local) != LOCAL_HEADER) {
+			throw new ZipException("Invalid local header for " + entry.name);
+		}
+
+		int start = local + 30 + Short.toUnsignedInt(buffer.getShort(local + 26)) + Short.toUnsignedInt(buffer.getShort(local + 28));
+		ByteBuffer data = buffer.duplicate();
+		data.position(start);
+		data.limit(start + (int) entry.compressedSize);
+		return data.slice();
+	}
+
+	/**
+	 * Gets the uncompressed data of an entry.
+	 */
+	public byte[] getData(Entry entry) throws ZipException {
+		ByteBuffer raw = getRawData(entry);
+
+		if (entry.method == ZipEntry.STORED) {
+			byte[] data = new byte[raw.remaining()];
+			raw.get(data);
+			return data;
+		} else if (entry.method != ZipEntry.DEFLATED) {
+			throw new ZipException("Unsupported compression method " + entry.method + " for " + entry.name);
+		}
+
+		byte[] compressed = new byte[raw.remaining()];
+		raw.get(compressed);
+		byte[] data = new byte[(int) entry.size];
+		Inflater inflater = new Inflater(true);
+
+		try {
+			inflater.setInput(compressed);
+			int read = 0;
+
+			while (read < data.length && !inflater.finished()) {
+				int n = inflater.inflate(data, read, data.length - read);
+
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+
+				read += n;
+			}
+
+			if (read != data.length) {
+				throw new ZipException("Truncated data for " + entry.name);
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException("Invalid compressed data for " + entry.name + ": " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+
+		return data;
+	}
+
+	public static final class Entry {
+		private final String name;
+		private final int method;
+		private final int dosTime;
+		private final int crc;
+		private final long compressedSize;
+		private final long size;
+		private final long localHeaderOffset;
+
+		private Entry(String name, int method, int dosTime, int crc, long compressedSize, long size, long localHeaderOffset) {
+			this.name = name;
+			this.method = method;
+			this.dosTime = dosTime;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.localHeaderOffset = localHeaderOffset;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public boolean isDirectory() {
+			return name.endsWith("/");
+		}
+
+		public int getMethod() {
+			return method;
+		}
+
+		/**
+		 * Gets the MS-DOS time of this entry, with the date in the upper 16 bits.
+		 */
+		public int getDosTime() {
+			return dosTime;
+		}
+
+		public int getCrc() {
+			return crc;
+		}
+
+		public long getSize() {
+			return size;
+		}
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes zip files, either from uncompressed data or from the raw entries of a {@link RawZipFile}.
+ * Zip64 archives are not supported.
+ */
+public final class RawZipWriter implements Closeable {
+	private final OutputStream out;
+	private final WritableByteChannel channel;
+	private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+	private final Set<String> names = new HashSet<>();
+	private final ByteBuffer header = ByteBuffer.allocate(46).order(ByteOrder.LITTLE_ENDIAN);
+	private long offset = 0;
+	private int count = 0;
+
+	public RawZipWriter(Path path) throws IOException {
+		this.out = new BufferedOutputStream(Files.newOutputStream(path));
+		this.channel = Channels.newChannel(out);
+	}
+
+	/**
+	 * Copies an entry of another zip without recompressing it.
+	 */
+	public void copy(RawZipFile zip, RawZipFile.Entry entry) throws IOException {
+		copy(entry.getName(), zip, entry);
+	}
+
+	/**
+	 * Copies an entry of another zip under a different name without recompressing it.
+	 */
+	public void copy(String name, RawZipFile zip, RawZipFile.Entry entry) throws IOException {
+		ByteBuffer data = zip.getRawData(entry);
+		writeEntry(name, entry.getMethod(), entry.getDosTime(), entry.getCrc(), data.remaining(), entry.getSize(), data);
+	}
+
+	public void write(String name, byte[] data, int dosTime) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+
+		if (data.length == 0 || name.endsWith("/")) {
+			writeEntry(name, ZipEntry.STORED, dosTime, (int) crc.getValue(), data.length, data.length, ByteBuffer.wrap(data));
+			return;
+		}
+
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 16);
+
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			byte[] buffer = new byte[8192];
+
+			while (!deflater.finished()) {
+				int n = deflater.deflate(buffer);
+				compressed.write(buffer, 0, n);
+			}
+		} finally {
+			deflater.end();
+		}
+
+		writeEntry(name, ZipEntry.DEFLATED, dosTime, (int) crc.getValue(), compressed.size(), data.length, ByteBuffer.wrap(compressed.toByteArray()));
+	}
+
+	private void writeEntry(String name, int method, int dosTime, int crc, long compressedSize, long size, ByteBuffer data) throws IOException {
+		if (!names.add(name)) {
+			throw new ZipException("Duplicate entry: " + name);
+		}
+
+		if (++count >= 0xFFFF || offset + compressedSize >= 0xFFFFFFFFL) {
+			throw new ZipException("Zip64 archives are not supported");
+		}
+
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		int flags = nameBytes.length != name.length() ? 0x800 : 0;
+
+		header.clear();
+		header.putInt(0x04034b50).putShort((short) 20).putShort((short) flags).putShort((short) method)
+				.putInt(dosTime).putInt(crc).putInt((int) compressedSize).putInt((int) size)
+				.putShort((short) nameBytes.length).putShort((short) 0);
+		out.write(header.array(), 0, header.position());
+		out.write(nameBytes);
+
+		while (data.hasRemaining()) {
+			channel.write(data);
+		}
+
+		header.clear();
+		header.putInt(0x02014b50).putShort((short) 20).putShort((short) 20).putShort((short) flags).putShort((short) method)
+				.putInt(dosTime).putInt(crc).putInt((int) compressedSize).putInt((int) size)
+				.putShort((short) nameBytes.length).putShort((short) 0).putShort((short) 0)
+				.putShort((short) 0).putShort((short) 0).putInt(0).putInt((int) offset);
+		centralDirectory.write(header.array(), 0, header.position());
+		centralDirectory.write(nameBytes);
+
+		offset += 30 + nameBytes.length + compressedSize;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			centralDirectory.writeTo(out);
+			header.clear();
+			header.putInt(0x06054b50).putShort((short) 0).putShort((short) 0).putShort((short) count).putShort((short) count)
+					.putInt(centralDirectory.size()).putInt((int) offset).putShort((short) 0);
+			out.write(header.array(), 0, header.position());
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Converts a Java timestamp to the MS-DOS format used by zip entries, with the date in the upper 16 bits.
+	 */
+	public static int toDosTime(long time) {
+		LocalDateTime date = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+
+		if (date.getYear() < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+
+		return (date.getYear() - 1980) << 25 | date.getMonthValue() << 21 | date.getDayOfMonth() << 16
+				| date.getHour() << 11 | date.getMinute() << 5 | date.getSecond() >> 1;
+	}
+}
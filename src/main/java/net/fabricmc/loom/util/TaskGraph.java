@@ -0,0 +1,163 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import org.gradle.api.logging.Logger;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A graph of setup tasks, where every task runs as soon as all the tasks it depends on are done.
+ *
+ * <p>Once the graph has run, the chain of tasks that determined its total duration is logged,
+ * so it is clear which steps are worth making faster.
+ */
+public final class TaskGraph {
+	private final List<Task> tasks = new ArrayList<>();
+
+	/**
+	 * Adds a task to the graph.
+	 *
+	 * @param name         the name of the task shown in the summary
+	 * @param action       the work of the task
+	 * @param dependencies the tasks that have to be done first, null entries are ignored so skipped tasks can be passed
+	 * @return the added task
+	 */
+	public Task add(String name, ThreadingUtils.UnsafeRunnable action, @Nullable Task... dependencies) {
+		List<Task> taskDependencies = Arrays.stream(dependencies).filter(Objects::nonNull).collect(Collectors.toList());
+		Task task = new Task(name, action, taskDependencies);
+		tasks.add(task);
+		return task;
+	}
+
+	public boolean isEmpty() {
+		return tasks.isEmpty();
+	}
+
+	/**
+	 * Runs all tasks and waits for them to finish, then logs the critical path.
+	 * If a task fails the tasks depending on it are not run, and the first failure is rethrown.
+	 */
+	public void run(Logger logger) {
+		if (tasks.isEmpty()) {
+			return;
+		}
+
+		ExecutorService service = Executors.newFixedThreadPool(Math.min(tasks.size(), Runtime.getRuntime().availableProcessors()));
+		Map<Task, CompletableFuture<Void>> futures = new HashMap<>();
+		long start = System.nanoTime();
+
+		try {
+			// Tasks can only depend on tasks added before them, so the futures of the dependencies always exist.
+			for (Task task : tasks) {
+				CompletableFuture<?>[] dependencies = task.dependencies.stream().map(futures::get).toArray(CompletableFuture[]::new);
+				futures.put(task, CompletableFuture.allOf(dependencies).thenRunAsync(() -> task.run(start), service));
+			}
+
+			CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0])).join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+		} finally {
+			service.shutdownNow();
+		}
+
+		logger.lifecycle(":critical path " + format(System.nanoTime() - start) + ": " + getCriticalPath().stream()
+				.map(task -> task.name + " (" + format(task.end - task.start) + ")")
+				.collect(Collectors.joining(" -> ")));
+	}
+
+	/**
+	 * Gets the chain of tasks ending with the task that finished last, following the dependency that finished last each time.
+	 */
+	private List<Task> getCriticalPath() {
+		List<Task> path = new ArrayList<>();
+		Task task = last(tasks);
+
+		while (task != null) {
+			path.add(task);
+			task = last(task.dependencies);
+		}
+
+		Collections.reverse(path);
+		return path;
+	}
+
+	@Nullable
+	private static Task last(List<Task> tasks) {
+		Task last = null;
+
+		for (Task task : tasks) {
+			if (last == null || task.end > last.end) {
+				last = task;
+			}
+		}
+
+		return last;
+	}
+
+	private static String format(long nanos) {
+		return String.format(Locale.ROOT, "%.1fs", nanos / 1.0E9);
+	}
+
+	public static final class Task {
+		private final String name;
+		private final ThreadingUtils.UnsafeRunnable action;
+		private final List<Task> dependencies;
+		private long start;
+		private long end;
+
+		private Task(String name, ThreadingUtils.UnsafeRunnable action, List<Task> dependencies) {
+			this.name = name;
+			this.action = action;
+			this.dependencies = dependencies;
+		}
+
+		private void run(long graphStart) {
+			start = System.nanoTime() - graphStart;
+
+			try {
+				action.run();
+			} catch (Throwable t) {
+				throw new RuntimeException("Failed to run setup task '" + name + "'", t);
+			} finally {
+				end = System.nanoTime() - graphStart;
+			}
+		}
+	}
+}
@@ -24,6 +24,12 @@
 
 package net.fabricmc.loom.util;
 
+import java.lang.ref.SoftReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
 import net.fabricmc.mapping.tree.ClassDef;
 import net.fabricmc.mapping.tree.FieldDef;
 import net.fabricmc.mapping.tree.LocalVariableDef;
@@ -33,39 +39,149 @@ import net.fabricmc.mapping.tree.TinyTree;
 import net.fabricmc.tinyremapper.IMappingProvider;
 
 public class TinyRemapperMappingsHelper {
+	// The trees come from MappingsCache, which shares one tree per mappings content across the daemon
+	private static final Map<TinyTree, Map<String, SoftReference<MappingTable>>> TABLES = Collections.synchronizedMap(new WeakHashMap<>());
+
 	private TinyRemapperMappingsHelper() { }
 
-	private static IMappingProvider.Member memberOf(String className, String memberName, String descriptor) {
-		return new IMappingProvider.Member(className, memberName, descriptor);
+	/**
+	 * Creates a mapping provider between two namespaces of a tree.
+	 *
+	 * <p>The mappings are flattened into a table the first time the provider is loaded. The table is cached
+	 * per tree and namespace pair, so later providers for the same mappings replay it without walking the tree.
+	 */
+	public static IMappingProvider create(TinyTree mappings, String from, String to, boolean remapLocalVariables) {
+		return acceptor -> getTable(mappings, from, to, remapLocalVariables).load(acceptor);
 	}
 
-	public static IMappingProvider create(TinyTree mappings, String from, String to, boolean remapLocalVariables) {
-		return (acceptor) -> {
+	private static MappingTable getTable(TinyTree mappings, String from, String to, boolean remapLocalVariables) {
+		String key = from + "\t" + to + "\t" + remapLocalVariables;
+		Map<String, SoftReference<MappingTable>> tables = TABLES.computeIfAbsent(mappings, tree -> new HashMap<>());
+		SoftReference<MappingTable> ref;
+
+		synchronized (tables) {
+			ref = tables.get(key);
+		}
+
+		MappingTable table = ref != null ? ref.get() : null;
+
+		if (table == null) {
+			table = new MappingTable(mappings, from, to, remapLocalVariables);
+
+			synchronized (tables) {
+				tables.put(key, new SoftReference<>(table));
+			}
+		}
+
+		return table;
+	}
+
+	/**
+	 * The mappings between two namespaces, flattened into arrays.
+	 * Members are created once and shared by every load.
+	 */
+	private static final class MappingTable implements IMappingProvider {
+		private final String[] classes;
+		private final IMappingProvider.Member[] fields;
+		private final String[] fieldNames;
+		private final IMappingProvider.Member[] methods;
+		private final String[] methodNames;
+		// Parameters and locals point to their method by index
+		private final int[] args;
+		private final String[] argNames;
+		private final int[] vars;
+		private final String[] varNames;
+
+		MappingTable(TinyTree mappings, String from, String to, boolean remapLocalVariables) {
+			int fieldCount = 0;
+			int methodCount = 0;
+			int argCount = 0;
+			int varCount = 0;
+
+			for (ClassDef classDef : mappings.getClasses()) {
+				fieldCount += classDef.getFields().size();
+				methodCount += classDef.getMethods().size();
+
+				if (remapLocalVariables) {
+					for (MethodDef method : classDef.getMethods()) {
+						argCount += method.getParameters().size();
+						varCount += method.getLocalVariables().size();
+					}
+				}
+			}
+
+			classes = new String[mappings.getClasses().size() * 2];
+			fields = new IMappingProvider.Member[fieldCount];
+			fieldNames = new String[fieldCount];
+			methods = new IMappingProvider.Member[methodCount];
+			methodNames = new String[methodCount];
+			args = new int[argCount * 2];
+			argNames = new String[argCount];
+			vars = new int[varCount * 4];
+			varNames = new String[varCount];
+
+			int c = 0;
+			int f = 0;
+			int m = 0;
+			int a = 0;
+			int v = 0;
+
 			for (ClassDef classDef : mappings.getClasses()) {
 				String className = classDef.getName(from);
-				acceptor.acceptClass(className, classDef.getName(to));
+				classes[c++] = className;
+				classes[c++] = classDef.getName(to);
 
 				for (FieldDef field : classDef.getFields()) {
-					acceptor.acceptField(memberOf(className, field.getName(from), field.getDescriptor(from)), field.getName(to));
+					fields[f] = new IMappingProvider.Member(className, field.getName(from), field.getDescriptor(from));
+					fieldNames[f++] = field.getName(to);
 				}
 
 				for (MethodDef method : classDef.getMethods()) {
-					IMappingProvider.Member methodIdentifier = memberOf(className, method.getName(from), method.getDescriptor(from));
-					acceptor.acceptMethod(methodIdentifier, method.getName(to));
+					methods[m] = new IMappingProvider.Member(className, method.getName(from), method.getDescriptor(from));
+					methodNames[m] = method.getName(to);
 
 					if (remapLocalVariables) {
 						for (ParameterDef parameter : method.getParameters()) {
-							acceptor.acceptMethodArg(methodIdentifier, parameter.getLocalVariableIndex(), parameter.getName(to));
+							args[a * 2] = m;
+							args[a * 2 + 1] = parameter.getLocalVariableIndex();
+							argNames[a++] = parameter.getName(to);
 						}
 
 						for (LocalVariableDef localVariable : method.getLocalVariables()) {
-							acceptor.acceptMethodVar(methodIdentifier, localVariable.getLocalVariableIndex(),
-											localVariable.getLocalVariableStartOffset(), localVariable.getLocalVariableTableIndex(),
-											localVariable.getName(to));
+							vars[v * 4] = m;
+							vars[v * 4 + 1] = localVariable.getLocalVariableIndex();
+							vars[v * 4 + 2] = localVariable.getLocalVariableStartOffset();
+							vars[v * 4 + 3] = localVariable.getLocalVariableTableIndex();
+							varNames[v++] = localVariable.getName(to);
 						}
 					}
+
+					m++;
 				}
 			}
-		};
+		}
+
+		@Override
+		public void load(MappingAcceptor acceptor) {
+			for (int i = 0; i < classes.length; i += 2) {
+				acceptor.acceptClass(classes[i], classes[i + 1]);
+			}
+
+			for (int i = 0; i < fields.length; i++) {
+				acceptor.acceptField(fields[i], fieldNames[i]);
+			}
+
+			for (int i = 0; i < methods.length; i++) {
+				acceptor.acceptMethod(methods[i], methodNames[i]);
+			}
+
+			for (int i = 0; i < argNames.length; i++) {
+				acceptor.acceptMethodArg(methods[args[i * 2]], args[i * 2 + 1], argNames[i]);
+			}
+
+			for (int i = 0; i < varNames.length; i++) {
+				acceptor.acceptMethodVar(methods[vars[i * 4]], vars[i * 4 + 1], vars[i * 4 + 2], vars[i * 4 + 3], varNames[i]);
+			}
+		}
 	}
 }
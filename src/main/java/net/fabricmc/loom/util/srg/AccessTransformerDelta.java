@@ -0,0 +1,335 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.srg;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.Remapper;
+
+import net.fabricmc.loom.configuration.providers.mappings.MappingIndex;
+import net.fabricmc.loom.util.Constants;
+import net.fabricmc.loom.util.JarTransformer;
+import net.fabricmc.loom.util.RawZipFile;
+import net.fabricmc.mapping.tree.FieldDef;
+import net.fabricmc.mapping.tree.MethodDef;
+import net.fabricmc.mapping.tree.TinyTree;
+
+/**
+ * The access changes that an access transformer makes on top of an already transformed jar, recorded per class.
+ *
+ * <p>Access transformers change access flags, and turn the {@code invokespecial} calls to the private methods they open
+ * into virtual calls (see {@link ForgeAccessTransformer}). Both are recorded, so the changes can be replayed onto the same
+ * classes in any other namespace without running the access transformer over the whole jar again.
+ */
+public final class AccessTransformerDelta {
+	private static final int VISIBILITY = Opcodes.ACC_PUBLIC | Opcodes.ACC_PROTECTED | Opcodes.ACC_PRIVATE;
+
+	private final Map<String, ClassDelta> classes;
+
+	private AccessTransformerDelta(Map<String, ClassDelta> classes) {
+		this.classes = classes;
+	}
+
+	/**
+	 * Computes the access changes between the classes of two jars.
+	 *
+	 * @param base        the jar without the changes
+	 * @param transformed a jar containing the transformed versions of some classes of {@code base}
+	 * @return the changes, in the namespace of the jars
+	 */
+	public static AccessTransformerDelta compute(Path base, Path transformed) throws IOException {
+		Map<String, ClassDelta> classes = new HashMap<>();
+
+		try (ZipFile baseZip = new ZipFile(base.toFile()); ZipFile transformedZip = new ZipFile(transformed.toFile())) {
+			Enumeration<? extends ZipEntry> entries = transformedZip.entries();
+
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				ZipEntry baseEntry = baseZip.getEntry(entry.getName());
+
+				if (!entry.getName().endsWith(".class") || baseEntry == null) {
+					continue;
+				}
+
+				ClassAccess before = ClassAccess.read(IOUtils.toByteArray(baseZip.getInputStream(baseEntry)));
+				ClassAccess after = ClassAccess.read(IOUtils.toByteArray(transformedZip.getInputStream(entry)));
+				ClassDelta delta = ClassDelta.between(before, after);
+
+				if (!delta.isEmpty()) {
+					classes.put(before.name, delta);
+				}
+			}
+		}
+
+		return new AccessTransformerDelta(classes);
+	}
+
+	/**
+	 * Adds the changes of another delta for the classes that this delta does not change yet.
+	 */
+	public void merge(AccessTransformerDelta other) {
+		other.classes.forEach(classes::putIfAbsent);
+	}
+
+	public Collection<String> getClasses() {
+		return classes.keySet();
+	}
+
+	/**
+	 * Applies the changes to a jar in place, only rewriting the changed classes.
+	 *
+	 * @param jar       the jar to change
+	 * @param mappings  the mappings with the {@code srg} namespace the changes were computed in
+	 * @param namespace the namespace of the jar
+	 */
+	public void apply(Path jar, TinyTree mappings, String namespace) throws IOException {
+		MappingIndex index = MappingIndex.of(mappings);
+
+		Remapper remapper = new Remapper() {
+			@Override
+			public String map(String internalName) {
+				return index.mapClass("srg", namespace, internalName);
+			}
+		};
+
+		Map<String, ClassDelta> remapped = new HashMap<>();
+
+		classes.forEach((name, delta) -> {
+			remapped.put(remapper.map(name) + ".class", delta.remap(name, index, remapper, namespace));
+		});
+
+		// The jar is rewritten in place, so it is read onto the heap instead of being mapped
+		RawZipFile zip = RawZipFile.of(Files.readAllBytes(jar));
+		new JarTransformer()
+				.add(zip, name -> true, true, null)
+				.add(zip, remapped::containsKey, true, (name, data) -> remapped.get(name).apply(data))
+				.write(jar);
+	}
+
+	private static int apply(int access, Integer changed) {
+		if (changed == null) {
+			return access;
+		}
+
+		// Keep the visibility when it is already wider, e.g. from the remapper fixing package access.
+		int visibility = visibilityRank(access) > visibilityRank(changed) ? access & VISIBILITY : changed & VISIBILITY;
+		return (access & ~(VISIBILITY | Opcodes.ACC_FINAL)) | visibility | (changed & Opcodes.ACC_FINAL);
+	}
+
+	private static int visibilityRank(int access) {
+		if ((access & Opcodes.ACC_PUBLIC) != 0) {
+			return 3;
+		} else if ((access & Opcodes.ACC_PROTECTED) != 0) {
+			return 2;
+		} else if ((access & Opcodes.ACC_PRIVATE) != 0) {
+			return 0;
+		}
+
+		return 1;
+	}
+
+	private static final class ClassAccess extends ClassVisitor {
+		private String name;
+		private int access;
+		private final Map<String, Integer> innerClasses = new HashMap<>();
+		private final Map<String, Integer> fields = new HashMap<>();
+		private final Map<String, Integer> methods = new HashMap<>();
+
+		private ClassAccess() {
+			super(Constants.ASM_VERSION);
+		}
+
+		private static ClassAccess read(byte[] bytes) {
+			ClassAccess access = new ClassAccess();
+			new ClassReader(bytes).accept(access, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+			return access;
+		}
+
+		@Override
+		public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+			this.name = name;
+			this.access = access;
+		}
+
+		@Override
+		public void visitInnerClass(String name, String outerName, String innerName, int access) {
+			innerClasses.put(name, access);
+		}
+
+		@Override
+		public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+			fields.put(name + ":" + descriptor, access);
+			return null;
+		}
+
+		@Override
+		public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+			methods.put(name + descriptor, access);
+			return null;
+		}
+	}
+
+	private static final class ClassDelta {
+		private Integer access;
+		private final Map<String, Integer> innerClasses = new HashMap<>();
+		private final Map<String, Integer> fields = new HashMap<>();
+		private final Map<String, Integer> methods = new HashMap<>();
+		private final Set<String> openedMethods = new HashSet<>();
+
+		private static ClassDelta between(ClassAccess before, ClassAccess after) {
+			ClassDelta delta = new ClassDelta();
+
+			if (before.access != after.access) {
+				delta.access = after.access;
+			}
+
+			diff(before.innerClasses, after.innerClasses, delta.innerClasses);
+			diff(before.fields, after.fields, delta.fields);
+			diff(before.methods, after.methods, delta.methods);
+
+			delta.methods.forEach((key, access) -> {
+				boolean wasPrivate = (before.methods.get(key) & Opcodes.ACC_PRIVATE) != 0;
+
+				if (wasPrivate && (access & Opcodes.ACC_PRIVATE) == 0 && !key.startsWith("<init>(")) {
+					delta.openedMethods.add(key);
+				}
+			});
+
+			return delta;
+		}
+
+		private static void diff(Map<String, Integer> before, Map<String, Integer> after, Map<String, Integer> changes) {
+			after.forEach((key, access) -> {
+				Integer previous = before.get(key);
+
+				if (previous != null && !previous.equals(access)) {
+					changes.put(key, access);
+				}
+			});
+		}
+
+		private boolean isEmpty() {
+			return access == null && innerClasses.isEmpty() && fields.isEmpty() && methods.isEmpty();
+		}
+
+		private ClassDelta remap(String owner, MappingIndex index, Remapper remapper, String namespace) {
+			ClassDelta remapped = new ClassDelta();
+			remapped.access = access;
+			innerClasses.forEach((name, access) -> remapped.innerClasses.put(remapper.map(name), access));
+
+			fields.forEach((key, access) -> {
+				int split = key.indexOf(':');
+				String name = key.substring(0, split);
+				String descriptor = key.substring(split + 1);
+				FieldDef field = index.getField("srg", owner, name, descriptor);
+				String mappedName = field != null ? field.getName(namespace) : name;
+				remapped.fields.put(mappedName + ":" + remapper.mapDesc(descriptor), access);
+			});
+
+			methods.forEach((key, access) -> {
+				int split = key.indexOf('(');
+				String name = key.substring(0, split);
+				String descriptor = key.substring(split);
+				MethodDef method = index.getMethod("srg", owner, name, descriptor);
+				String mappedName = method != null ? method.getName(namespace) : name;
+				String mappedKey = mappedName + remapper.mapMethodDesc(descriptor);
+				remapped.methods.put(mappedKey, access);
+
+				if (openedMethods.contains(key)) {
+					remapped.openedMethods.add(mappedKey);
+				}
+			});
+
+			return remapped;
+		}
+
+		private byte[] apply(byte[] bytes) {
+			ClassReader reader = new ClassReader(bytes);
+			ClassWriter writer = new ClassWriter(reader, 0);
+
+			reader.accept(new ClassVisitor(Constants.ASM_VERSION, writer) {
+				private String owner;
+				private boolean isInterface;
+
+				@Override
+				public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+					owner = name;
+					isInterface = (access & Opcodes.ACC_INTERFACE) != 0;
+					super.visit(version, AccessTransformerDelta.apply(access, ClassDelta.this.access), name, signature, superName, interfaces);
+				}
+
+				@Override
+				public void visitInnerClass(String name, String outerName, String innerName, int access) {
+					super.visitInnerClass(name, outerName, innerName, AccessTransformerDelta.apply(access, innerClasses.get(name)));
+				}
+
+				@Override
+				public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+					return super.visitField(AccessTransformerDelta.apply(access, fields.get(name + ":" + descriptor)), name, descriptor, signature, value);
+				}
+
+				@Override
+				public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+					MethodVisitor visitor = super.visitMethod(AccessTransformerDelta.apply(access, methods.get(name + descriptor)), name, descriptor, signature, exceptions);
+
+					if (openedMethods.isEmpty()) {
+						return visitor;
+					}
+
+					// The same call fix as ForgeAccessTransformer, so overrides of the opened methods are respected
+					return new MethodVisitor(Constants.ASM_VERSION, visitor) {
+						@Override
+						public void visitMethodInsn(int opcode, String callOwner, String callName, String callDescriptor, boolean callIsInterface) {
+							if (opcode == Opcodes.INVOKESPECIAL && callOwner.equals(owner) && openedMethods.contains(callName + callDescriptor)) {
+								opcode = isInterface ? Opcodes.INVOKEINTERFACE : Opcodes.INVOKEVIRTUAL;
+							}
+
+							super.visitMethodInsn(opcode, callOwner, callName, callDescriptor, callIsInterface);
+						}
+					};
+				}
+			}, 0);
+
+			return writer.toByteArray();
+		}
+	}
+}
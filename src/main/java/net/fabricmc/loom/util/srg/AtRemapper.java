@@ -38,7 +38,7 @@ import org.zeroturnaround.zip.ZipUtil;
 import org.zeroturnaround.zip.transform.StringZipEntryTransformer;
 import org.zeroturnaround.zip.transform.ZipEntryTransformerEntry;
 
-import net.fabricmc.loom.util.function.CollectionUtil;
+import net.fabricmc.loom.configuration.providers.mappings.MappingIndex;
 import net.fabricmc.mapping.tree.TinyTree;
 
 /**
@@ -48,53 +48,54 @@ import net.fabricmc.mapping.tree.TinyTree;
  */
 public final class AtRemapper {
 	public static void remap(Logger logger, Path jar, TinyTree mappings) throws IOException {
+		MappingIndex index = MappingIndex.of(mappings);
+
 		ZipUtil.transformEntries(jar.toFile(), new ZipEntryTransformerEntry[] {(new ZipEntryTransformerEntry("META-INF/accesstransformer.cfg", new StringZipEntryTransformer() {
 			@Override
 			protected String transform(ZipEntry zipEntry, String input) {
-				String[] lines = input.split("\n");
-				List<String> output = new ArrayList<>(lines.length);
-
-				for (int i = 0; i < lines.length; i++) {
-					String line = lines[i].trim();
-
-					if (line.startsWith("#") || Strings.isBlank(line)) {
-						output.add(i, line);
-						continue;
-					}
-
-					String[] parts = line.split("\\s+");
-
-					if (parts.length < 2) {
-						logger.warn("Invalid AT Line: " + line);
-						output.add(i, line);
-						continue;
-					}
-
-					String name = parts[1].replace('.', '/');
-					parts[1] = CollectionUtil.find(
-							mappings.getClasses(),
-							def -> def.getName("srg").equals(name)
-					).map(def -> def.getName("named")).orElse(name).replace('/', '.');
-
-					if (parts.length >= 3) {
-						if (parts[2].contains("(")) {
-							parts[2] = parts[2].substring(0, parts[2].indexOf('(')) + remapDescriptor(parts[2].substring(parts[2].indexOf('(')), s -> {
-								return CollectionUtil.find(
-										mappings.getClasses(),
-										def -> def.getName("srg").equals(s)
-								).map(def -> def.getName("named")).orElse(s);
-							});
-						}
-					}
-
-					output.add(i, String.join(" ", parts));
-				}
-
-				return String.join("\n", output);
+				return remap(logger, input, index);
 			}
 		}))});
 	}
 
+	/**
+	 * Remaps the class names of an access transformer file.
+	 */
+	public static String remap(Logger logger, String input, MappingIndex index) {
+		String[] lines = input.split("\n");
+		List<String> output = new ArrayList<>(lines.length);
+
+		for (int i = 0; i < lines.length; i++) {
+			String line = lines[i].trim();
+
+			if (line.startsWith("#") || Strings.isBlank(line)) {
+				output.add(i, line);
+				continue;
+			}
+
+			String[] parts = line.split("\\s+");
+
+			if (parts.length < 2) {
+				logger.warn("Invalid AT Line: " + line);
+				output.add(i, line);
+				continue;
+			}
+
+			String name = parts[1].replace('.', '/');
+			parts[1] = index.mapClass("srg", "named", name).replace('/', '.');
+
+			if (parts.length >= 3) {
+				if (parts[2].contains("(")) {
+					parts[2] = parts[2].substring(0, parts[2].indexOf('(')) + remapDescriptor(parts[2].substring(parts[2].indexOf('(')), s -> index.mapClass("srg", "named", s));
+				}
+			}
+
+			output.add(i, String.join(" ", parts));
+		}
+
+		return String.join("\n", output);
+	}
+
 	private static String remapDescriptor(String original, UnaryOperator<String> classMappings) {
 		try {
 			StringReader reader = new StringReader(original);
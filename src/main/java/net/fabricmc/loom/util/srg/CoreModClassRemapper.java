@@ -24,21 +24,22 @@
 
 package net.fabricmc.loom.util.srg;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
-import java.io.Writer;
+import java.io.StringReader;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.gson.Gson;
@@ -46,8 +47,9 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import org.apache.logging.log4j.util.Strings;
 import org.gradle.api.logging.Logger;
+import org.jetbrains.annotations.Nullable;
 
-import net.fabricmc.loom.util.function.CollectionUtil;
+import net.fabricmc.loom.configuration.providers.mappings.MappingIndex;
 import net.fabricmc.mapping.tree.TinyTree;
 
 /**
@@ -88,7 +90,27 @@ public final class CoreModClassRemapper {
 	}
 
 	public static void remap(Path js, TinyTree mappings) throws IOException {
-		List<String> lines = Files.readAllLines(js);
+		String input = new String(Files.readAllBytes(js), StandardCharsets.UTF_8);
+		String output = remap(input, MappingIndex.of(mappings));
+
+		if (output != null) {
+			Files.write(js, output.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * Remaps the class names of a coremod script.
+	 *
+	 * @return the remapped script, or null if nothing changed
+	 */
+	@Nullable
+	public static String remap(String js, MappingIndex index) throws IOException {
+		List<String> lines;
+
+		try (BufferedReader reader = new BufferedReader(new StringReader(js))) {
+			lines = reader.lines().collect(Collectors.toList());
+		}
+
 		List<String> output = new ArrayList<>(lines);
 
 		for (int i = 0; i < lines.size(); i++) {
@@ -97,9 +119,7 @@ public final class CoreModClassRemapper {
 
 			if (matcher.matches()) {
 				String className = matcher.group(2).replace('.', '/');
-				String remapped = CollectionUtil.find(mappings.getClasses(), def -> def.getName("srg").equals(className))
-						.map(def -> def.getName("named"))
-						.orElse(className);
+				String remapped = index.mapClass("srg", "named", className);
 
 				if (!className.equals(remapped)) {
 					output.set(i, matcher.group(1) + remapped.replace('/', '.') + matcher.group(3));
@@ -107,10 +127,6 @@ public final class CoreModClassRemapper {
 			}
 		}
 
-		if (!lines.equals(output)) {
-			try (Writer writer = Files.newBufferedWriter(js, StandardCharsets.UTF_8, StandardOpenOption.WRITE)) {
-				writer.write(String.join(Strings.LINE_SEPARATOR, output));
-			}
-		}
+		return lines.equals(output) ? null : String.join(Strings.LINE_SEPARATOR, output);
 	}
 }
@@ -0,0 +1,306 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.srg;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InnerClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import net.fabricmc.loom.util.JarTransformer;
+import net.fabricmc.loom.util.RawZipFile;
+
+/**
+ * Applies Forge access transformer files to classes.
+ *
+ * <p>Unlike Forge's own access transformer engine this keeps no global state, so several instances can be used at once.
+ * Access transformers only ever widen the visibility of a target, and can optionally add or remove its final flag.
+ * This transformer is thread safe.
+ */
+public final class ForgeAccessTransformer implements JarTransformer.EntryTransformer {
+	private static final int VISIBILITY = Opcodes.ACC_PUBLIC | Opcodes.ACC_PROTECTED | Opcodes.ACC_PRIVATE;
+	private static final String ALL_FIELDS = "*";
+	private static final String ALL_METHODS = "*()";
+
+	private final Map<String, ClassRules> classes = new HashMap<>();
+	private final Set<String> classFiles = new HashSet<>();
+
+	private ForgeAccessTransformer() {
+	}
+
+	/**
+	 * Parses access transformer files.
+	 *
+	 * @param files the contents of the files
+	 * @return the access transformer applying all of them
+	 */
+	public static ForgeAccessTransformer parse(String... files) {
+		ForgeAccessTransformer transformer = new ForgeAccessTransformer();
+
+		for (String file : files) {
+			for (String line : file.split("\\r?\\n")) {
+				int comment = line.indexOf('#');
+				String[] parts = (comment >= 0 ? line.substring(0, comment) : line).trim().split("\\s+");
+
+				if (parts.length < 2) {
+					continue;
+				}
+
+				Modifier modifier = Modifier.parse(parts[0]);
+				String owner = parts[1].replace('.', '/');
+				ClassRules rules = transformer.classes.computeIfAbsent(owner, name -> new ClassRules());
+
+				if (parts.length == 2) {
+					rules.self = Modifier.merge(rules.self, modifier);
+				} else if (parts[2].indexOf('(') >= 0) {
+					rules.methods.merge(parts[2].equals(ALL_METHODS) ? ALL_METHODS : parts[2], modifier, Modifier::merge);
+				} else {
+					rules.fields.merge(parts[2], modifier, Modifier::merge);
+				}
+
+				// Nested classes are also listed in the InnerClasses attribute of their outer classes.
+				for (int i = owner.indexOf('$'); i >= 0; i = owner.indexOf('$', i + 1)) {
+					transformer.classFiles.add(owner.substring(0, i) + ".class");
+				}
+
+				transformer.classFiles.add(owner + ".class");
+			}
+		}
+
+		return transformer;
+	}
+
+	/**
+	 * Checks whether a jar entry may be changed by this access transformer.
+	 */
+	public boolean isTarget(String name) {
+		return classFiles.contains(name);
+	}
+
+	/**
+	 * Applies this access transformer to a jar, copying the entries it does not change raw.
+	 *
+	 * @param input  the input jar
+	 * @param output the output jar
+	 * @param pool   the pool to transform the classes on, or null to transform them on this thread
+	 */
+	public void apply(Path input, Path output, @Nullable ForkJoinPool pool) throws IOException {
+		RawZipFile zip = RawZipFile.open(input);
+		new JarTransformer()
+				.add(zip, name -> true, true, null)
+				.add(zip, this::isTarget, true, this)
+				.write(output, pool);
+	}
+
+	@Override
+	public byte[] transform(String name, byte[] bytes) {
+		if (!isTarget(name)) {
+			return bytes;
+		}
+
+		ClassNode node = new ClassNode();
+		new ClassReader(bytes).accept(node, 0);
+		ClassRules rules = classes.get(node.name);
+		boolean changed = false;
+
+		for (InnerClassNode innerClass : node.innerClasses) {
+			ClassRules innerRules = classes.get(innerClass.name);
+
+			if (innerRules != null && innerRules.self != null) {
+				int access = innerRules.self.apply(innerClass.access);
+				changed |= access != innerClass.access;
+				innerClass.access = access;
+			}
+		}
+
+		if (rules != null) {
+			if (rules.self != null) {
+				int access = rules.self.apply(node.access);
+				changed |= access != node.access;
+				node.access = access;
+			}
+
+			for (FieldNode field : node.fields) {
+				Modifier modifier = Modifier.merge(rules.fields.get(field.name), rules.fields.get(ALL_FIELDS));
+
+				if (modifier != null) {
+					int access = modifier.apply(field.access);
+					changed |= access != field.access;
+					field.access = access;
+				}
+			}
+
+			Set<String> openedMethods = new HashSet<>();
+
+			for (MethodNode method : node.methods) {
+				Modifier modifier = Modifier.merge(rules.methods.get(method.name + method.desc), rules.methods.get(ALL_METHODS));
+
+				if (modifier != null && !method.name.equals("<clinit>")) {
+					int access = modifier.apply(method.access);
+
+					if ((method.access & Opcodes.ACC_PRIVATE) != 0 && (access & Opcodes.ACC_PRIVATE) == 0 && !method.name.equals("<init>")) {
+						openedMethods.add(method.name + method.desc);
+					}
+
+					changed |= access != method.access;
+					method.access = access;
+				}
+			}
+
+			if (!openedMethods.isEmpty()) {
+				fixPrivateCalls(node, openedMethods);
+			}
+		}
+
+		if (!changed) {
+			return bytes;
+		}
+
+		ClassWriter writer = new ClassWriter(0);
+		node.accept(writer);
+		return writer.toByteArray();
+	}
+
+	/**
+	 * Turns the {@code invokespecial} calls to methods that are no longer private into virtual calls, so overrides are respected.
+	 */
+	private static void fixPrivateCalls(ClassNode node, Set<String> openedMethods) {
+		boolean isInterface = (node.access & Opcodes.ACC_INTERFACE) != 0;
+
+		for (MethodNode method : node.methods) {
+			for (AbstractInsnNode insn : method.instructions) {
+				if (insn.getOpcode() != Opcodes.INVOKESPECIAL) {
+					continue;
+				}
+
+				MethodInsnNode call = (MethodInsnNode) insn;
+
+				if (call.owner.equals(node.name) && openedMethods.contains(call.name + call.desc)) {
+					call.setOpcode(isInterface ? Opcodes.INVOKEINTERFACE : Opcodes.INVOKEVIRTUAL);
+				}
+			}
+		}
+	}
+
+	private static final class ClassRules {
+		private Modifier self;
+		private final Map<String, Modifier> fields = new HashMap<>();
+		private final Map<String, Modifier> methods = new HashMap<>();
+	}
+
+	private static final class Modifier {
+		private final int visibility;
+		private final boolean addFinal;
+		private final boolean removeFinal;
+
+		private Modifier(int visibility, boolean addFinal, boolean removeFinal) {
+			this.visibility = visibility;
+			this.addFinal = addFinal;
+			this.removeFinal = removeFinal;
+		}
+
+		private static Modifier parse(String modifier) {
+			String name = modifier.endsWith("-f") || modifier.endsWith("+f") ? modifier.substring(0, modifier.length() - 2) : modifier;
+			int visibility;
+
+			switch (name) {
+			case "public":
+				visibility = Opcodes.ACC_PUBLIC;
+				break;
+			case "protected":
+				visibility = Opcodes.ACC_PROTECTED;
+				break;
+			case "default":
+				visibility = 0;
+				break;
+			case "private":
+				visibility = Opcodes.ACC_PRIVATE;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown access transformer modifier: " + modifier);
+			}
+
+			return new Modifier(visibility, modifier.endsWith("+f"), modifier.endsWith("-f"));
+		}
+
+		/**
+		 * Merges two modifiers of the same target into the most permissive one.
+		 */
+		@Nullable
+		private static Modifier merge(@Nullable Modifier a, @Nullable Modifier b) {
+			if (a == null) {
+				return b;
+			}
+
+			if (b == null) {
+				return a;
+			}
+
+			int visibility = rank(a.visibility) >= rank(b.visibility) ? a.visibility : b.visibility;
+			boolean removeFinal = a.removeFinal || b.removeFinal;
+			return new Modifier(visibility, !removeFinal && (a.addFinal || b.addFinal), removeFinal);
+		}
+
+		private int apply(int access) {
+			int current = access & VISIBILITY;
+			int result = (access & ~VISIBILITY) | (rank(visibility) > rank(current) ? visibility : current);
+
+			if (removeFinal) {
+				result &= ~Opcodes.ACC_FINAL;
+			} else if (addFinal) {
+				result |= Opcodes.ACC_FINAL;
+			}
+
+			return result;
+		}
+
+		private static int rank(int visibility) {
+			switch (visibility) {
+			case Opcodes.ACC_PUBLIC:
+				return 3;
+			case Opcodes.ACC_PROTECTED:
+				return 2;
+			case Opcodes.ACC_PRIVATE:
+				return 0;
+			default:
+				return 1;
+			}
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.srg;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.gradle.api.logging.Logger;
+
+import net.fabricmc.loom.configuration.providers.mappings.MappingIndex;
+import net.fabricmc.loom.util.JarTransformer;
+import net.fabricmc.loom.util.RawZipFile;
+import net.fabricmc.mapping.tree.TinyTree;
+
+/**
+ * Finalises the remapped Forge Minecraft jars while they are written, instead of rewriting them once per step.
+ *
+ * <p>The directory entries of the Forge manifest are merged into the Minecraft manifest, and the class names in the access
+ * transformer and in the coremods are remapped from srg to named, like {@link AtRemapper} and {@link CoreModClassRemapper} do.
+ * Only the entries accepted by {@link #handles(String)} have to go through {@link #transform(String, byte[])}.
+ */
+public final class ForgeJarFinalizer implements JarTransformer.EntryTransformer {
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+	private static final String ACCESS_TRANSFORMER = "META-INF/accesstransformer.cfg";
+	private static final String COREMODS = "META-INF/coremods.json";
+
+	private final Logger logger;
+	private final Manifest forgeManifest;
+	private final MappingIndex index;
+	private final Set<String> coreMods = new HashSet<>();
+	private final LongAdder manifestTime = new LongAdder();
+	private final LongAdder accessTransformerTime = new LongAdder();
+	private final LongAdder coreModTime = new LongAdder();
+
+	/**
+	 * Creates a finaliser for the jars written from the non class files of a jar.
+	 *
+	 * @param forgeManifest the manifest of the Forge universal jar
+	 * @param resources     the jar the coremods are read from
+	 */
+	public ForgeJarFinalizer(Logger logger, File forgeManifest, TinyTree mappings, RawZipFile resources) throws IOException {
+		this.logger = logger;
+		this.index = MappingIndex.of(mappings);
+
+		try (InputStream in = new FileInputStream(forgeManifest)) {
+			this.forgeManifest = new Manifest(in);
+		}
+
+		RawZipFile.Entry coreModsEntry = resources.getEntry(COREMODS);
+
+		if (coreModsEntry == null) {
+			logger.info(":no coremods in minecraft");
+			return;
+		}
+
+		JsonObject coreModsJson;
+
+		try (Reader reader = new InputStreamReader(new ByteArrayInputStream(resources.getData(coreModsEntry)), StandardCharsets.UTF_8)) {
+			coreModsJson = new Gson().fromJson(reader, JsonObject.class);
+		}
+
+		for (Map.Entry<String, JsonElement> nameFileEntry : coreModsJson.entrySet()) {
+			String file = nameFileEntry.getValue().getAsString();
+
+			if (resources.getEntry(file) != null) {
+				coreMods.add(file);
+			} else {
+				logger.warn("Coremod '" + file + "' listed in coremods.json but not found");
+			}
+		}
+	}
+
+	public boolean handles(String name) {
+		return MANIFEST.equals(name) || ACCESS_TRANSFORMER.equals(name) || coreMods.contains(name);
+	}
+
+	@Override
+	public byte[] transform(String name, byte[] data) throws IOException {
+		long start = System.nanoTime();
+
+		if (MANIFEST.equals(name)) {
+			Manifest minecraftManifest = new Manifest(new ByteArrayInputStream(data));
+
+			for (Map.Entry<String, Attributes> forgeEntry : forgeManifest.getEntries().entrySet()) {
+				if (forgeEntry.getKey().endsWith("/")) {
+					minecraftManifest.getEntries().put(forgeEntry.getKey(), forgeEntry.getValue());
+				}
+			}
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			minecraftManifest.write(out);
+			manifestTime.add(System.nanoTime() - start);
+			return out.toByteArray();
+		}
+
+		if (ACCESS_TRANSFORMER.equals(name)) {
+			String remapped = AtRemapper.remap(logger, new String(data, StandardCharsets.UTF_8), index);
+			accessTransformerTime.add(System.nanoTime() - start);
+			return remapped.getBytes(StandardCharsets.UTF_8);
+		}
+
+		if (coreMods.contains(name)) {
+			logger.info(":remapping coremod '" + name + "'");
+			String remapped = CoreModClassRemapper.remap(new String(data, StandardCharsets.UTF_8), index);
+			coreModTime.add(System.nanoTime() - start);
+			return remapped != null ? remapped.getBytes(StandardCharsets.UTF_8) : data;
+		}
+
+		return data;
+	}
+
+	/**
+	 * Logs the time spent in each step, over all the jars written so far.
+	 */
+	public void logTimes() {
+		logger.info(":forge finalising took " + millis(manifestTime) + " ms for the manifest, " + millis(accessTransformerTime)
+				+ " ms for the access transformer and " + millis(coreModTime) + " ms for " + coreMods.size() + " coremods");
+	}
+
+	private static long millis(LongAdder nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos.sum());
+	}
+}
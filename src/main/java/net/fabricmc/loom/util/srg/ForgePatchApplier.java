@@ -0,0 +1,140 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.srg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.zip.ZipFile;
+
+import lzma.sdk.lzma.Decoder;
+import lzma.streams.LzmaInputStream;
+import net.minecraftforge.binarypatcher.Patch;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Applies Forge binary patches in process, replacing {@code net.minecraftforge.binarypatcher.ConsoleTool}.
+ *
+ * <p>The lzma patch archive is decoded once, and the patches of every class are applied on a fork-join pool.
+ * Like {@code ConsoleTool --apply}, only patched and added classes are returned.
+ */
+public final class ForgePatchApplier {
+	// The fixed timestamp binarypatcher uses for its entries
+	public static final long ZIPTIME = 628041600000L;
+
+	private final Map<String, List<Patch>> patches;
+
+	private ForgePatchApplier(Map<String, List<Patch>> patches) {
+		this.patches = patches;
+	}
+
+	public static ForgePatchApplier load(Path patchArchive) throws IOException {
+		Map<String, List<Patch>> patches = new TreeMap<>();
+
+		try (InputStream in = new LzmaInputStream(Files.newInputStream(patchArchive), new Decoder());
+				JarInputStream jar = new JarInputStream(in)) {
+			JarEntry entry;
+
+			while ((entry = jar.getNextJarEntry()) != null) {
+				if (entry.getName().endsWith(".binpatch")) {
+					Patch patch = Patch.from(jar);
+					patches.computeIfAbsent(patch.obf, k -> new ArrayList<>()).add(patch);
+				}
+			}
+		}
+
+		return new ForgePatchApplier(patches);
+	}
+
+	public int getPatchedClassCount() {
+		return patches.size();
+	}
+
+	/**
+	 * Patches the classes of a clean jar.
+	 *
+	 * @param clean the clean jar
+	 * @param pool  the pool the patches are applied on
+	 * @return the patched and added classes by entry name, in the order {@code ConsoleTool} would write them
+	 */
+	public Map<String, byte[]> apply(Path clean, ForkJoinPool pool) throws IOException {
+		try (ZipFile cleanZip = new ZipFile(clean.toFile())) {
+			Map<String, ForkJoinTask<byte[]>> results = new LinkedHashMap<>();
+
+			// Patch the existing classes in the order of the clean jar, then the added classes
+			cleanZip.stream().forEach(entry -> {
+				if (!entry.getName().endsWith(".class")) {
+					return;
+				}
+
+				List<Patch> classPatches = patches.get(entry.getName().substring(0, entry.getName().length() - ".class".length()));
+
+				if (classPatches != null && !results.containsKey(entry.getName())) {
+					results.put(entry.getName(), pool.submit(() -> {
+						byte[] data;
+
+						try (InputStream in = cleanZip.getInputStream(entry)) {
+							data = IOUtils.toByteArray(in);
+						}
+
+						return applyAll(classPatches, data);
+					}));
+				}
+			});
+
+			for (Map.Entry<String, List<Patch>> entry : patches.entrySet()) {
+				results.computeIfAbsent(entry.getKey() + ".class", name -> pool.submit(() -> applyAll(entry.getValue(), new byte[0])));
+			}
+
+			Map<String, byte[]> patched = new LinkedHashMap<>();
+
+			for (Map.Entry<String, ForkJoinTask<byte[]>> entry : results.entrySet()) {
+				patched.put(entry.getKey(), entry.getValue().join());
+			}
+
+			return patched;
+		} catch (RuntimeException e) {
+			throw new IOException("Failed to apply patches to " + clean, e);
+		}
+	}
+
+	private static byte[] applyAll(List<Patch> classPatches, byte[] data) throws IOException {
+		for (Patch patch : classPatches) {
+			data = patch.apply(data);
+		}
+
+		return data;
+	}
+}
@@ -24,20 +24,22 @@
 
 package net.fabricmc.loom.util.srg;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import au.com.bytecode.opencsv.CSVReader;
 import org.cadixdev.lorenz.MappingSet;
@@ -49,13 +51,18 @@ import org.cadixdev.lorenz.model.MethodMapping;
 import org.cadixdev.lorenz.model.TopLevelClassMapping;
 import org.jetbrains.annotations.Nullable;
 
-import net.fabricmc.stitch.commands.tinyv2.TinyClass;
-import net.fabricmc.stitch.commands.tinyv2.TinyField;
-import net.fabricmc.stitch.commands.tinyv2.TinyFile;
-import net.fabricmc.stitch.commands.tinyv2.TinyMethod;
-import net.fabricmc.stitch.commands.tinyv2.TinyMethodParameter;
-import net.fabricmc.stitch.commands.tinyv2.TinyV2Reader;
+import net.fabricmc.mapping.tree.ClassDef;
+import net.fabricmc.mapping.tree.FieldDef;
+import net.fabricmc.mapping.tree.MethodDef;
+import net.fabricmc.mapping.tree.TinyMappingFactory;
+import net.fabricmc.mapping.tree.TinyTree;
 
+/**
+ * Reads MCP mappings into {@code official intermediary named} tiny v2 mappings, with MCP names as the named namespace.
+ *
+ * <p>The MCP csv files are keyed by the numeric id of their srg names ({@code 1234} for {@code func_1234_a}),
+ * and read in parallel while the srg and intermediary mappings are loaded.
+ */
 public class MCPReader {
 	private final Path intermediaryTinyPath;
 	private final Path srgTsrgPath;
@@ -65,219 +72,282 @@ public class MCPReader {
 		this.srgTsrgPath = srgTsrgPath;
 	}
 
-	public TinyFile read(Path mcpJar) throws IOException {
-		Map<MemberToken, String> srgTokens = readSrg();
-		TinyFile intermediaryTiny = TinyV2Reader.read(intermediaryTinyPath);
-		Map<String, String> intermediaryToMCPMap = createIntermediaryToMCPMap(intermediaryTiny, srgTokens);
-		Map<String, String[]> intermediaryToDocsMap = new HashMap<>();
-		Map<String, Map<Integer, String>> intermediaryToParamsMap = new HashMap<>();
-		injectMcp(mcpJar, intermediaryToMCPMap, intermediaryToDocsMap, intermediaryToParamsMap);
+	/**
+	 * Reads the MCP mappings in a jar and writes the merged mappings.
+	 *
+	 * @param mcpJar the MCP jar, containing {@code fields.csv}, {@code methods.csv} and {@code params.csv}
+	 * @param out    the output file, will be in tiny v2
+	 */
+	public void read(Path mcpJar, Path out) throws IOException {
+		try (FileSystem fs = FileSystems.newFileSystem(mcpJar, (ClassLoader) null)) {
+			CompletableFuture<IntMap<McpName>> fields = supplyAsync(() -> readNames(fs.getPath("fields.csv"), "field_"));
+			CompletableFuture<IntMap<McpName>> methods = supplyAsync(() -> readNames(fs.getPath("methods.csv"), "func_"));
+			CompletableFuture<IntMap<List<McpParam>>> params = supplyAsync(() -> readParams(fs.getPath("params.csv")));
+
+			Map<MemberToken, String> srgTokens = readSrg();
+			TinyTree intermediaryTiny;
+
+			try (BufferedReader reader = Files.newBufferedReader(intermediaryTinyPath, StandardCharsets.UTF_8)) {
+				intermediaryTiny = TinyMappingFactory.loadWithDetection(reader);
+			}
 
-		mergeTokensIntoIntermediary(intermediaryTiny, intermediaryToMCPMap, intermediaryToDocsMap, intermediaryToParamsMap);
-		return intermediaryTiny;
+			Map<String, String> intermediaryToSrg = createIntermediaryToSrgMap(intermediaryTiny, srgTokens);
+			write(out, intermediaryTiny, intermediaryToSrg, join(fields), join(methods), join(params));
+		}
 	}
 
-	private Map<String, String> createIntermediaryToMCPMap(TinyFile tiny, Map<MemberToken, String> officialToMCP) {
+	private Map<String, String> createIntermediaryToSrgMap(TinyTree tiny, Map<MemberToken, String> officialToSrg) {
 		Map<String, String> map = new HashMap<>();
 
-		for (TinyClass tinyClass : tiny.getClassEntries()) {
-			String classObf = tinyClass.getMapping().get(0);
-			String classIntermediary = tinyClass.getMapping().get(1);
-			MemberToken classTokenObf = MemberToken.ofClass(classObf);
+		for (ClassDef classDef : tiny.getClasses()) {
+			MemberToken classTokenObf = MemberToken.ofClass(classDef.getName("official"));
+			putIfPresent(map, classDef.getName("intermediary"), officialToSrg.get(classTokenObf));
 
-			if (officialToMCP.containsKey(classTokenObf)) {
-				map.put(classIntermediary, officialToMCP.get(classTokenObf));
+			for (FieldDef fieldDef : classDef.getFields()) {
+				MemberToken fieldTokenObf = MemberToken.ofField(classTokenObf, fieldDef.getName("official"));
+				putIfPresent(map, fieldDef.getName("intermediary"), officialToSrg.get(fieldTokenObf));
 			}
 
-			for (TinyField tinyField : tinyClass.getFields()) {
-				String fieldObf = tinyField.getMapping().get(0);
-				String fieldIntermediary = tinyField.getMapping().get(1);
-				MemberToken fieldTokenObf = MemberToken.ofField(classTokenObf, fieldObf);
-
-				if (officialToMCP.containsKey(fieldTokenObf)) {
-					map.put(fieldIntermediary, officialToMCP.get(fieldTokenObf));
-				}
-			}
-
-			for (TinyMethod tinyMethod : tinyClass.getMethods()) {
-				String methodObf = tinyMethod.getMapping().get(0);
-				String methodIntermediary = tinyMethod.getMapping().get(1);
-				MemberToken methodTokenObf = MemberToken.ofMethod(classTokenObf, methodObf, tinyMethod.getMethodDescriptorInFirstNamespace());
-
-				if (officialToMCP.containsKey(methodTokenObf)) {
-					map.put(methodIntermediary, officialToMCP.get(methodTokenObf));
-				}
+			for (MethodDef methodDef : classDef.getMethods()) {
+				MemberToken methodTokenObf = MemberToken.ofMethod(classTokenObf, methodDef.getName("official"), methodDef.getDescriptor("official"));
+				putIfPresent(map, methodDef.getName("intermediary"), officialToSrg.get(methodTokenObf));
 			}
 		}
 
 		return map;
 	}
 
-	private void mergeTokensIntoIntermediary(TinyFile tiny, Map<String, String> intermediaryToMCPMap, Map<String, String[]> intermediaryToDocsMap, Map<String, Map<Integer, String>> intermediaryToParamsMap) {
-		stripTinyWithParametersAndLocal(tiny);
+	private static void putIfPresent(Map<String, String> map, String key, @Nullable String value) {
+		if (value != null) {
+			map.put(key, value);
+		}
+	}
 
-		// We will be adding the "named" namespace with MCP
-		tiny.getHeader().getNamespaces().add("named");
+	private void write(Path out, TinyTree tiny, Map<String, String> intermediaryToSrg, IntMap<McpName> fields, IntMap<McpName> methods, IntMap<List<McpParam>> params) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(out, StandardCharsets.UTF_8)) {
+			writer.write("tiny\t2\t0\tofficial\tintermediary\tnamed\n");
 
-		for (TinyClass tinyClass : tiny.getClassEntries()) {
-			String classIntermediary = tinyClass.getMapping().get(1);
-			tinyClass.getMapping().add(intermediaryToMCPMap.getOrDefault(classIntermediary, classIntermediary));
+			for (ClassDef classDef : tiny.getClasses()) {
+				String classIntermediary = classDef.getName("intermediary");
+				writer.write("c\t" + classDef.getName("official") + "\t" + classIntermediary + "\t" + intermediaryToSrg.getOrDefault(classIntermediary, classIntermediary) + "\n");
 
-			for (TinyField tinyField : tinyClass.getFields()) {
-				String fieldIntermediary = tinyField.getMapping().get(1);
-				String[] docs = intermediaryToDocsMap.get(fieldIntermediary);
-				tinyField.getMapping().add(intermediaryToMCPMap.getOrDefault(fieldIntermediary, fieldIntermediary));
+				for (FieldDef fieldDef : classDef.getFields()) {
+					String fieldIntermediary = fieldDef.getName("intermediary");
+					String srg = intermediaryToSrg.getOrDefault(fieldIntermediary, fieldIntermediary);
+					McpName mcp = fields.get(getSrgId(srg, "field_"));
+					writer.write("\tf\t" + fieldDef.getDescriptor("official") + "\t" + fieldDef.getName("official") + "\t" + fieldIntermediary + "\t" + (mcp != null ? mcp.name : srg) + "\n");
+					writeDocs(writer, mcp);
+				}
 
-				if (docs != null) {
-					tinyField.getComments().clear();
-					tinyField.getComments().addAll(Arrays.asList(docs));
+				for (MethodDef methodDef : classDef.getMethods()) {
+					String methodIntermediary = methodDef.getName("intermediary");
+					String srg = intermediaryToSrg.getOrDefault(methodIntermediary, methodIntermediary);
+					int id = getSrgId(srg, "func_");
+					McpName mcp = methods.get(id);
+					writer.write("\tm\t" + methodDef.getDescriptor("official") + "\t" + methodDef.getName("official") + "\t" + methodIntermediary + "\t" + (mcp != null ? mcp.name : srg) + "\n");
+					writeDocs(writer, mcp);
+					List<McpParam> methodParams = params.get(id);
+
+					if (methodParams != null) {
+						for (McpParam param : methodParams) {
+							writer.write("\t\tp\t" + param.lvIndex + "\t\t\t" + param.name + "\n");
+						}
+					}
 				}
 			}
+		}
+	}
 
-			for (TinyMethod tinyMethod : tinyClass.getMethods()) {
-				String methodIntermediary = tinyMethod.getMapping().get(1);
-				String[] docs = intermediaryToDocsMap.get(methodIntermediary);
-				tinyMethod.getMapping().add(intermediaryToMCPMap.getOrDefault(methodIntermediary, methodIntermediary));
+	private static void writeDocs(BufferedWriter writer, @Nullable McpName mcp) throws IOException {
+		if (mcp == null || mcp.docs == null) {
+			return;
+		}
 
-				if (docs != null) {
-					tinyMethod.getComments().clear();
-					tinyMethod.getComments().addAll(Arrays.asList(docs));
-				}
+		for (String doc : mcp.docs) {
+			writer.write("\t\tc\t" + escapeComment(doc) + "\n");
+		}
+	}
 
-				Map<Integer, String> params = intermediaryToParamsMap.get(methodIntermediary);
+	private static String escapeComment(String comment) {
+		StringBuilder builder = null;
+
+		for (int i = 0; i < comment.length(); i++) {
+			char c = comment.charAt(i);
+			String escaped;
+
+			switch (c) {
+			case '\\':
+				escaped = "\\\\";
+				break;
+			case '\t':
+				escaped = "\\t";
+				break;
+			case '\r':
+				escaped = "\\r";
+				break;
+			case '\0':
+				escaped = "\\0";
+				break;
+			default:
+				escaped = null;
+				break;
+			}
 
-				if (params != null) {
-					for (Map.Entry<Integer, String> entry : params.entrySet()) {
-						int lvIndex = entry.getKey();
-						String paramName = entry.getValue();
+			if (escaped != null && builder == null) {
+				builder = new StringBuilder(comment.length() + 8).append(comment, 0, i);
+			}
 
-						ArrayList<String> mappings = new ArrayList<>();
-						mappings.add("");
-						mappings.add("");
-						mappings.add(paramName);
-						tinyMethod.getParameters().add(new TinyMethodParameter(lvIndex, mappings, new ArrayList<>()));
-					}
+			if (builder != null) {
+				if (escaped != null) {
+					builder.append(escaped);
+				} else {
+					builder.append(c);
 				}
 			}
 		}
-	}
 
-	private void stripTinyWithParametersAndLocal(TinyFile tiny) {
-		for (TinyClass tinyClass : tiny.getClassEntries()) {
-			for (TinyMethod tinyMethod : tinyClass.getMethods()) {
-				tinyMethod.getParameters().clear();
-				tinyMethod.getLocalVariables().clear();
-			}
-		}
+		return builder != null ? builder.toString() : comment;
 	}
 
-	private Map<MemberToken, String> readSrg() throws IOException {
-		Map<MemberToken, String> tokens = new HashMap<>();
+	/**
+	 * Reads {@code fields.csv} or {@code methods.csv}, with the columns {@code searge,name,side,desc}.
+	 */
+	private static IntMap<McpName> readNames(Path csv, String prefix) throws IOException {
+		IntMap<McpName> names = new IntMap<>();
 
-		try (TSrgReader reader = new TSrgReader(Files.newBufferedReader(srgTsrgPath, StandardCharsets.UTF_8))) {
-			MappingSet mappingSet = reader.read();
+		try (CSVReader reader = new CSVReader(Files.newBufferedReader(csv, StandardCharsets.UTF_8))) {
+			reader.readNext();
+			String[] line;
 
-			for (TopLevelClassMapping classMapping : mappingSet.getTopLevelClassMappings()) {
-				appendClass(tokens, classMapping);
+			while ((line = reader.readNext()) != null) {
+				int id = getSrgId(line[0], prefix);
+
+				if (id < 0) {
+					continue;
+				}
+
+				String[] docs = line.length > 3 && !line[3].trim().isEmpty() ? line[3].split("\n") : null;
+				names.put(id, new McpName(line[1], docs != null && docs.length > 0 ? docs : null));
 			}
 		}
 
-		return tokens;
+		return names;
 	}
 
-	private void injectMcp(Path mcpJar, Map<String, String> intermediaryToSrgMap, Map<String, String[]> intermediaryToDocsMap, Map<String, Map<Integer, String>> intermediaryToParamsMap)
-			throws IOException {
-		Map<String, List<String>> srgToIntermediary = inverseMap(intermediaryToSrgMap);
-		Map<String, List<String>> simpleSrgToIntermediary = new HashMap<>();
-		Pattern methodPattern = Pattern.compile("(func_\\d*)_.*");
+	/**
+	 * Reads {@code params.csv}, with the columns {@code param,name,side}.
+	 * Method parameters are named {@code p_<method id>_<lv index>_}, constructor parameters ({@code p_i...}) are skipped.
+	 */
+	private static IntMap<List<McpParam>> readParams(Path csv) throws IOException {
+		IntMap<List<McpParam>> params = new IntMap<>();
 
-		for (Map.Entry<String, List<String>> entry : srgToIntermediary.entrySet()) {
-			Matcher matcher = methodPattern.matcher(entry.getKey());
+		try (CSVReader reader = new CSVReader(Files.newBufferedReader(csv, StandardCharsets.UTF_8))) {
+			reader.readNext();
+			String[] line;
 
-			if (matcher.matches()) {
-				simpleSrgToIntermediary.put(matcher.group(1), entry.getValue());
-			}
-		}
+			while ((line = reader.readNext()) != null) {
+				String param = line[0];
 
-		try (FileSystem fs = FileSystems.newFileSystem(mcpJar, null)) {
-			Path fields = fs.getPath("fields.csv");
-			Path methods = fs.getPath("methods.csv");
-			Path params = fs.getPath("params.csv");
-			Pattern paramsPattern = Pattern.compile("p_[^\\d]*(\\d+)_(\\d)+_?");
+				if (!param.startsWith("p_")) {
+					continue;
+				}
 
-			try (CSVReader reader = new CSVReader(Files.newBufferedReader(fields, StandardCharsets.UTF_8))) {
-				reader.readNext();
-				String[] line;
+				int idEnd = param.indexOf('_', 2);
 
-				while ((line = reader.readNext()) != null) {
-					List<String> intermediaryField = srgToIntermediary.get(line[0]);
-					String[] docs = line[3].split("\n");
+				if (idEnd < 0) {
+					continue;
+				}
 
-					if (intermediaryField != null) {
-						for (String s : intermediaryField) {
-							intermediaryToSrgMap.put(s, line[1]);
+				int id = parseInt(param, 2, idEnd);
+				int lvEnd = param.indexOf('_', idEnd + 1);
+				int lvIndex = parseInt(param, idEnd + 1, lvEnd < 0 ? param.length() : lvEnd);
 
-							if (!line[3].trim().isEmpty() && docs.length > 0) {
-								intermediaryToDocsMap.put(s, docs);
-							}
-						}
-					}
+				if (id < 0 || lvIndex < 0) {
+					continue;
 				}
+
+				List<McpParam> methodParams = params.get(id);
+
+				if (methodParams == null) {
+					methodParams = new ArrayList<>(4);
+					params.put(id, methodParams);
+				}
+
+				methodParams.add(new McpParam(lvIndex, line[1]));
 			}
+		}
 
-			try (CSVReader reader = new CSVReader(Files.newBufferedReader(methods, StandardCharsets.UTF_8))) {
-				reader.readNext();
-				String[] line;
+		return params;
+	}
 
-				while ((line = reader.readNext()) != null) {
-					List<String> intermediaryMethod = srgToIntermediary.get(line[0]);
-					String[] docs = line[3].split("\n");
+	/**
+	 * Gets the numeric id of an srg name, such as {@code 1234} for {@code func_1234_a}.
+	 *
+	 * @return the id, or -1 if the name is not an srg name with the prefix
+	 */
+	static int getSrgId(String name, String prefix) {
+		if (!name.startsWith(prefix)) {
+			return -1;
+		}
 
-					if (intermediaryMethod != null) {
-						for (String s : intermediaryMethod) {
-							intermediaryToSrgMap.put(s, line[1]);
+		int end = name.indexOf('_', prefix.length());
+		return parseInt(name, prefix.length(), end < 0 ? name.length() : end);
+	}
 
-							if (!line[3].trim().isEmpty() && docs.length > 0) {
-								intermediaryToDocsMap.put(s, docs);
-							}
-						}
-					}
-				}
+	private static int parseInt(String s, int start, int end) {
+		if (start >= end || end - start > 9) {
+			return -1;
+		}
+
+		int value = 0;
+
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+
+			if (c < '0' || c > '9') {
+				return -1;
 			}
 
-			try (CSVReader reader = new CSVReader(Files.newBufferedReader(params, StandardCharsets.UTF_8))) {
-				reader.readNext();
-				String[] line;
+			value = value * 10 + (c - '0');
+		}
 
-				while ((line = reader.readNext()) != null) {
-					Matcher param = paramsPattern.matcher(line[0]);
+		return value;
+	}
 
-					if (param.matches()) {
-						String named = line[1];
-						String srgMethodStartWith = "func_" + param.group(1);
-						int lvIndex = Integer.parseInt(param.group(2));
-						List<String> intermediaryMethod = simpleSrgToIntermediary.get(srgMethodStartWith);
+	private static <T> CompletableFuture<T> supplyAsync(IOSupplier<T> supplier) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return supplier.get();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
 
-						if (intermediaryMethod != null) {
-							for (String s : intermediaryMethod) {
-								intermediaryToParamsMap.computeIfAbsent(s, s1 -> new HashMap<>())
-										.put(lvIndex, named);
-							}
-						}
-					}
-				}
+	private static <T> T join(CompletableFuture<T> future) throws IOException {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) e.getCause()).getCause();
 			}
+
+			throw e;
 		}
 	}
 
-	private Map<String, List<String>> inverseMap(Map<String, String> intermediaryToMCPMap) {
-		Map<String, List<String>> map = new HashMap<>();
+	private Map<MemberToken, String> readSrg() throws IOException {
+		Map<MemberToken, String> tokens = new HashMap<>();
+
+		try (TSrgReader reader = new TSrgReader(Files.newBufferedReader(srgTsrgPath, StandardCharsets.UTF_8))) {
+			MappingSet mappingSet = reader.read();
 
-		for (Map.Entry<String, String> token : intermediaryToMCPMap.entrySet()) {
-			map.computeIfAbsent(token.getValue(), s -> new ArrayList<>()).add(token.getKey());
+			for (TopLevelClassMapping classMapping : mappingSet.getTopLevelClassMappings()) {
+				appendClass(tokens, classMapping);
+			}
 		}
 
-		return map;
+		return tokens;
 	}
 
 	private void appendClass(Map<MemberToken, String> tokens, ClassMapping<?, ?> classMapping) {
@@ -343,4 +413,98 @@ public class MCPReader {
 		METHOD,
 		FIELD
 	}
+
+	@FunctionalInterface
+	private interface IOSupplier<T> {
+		T get() throws IOException;
+	}
+
+	private static final class McpName {
+		private final String name;
+		@Nullable
+		private final String[] docs;
+
+		McpName(String name, @Nullable String[] docs) {
+			this.name = name;
+			this.docs = docs;
+		}
+	}
+
+	private static final class McpParam {
+		private final int lvIndex;
+		private final String name;
+
+		McpParam(int lvIndex, String name) {
+			this.lvIndex = lvIndex;
+			this.name = name;
+		}
+	}
+
+	/**
+	 * A minimal open addressing hash map with non-negative int keys, to avoid boxing the srg ids.
+	 */
+	private static final class IntMap<V> {
+		private int[] keys = new int[1024];
+		private Object[] values = new Object[1024];
+		private int size;
+
+		@Nullable
+		@SuppressWarnings("unchecked")
+		V get(int key) {
+			if (key < 0) {
+				return null;
+			}
+
+			int mask = keys.length - 1;
+
+			for (int i = mix(key) & mask; values[i] != null; i = (i + 1) & mask) {
+				if (keys[i] == key) {
+					return (V) values[i];
+				}
+			}
+
+			return null;
+		}
+
+		void put(int key, V value) {
+			int mask = keys.length - 1;
+			int i = mix(key) & mask;
+
+			while (values[i] != null) {
+				if (keys[i] == key) {
+					values[i] = value;
+					return;
+				}
+
+				i = (i + 1) & mask;
+			}
+
+			keys[i] = key;
+			values[i] = value;
+
+			if (++size * 2 > keys.length) {
+				grow();
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private void grow() {
+			int[] oldKeys = keys;
+			Object[] oldValues = values;
+			keys = new int[oldKeys.length * 2];
+			values = new Object[oldValues.length * 2];
+			size = 0;
+
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldValues[i] != null) {
+					put(oldKeys[i], (V) oldValues[i]);
+				}
+			}
+		}
+
+		private static int mix(int key) {
+			int h = key * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+	}
 }
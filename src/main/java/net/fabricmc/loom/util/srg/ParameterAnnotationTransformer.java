@@ -0,0 +1,130 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.srg;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.oceanlabs.mcp.mcinjector.adaptors.ParameterAnnotationFixer;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+
+import net.fabricmc.loom.util.JarTransformer;
+
+/**
+ * Runs MCInjector's {@link ParameterAnnotationFixer} over the classes of a jar.
+ *
+ * <p>The fixer only touches the constructors of enums and inner classes that have parameter annotations,
+ * so a cheap scan of the constant pool is used to skip every other class without parsing it.
+ * This transformer is thread safe.
+ */
+public final class ParameterAnnotationTransformer implements JarTransformer.EntryTransformer {
+	private static final byte[][] PARAMETER_ANNOTATIONS = {
+			"RuntimeVisibleParameterAnnotations".getBytes(StandardCharsets.UTF_8),
+			"RuntimeInvisibleParameterAnnotations".getBytes(StandardCharsets.UTF_8)
+	};
+	private static final byte[] INNER_CLASSES = "InnerClasses".getBytes(StandardCharsets.UTF_8);
+	private static final int UTF8_TAG = 1;
+
+	private final AtomicInteger skipped = new AtomicInteger();
+	private final AtomicInteger unchanged = new AtomicInteger();
+	private final AtomicInteger rewritten = new AtomicInteger();
+
+	@Override
+	public byte[] transform(String name, byte[] bytes) {
+		if (!name.endsWith(".class")) {
+			return bytes;
+		}
+
+		ClassReader reader = new ClassReader(bytes);
+
+		if (!mayNeedFixing(reader)) {
+			skipped.incrementAndGet();
+			return bytes;
+		}
+
+		ClassNode node = new ClassNode();
+		reader.accept(new ParameterAnnotationFixer(node, null), 0);
+
+		ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		node.accept(writer);
+		byte[] out = writer.toByteArray();
+
+		if (Arrays.equals(bytes, out)) {
+			unchanged.incrementAndGet();
+			return bytes;
+		}
+
+		rewritten.incrementAndGet();
+		return out;
+	}
+
+	/**
+	 * Checks whether a class has parameter annotations and is an enum or may be an inner class,
+	 * by looking only at its access flags and the attribute names in its constant pool.
+	 */
+	private static boolean mayNeedFixing(ClassReader reader) {
+		boolean parameterAnnotations = false;
+		boolean innerClasses = false;
+
+		for (int i = 1; i < reader.getItemCount(); i++) {
+			int offset = reader.getItem(i);
+
+			if (offset <= 0 || reader.b[offset - 1] != UTF8_TAG) {
+				continue;
+			}
+
+			for (byte[] attribute : PARAMETER_ANNOTATIONS) {
+				parameterAnnotations |= isUtf8(reader, offset, attribute);
+			}
+
+			innerClasses |= isUtf8(reader, offset, INNER_CLASSES);
+		}
+
+		return parameterAnnotations && ((reader.getAccess() & Opcodes.ACC_ENUM) != 0 || innerClasses);
+	}
+
+	private static boolean isUtf8(ClassReader reader, int offset, byte[] expected) {
+		if (reader.readUnsignedShort(offset) != expected.length) {
+			return false;
+		}
+
+		for (int i = 0; i < expected.length; i++) {
+			if (reader.b[offset + 2 + i] != expected[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return skipped.get() + " classes skipped by the pre-scan, " + rewritten.get() + " rewritten, " + unchanged.get() + " unchanged";
+	}
+}
@@ -24,85 +24,127 @@
 
 package net.fabricmc.loom.util.srg;
 
-import java.io.File;
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.StringReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Set;
+import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 
+import com.google.common.base.Stopwatch;
+import net.md_5.specialsource.Jar;
+import net.md_5.specialsource.JarMapping;
+import net.md_5.specialsource.JarRemapper;
+import net.md_5.specialsource.provider.JarProvider;
 import org.apache.commons.io.IOUtils;
-import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
 import org.zeroturnaround.zip.ZipUtil;
 
-import net.fabricmc.loom.LoomGradleExtension;
-import net.fabricmc.loom.configuration.providers.mappings.MappingsProvider;
-
+/**
+ * Remaps the official Minecraft jars to srg with SpecialSource, in the Gradle process.
+ *
+ * <p>The MCPConfig mappings are parsed once into {@link SrgMappings} and shared between the client and server,
+ * every side then only pays for its own inheritance lookups and class remapping.
+ */
 public class SpecialSourceExecutor {
-	public static Path produceSrgJar(Project project, MappingsProvider provider, String side, File specialSourceJar, Path officialJar, Path srgPath)
-			throws Exception {
-		Set<String> filter = Files.readAllLines(srgPath, StandardCharsets.UTF_8).stream()
+	public static SrgMappings readMappings(String srg) throws IOException {
+		Set<String> filter = Arrays.stream(srg.split("\r?\n"))
 				.filter(s -> !s.startsWith("\t"))
 				.map(s -> s.split(" ")[0] + ".class")
 				.collect(Collectors.toSet());
-		LoomGradleExtension extension = project.getExtensions().getByType(LoomGradleExtension.class);
-		Path stripped = extension.getProjectBuildCache().toPath().resolve(officialJar.getFileName().toString().substring(0, officialJar.getFileName().toString().length() - 4) + "-filtered.jar");
-		Files.deleteIfExists(stripped);
+		JarMapping mapping = new JarMapping();
 
-		try (JarOutputStream output = new JarOutputStream(Files.newOutputStream(stripped))) {
-			ZipUtil.iterate(officialJar.toFile(), (in, zipEntry) -> {
-				if (filter.contains(zipEntry.getName())) {
-					output.putNextEntry((ZipEntry) zipEntry.clone());
-					IOUtils.write(IOUtils.toByteArray(in), output);
-					output.closeEntry();
-				}
-			});
+		try (BufferedReader reader = new BufferedReader(new StringReader(srg))) {
+			mapping.loadMappings(reader, null, null, false);
 		}
 
-		Path output = extension.getProjectBuildCache().toPath().resolve(officialJar.getFileName().toString().substring(0, officialJar.getFileName().toString().length() - 4) + "-srg-output.jar");
-		Files.deleteIfExists(output);
-
-		String[] args = new String[] {
-				"--in-jar",
-				stripped.toAbsolutePath().toString(),
-				"--out-jar",
-				output.toAbsolutePath().toString(),
-				"--srg-in",
-				srgPath.toAbsolutePath().toString()
-		};
-
-		project.getLogger().lifecycle(":remapping minecraft (SpecialSource, " + side + ", official -> srg)");
-
-		Path workingDir = tmpDir();
-
-		project.javaexec(spec -> {
-			spec.setArgs(Arrays.asList(args));
-			spec.setClasspath(project.files(specialSourceJar));
-			spec.workingDir(workingDir.toFile());
-			spec.setMain("net.md_5.specialsource.SpecialSource");
-			spec.setStandardOutput(System.out);
-			spec.setErrorOutput(System.out);
-		}).rethrowFailure().assertNormalExitValue();
-
-		Files.deleteIfExists(stripped);
-
-		Path tmp = tmpFile();
-		Files.deleteIfExists(tmp);
-		Files.copy(output, tmp);
+		return new SrgMappings(filter, mapping);
+	}
 
+	/**
+	 * Remaps the classes of an official jar that are named in the mappings to srg.
+	 *
+	 * <p>The output is the same as the one of the SpecialSource command line run on a copy of the jar with only those
+	 * classes, which is how it used to be made: the copy is also what the inheritance is looked up in, so the classes
+	 * missing from the mappings do not take part in it.
+	 */
+	public static void produceSrgJar(Logger logger, String side, SrgMappings mappings, Path officialJar, Path output) throws IOException {
+		logger.lifecycle(":remapping minecraft (SpecialSource, " + side + ", official -> srg)");
+		Stopwatch stopwatch = Stopwatch.createStarted();
 		Files.deleteIfExists(output);
-		return tmp;
+		Path filtered = Files.createTempFile(output.toAbsolutePath().getParent(), "filtered", ".jar");
+
+		try {
+			filterJar(officialJar, filtered, mappings.filter);
+
+			try (Jar jar = Jar.init(filtered.toFile());
+					JarOutputStream out = new JarOutputStream(Files.newOutputStream(output))) {
+				// Every side needs its own JarMapping as the inheritance provider is stored on it
+				JarMapping mapping = mappings.copy();
+				mapping.setFallbackInheritanceProvider(new JarProvider(jar));
+				JarRemapper remapper = new JarRemapper(null, mapping, null);
+
+				ZipUtil.iterate(filtered.toFile(), (in, zipEntry) -> {
+					String name = zipEntry.getName();
+					byte[] data = remapper.remapClassFile(in, jar);
+					String className = name.substring(0, name.length() - ".class".length());
+					String mappedName = remapper.map(className);
+					JarEntry entry = new JarEntry(mappedName == null ? name : mappedName + ".class");
+					// Keep the time of the official entry, so the same input always gives the same jar
+					entry.setTime(zipEntry.getTime());
+					out.putNextEntry(entry);
+					out.write(data);
+					out.closeEntry();
+				});
+			}
+		} catch (Exception e) {
+			Files.deleteIfExists(output);
+			throw new IOException("Failed to remap " + officialJar + " to srg", e);
+		} finally {
+			Files.deleteIfExists(filtered);
+		}
+
+		logger.lifecycle(":remapped minecraft (SpecialSource, " + side + ", official -> srg) in " + stopwatch.stop());
 	}
 
-	private static Path tmpFile() throws IOException {
-		return Files.createTempFile(null, null);
+	/**
+	 * Copies the entries of a jar with the given names.
+	 */
+	private static void filterJar(Path input, Path output, Set<String> names) throws IOException {
+		try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(output))) {
+			ZipUtil.iterate(input.toFile(), (in, zipEntry) -> {
+				if (names.contains(zipEntry.getName())) {
+					ZipEntry entry = new ZipEntry(zipEntry.getName());
+					entry.setTime(zipEntry.getTime());
+					out.putNextEntry(entry);
+					IOUtils.copy(in, out);
+					out.closeEntry();
+				}
+			});
+		}
 	}
 
-	private static Path tmpDir() throws IOException {
-		return Files.createTempDirectory(null);
+	public static final class SrgMappings {
+		private final Set<String> filter;
+		private final JarMapping mapping;
+
+		private SrgMappings(Set<String> filter, JarMapping mapping) {
+			this.filter = filter;
+			this.mapping = mapping;
+		}
+
+		private JarMapping copy() {
+			JarMapping copy = new JarMapping();
+			copy.packages.putAll(mapping.packages);
+			copy.classes.putAll(mapping.classes);
+			copy.fields.putAll(mapping.fields);
+			copy.methods.putAll(mapping.methods);
+			return copy;
+		}
 	}
 }
@@ -26,13 +26,17 @@ package net.fabricmc.loom.util.srg;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.function.Consumer;
-import java.util.function.Supplier;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
 
 import org.cadixdev.lorenz.MappingSet;
 import org.cadixdev.lorenz.io.srg.tsrg.TSrgReader;
@@ -43,18 +47,11 @@ import org.cadixdev.lorenz.model.MethodMapping;
 import org.cadixdev.lorenz.model.TopLevelClassMapping;
 import org.jetbrains.annotations.Nullable;
 
-import net.fabricmc.loom.util.function.CollectionUtil;
 import net.fabricmc.mapping.tree.ClassDef;
 import net.fabricmc.mapping.tree.FieldDef;
 import net.fabricmc.mapping.tree.MethodDef;
 import net.fabricmc.mapping.tree.TinyMappingFactory;
 import net.fabricmc.mapping.tree.TinyTree;
-import net.fabricmc.stitch.commands.tinyv2.TinyClass;
-import net.fabricmc.stitch.commands.tinyv2.TinyField;
-import net.fabricmc.stitch.commands.tinyv2.TinyFile;
-import net.fabricmc.stitch.commands.tinyv2.TinyHeader;
-import net.fabricmc.stitch.commands.tinyv2.TinyMethod;
-import net.fabricmc.stitch.commands.tinyv2.TinyV2Writer;
 
 /**
  * Utilities for merging SRG mappings.
@@ -65,6 +62,10 @@ public final class SrgMerger {
 	/**
 	 * Merges SRG mappings with a tiny mappings tree through the obf names.
 	 *
+	 * <p>Classes are merged in parallel and written in the order of the SRG file,
+	 * each followed by its inner classes. In lenient mode, a class missing from the tiny mappings is skipped
+	 * along with its inner classes.
+	 *
 	 * @param srg     the SRG file in .tsrg format
 	 * @param tiny    the tiny file
 	 * @param out     the output file, will be in tiny v2
@@ -92,90 +93,131 @@ public final class SrgMerger {
 			throw new MappingException("Mapping file " + tiny + " does not have the 'official' namespace as the default!");
 		}
 
-		TinyHeader header = new TinyHeader(namespaces, 2, 0, Collections.emptyMap());
-
-		List<TinyClass> classes = new ArrayList<>();
+		List<ClassMapping<?, ?>> classes = new ArrayList<>();
 
 		for (TopLevelClassMapping klass : arr.getTopLevelClassMappings()) {
-			classToTiny(foss, namespaces, klass, classes::add, lenient);
+			collectClasses(klass, classes);
 		}
 
-		TinyFile file = new TinyFile(header, classes);
-		TinyV2Writer.write(file, out);
+		// Only used by forEachOrdered, which runs one class at a time in the order of the list
+		Set<ClassMapping<?, ?>> skipped = new HashSet<>();
+
+		try (Writer writer = Files.newBufferedWriter(out)) {
+			writer.write("tiny\t2\t0\t" + String.join("\t", namespaces) + "\n");
+
+			classes.parallelStream()
+					.map(klass -> new MergedClass(klass, classToTiny(foss, namespaces, klass, lenient)))
+					.forEachOrdered(merged -> {
+						boolean outerSkipped = merged.klass instanceof InnerClassMapping && skipped.contains(((InnerClassMapping) merged.klass).getParent());
+
+						if (merged.lines == null || outerSkipped) {
+							skipped.add(merged.klass);
+							return;
+						}
+
+						try {
+							writer.write(merged.lines);
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
 	}
 
-	private static void classToTiny(TinyTree foss, List<String> namespaces, ClassMapping<?, ?> klass, Consumer<TinyClass> classConsumer, boolean lenient) {
+	private static void collectClasses(ClassMapping<?, ?> klass, List<ClassMapping<?, ?>> classes) {
+		classes.add(klass);
+
+		for (InnerClassMapping innerKlass : klass.getInnerClassMappings()) {
+			collectClasses(innerKlass, classes);
+		}
+	}
+
+	/**
+	 * Creates the tiny v2 lines of a class and its members, without the inner classes.
+	 *
+	 * @return the lines, or {@code null} if the class is missing from the tiny mappings and {@code lenient} is set
+	 */
+	@Nullable
+	private static String classToTiny(TinyTree foss, List<String> namespaces, ClassMapping<?, ?> klass, boolean lenient) {
 		String obf = klass.getFullObfuscatedName();
 		String srg = klass.getFullDeobfuscatedName();
 		ClassDef classDef = foss.getDefaultNamespaceClassMap().get(obf);
 
 		if (classDef == null) {
 			if (lenient) {
-				return;
+				return null;
 			} else {
 				throw new MappingException("Missing class: " + obf + " (srg: " + srg + ")");
 			}
 		}
 
-		List<String> classNames = CollectionUtil.map(
-				namespaces,
-				namespace -> "srg".equals(namespace) ? srg : classDef.getName(namespace)
-		);
+		StringBuilder builder = new StringBuilder("c");
+		appendNames(builder, namespaces, classDef::getName, srg);
+		builder.append('\n');
 
-		List<TinyMethod> methods = new ArrayList<>();
-		List<TinyField> fields = new ArrayList<>();
+		// tsrg methods are matched by name and descriptor, fields only by name
+		Map<String, MethodDef> methodDefs = new HashMap<>();
+		Map<String, FieldDef> fieldDefs = new HashMap<>();
+
+		for (MethodDef def : classDef.getMethods()) {
+			methodDefs.putIfAbsent(def.getName("official") + def.getDescriptor("official"), def);
+		}
+
+		for (FieldDef def : classDef.getFields()) {
+			fieldDefs.putIfAbsent(def.getName("official"), def);
+		}
 
 		for (MethodMapping method : klass.getMethodMappings()) {
-			MethodDef def = CollectionUtil.find(
-					classDef.getMethods(),
-					m -> m.getName("official").equals(method.getObfuscatedName()) && m.getDescriptor("official").equals(method.getObfuscatedDescriptor())
-			).orElse(nullOrThrow(lenient, () -> new MappingException("Missing method: " + method.getFullObfuscatedName() + " (srg: " + method.getFullDeobfuscatedName() + ")")));
-
-			if (def == null) continue;
-
-			List<String> methodNames = CollectionUtil.map(
-					namespaces,
-					namespace -> "srg".equals(namespace) ? method.getDeobfuscatedName() : def.getName(namespace)
-			);
-
-			methods.add(new TinyMethod(
-					def.getDescriptor("official"), methodNames,
-					/* parameters */ Collections.emptyList(),
-					/* locals */ Collections.emptyList(),
-					/* comments */ Collections.emptyList()
-			));
+			MethodDef def = methodDefs.get(method.getObfuscatedName() + method.getObfuscatedDescriptor());
+
+			if (def == null) {
+				if (lenient) {
+					continue;
+				}
+
+				throw new MappingException("Missing method: " + method.getFullObfuscatedName() + " (srg: " + method.getFullDeobfuscatedName() + ")");
+			}
+
+			builder.append("\tm\t").append(def.getDescriptor("official"));
+			appendNames(builder, namespaces, def::getName, method.getDeobfuscatedName());
+			builder.append('\n');
 		}
 
 		for (FieldMapping field : klass.getFieldMappings()) {
-			FieldDef def = CollectionUtil.find(
-					classDef.getFields(),
-					f -> f.getName("official").equals(field.getObfuscatedName())
-			).orElse(nullOrThrow(lenient, () -> new MappingException("Missing field: " + field.getFullObfuscatedName() + " (srg: " + field.getFullDeobfuscatedName() + ")")));
+			FieldDef def = fieldDefs.get(field.getObfuscatedName());
 
-			if (def == null) continue;
+			if (def == null) {
+				if (lenient) {
+					continue;
+				}
 
-			List<String> fieldNames = CollectionUtil.map(
-					namespaces,
-					namespace -> "srg".equals(namespace) ? field.getDeobfuscatedName() : def.getName(namespace)
-			);
+				throw new MappingException("Missing field: " + field.getFullObfuscatedName() + " (srg: " + field.getFullDeobfuscatedName() + ")");
+			}
 
-			fields.add(new TinyField(def.getDescriptor("official"), fieldNames, Collections.emptyList()));
+			builder.append("\tf\t").append(def.getDescriptor("official"));
+			appendNames(builder, namespaces, def::getName, field.getDeobfuscatedName());
+			builder.append('\n');
 		}
 
-		TinyClass tinyClass = new TinyClass(classNames, methods, fields, Collections.emptyList());
-		classConsumer.accept(tinyClass);
+		return builder.toString();
+	}
+
+	private static final class MergedClass {
+		private final ClassMapping<?, ?> klass;
+		@Nullable
+		private final String lines;
 
-		for (InnerClassMapping innerKlass : klass.getInnerClassMappings()) {
-			classToTiny(foss, namespaces, innerKlass, classConsumer, lenient);
+		private MergedClass(ClassMapping<?, ?> klass, @Nullable String lines) {
+			this.klass = klass;
+			this.lines = lines;
 		}
 	}
 
-	@Nullable
-	private static <T, X extends Exception> T nullOrThrow(boolean lenient, Supplier<X> exception) throws X {
-		if (lenient) {
-			return null;
-		} else {
-			throw exception.get();
+	private static void appendNames(StringBuilder builder, List<String> namespaces, Function<String, String> names, String srg) {
+		for (String namespace : namespaces) {
+			builder.append('\t').append("srg".equals(namespace) ? srg : names.apply(namespace));
 		}
 	}
 }
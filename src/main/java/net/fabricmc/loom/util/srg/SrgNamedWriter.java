@@ -24,14 +24,22 @@
 
 package net.fabricmc.loom.util.srg;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.cadixdev.lorenz.io.srg.SrgWriter;
 import org.gradle.api.logging.Logger;
 
+import net.fabricmc.loom.util.CacheLock;
 import net.fabricmc.lorenztiny.TinyMappingsReader;
+import net.fabricmc.mapping.tree.ClassDef;
+import net.fabricmc.mapping.tree.FieldDef;
+import net.fabricmc.mapping.tree.MethodDef;
 import net.fabricmc.mapping.tree.TinyTree;
 
 public class SrgNamedWriter {
@@ -44,4 +52,52 @@ public class SrgNamedWriter {
 			}
 		}
 	}
+
+	/**
+	 * Writes the srg to named lookup file read by {@code YarnNamingService} at runtime.
+	 *
+	 * <p>The file starts with a {@code srg-named-lookup\t1} header, followed by one {@code kind\tsrg\tnamed} line per name,
+	 * where the kind is {@code c}, {@code m} or {@code f}. Names that do not change are skipped, and as the naming service
+	 * looks members up by name only, only the first member with a given srg name is written.
+	 */
+	public static void writeLookup(Path lookupFile, TinyTree mappings) throws IOException {
+		Set<String> seen = new HashSet<>();
+		// A unique file, so that writers that do not hold the cache lock of the mappings never write to the same file
+		Path tmp = Files.createTempFile(lookupFile.toAbsolutePath().getParent(), lookupFile.getFileName().toString(), ".tmp");
+
+		try {
+			try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+				writer.write("srg-named-lookup\t1\n");
+
+				for (ClassDef def : mappings.getClasses()) {
+					writeLookupEntry(writer, seen, 'c', def.getName("srg"), def.getName("named"));
+
+					for (MethodDef method : def.getMethods()) {
+						writeLookupEntry(writer, seen, 'm', method.getName("srg"), method.getName("named"));
+					}
+
+					for (FieldDef field : def.getFields()) {
+						writeLookupEntry(writer, seen, 'f', field.getName("srg"), field.getName("named"));
+					}
+				}
+			}
+
+			CacheLock.publish(tmp, lookupFile);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private static void writeLookupEntry(BufferedWriter writer, Set<String> seen, char kind, String srg, String named) throws IOException {
+		if (srg.equals(named) || !seen.add(kind + srg)) {
+			return;
+		}
+
+		writer.write(kind);
+		writer.write('\t');
+		writer.write(srg);
+		writer.write('\t');
+		writer.write(named);
+		writer.write('\n');
+	}
 }
@@ -0,0 +1,169 @@
+package net.fabricmc.loom.configuration.providers.mappings
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+import net.fabricmc.mapping.tree.ClassDef
+import net.fabricmc.mapping.tree.FieldDef
+import net.fabricmc.mapping.tree.LocalVariableDef
+import net.fabricmc.mapping.tree.Mapped
+import net.fabricmc.mapping.tree.MethodDef
+import net.fabricmc.mapping.tree.ParameterDef
+import net.fabricmc.mapping.tree.TinyMappingFactory
+import net.fabricmc.mapping.tree.TinyTree
+
+class BinaryTinyTreeTest extends Specification {
+	private static final List<String> NAMESPACES = ["official", "intermediary", "named"]
+	private static final String MAPPINGS = """tiny\t2\t0\tofficial\tintermediary\tnamed
+\tsorted-by
+c\tb\tnet/minecraft/class_2\tnet/minecraft/world/World
+\tc\tThe world.
+\tf\tI\ta\tfield_1\ttime
+\t\tc\tThe time of day.
+\tm\t(La;)V\ta\tmethod_1\t
+\t\tp\t1\t\t\tentity
+\t\tv\t2\t4\t1\t\t\tcount
+c\ta\tnet/minecraft/class_1\tnet/minecraft/entity/Entity
+\tm\t()Lb;\tb\tmethod_2\tgetWorld
+\t\tc\tGets the world.
+c\tc\tnet/minecraft/class_3\t
+"""
+
+	@Rule
+	TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+	def "the compiled mappings match the parsed ones"() {
+		given:
+		TinyTree source = parse()
+
+		when:
+		BinaryTinyTree compiled = BinaryTinyTree.load(writeMappings())
+
+		then:
+		compiled.metadata.namespaces == source.metadata.namespaces
+		compiled.metadata.majorVersion == 2
+		compiled.metadata.properties == source.metadata.properties
+		compiled.classes.size() == source.classes.size()
+
+		[source.classes as List, compiled.classes as List].transpose().every { ClassDef expected, ClassDef actual ->
+			sameNames(expected, actual) && expected.comment == actual.comment
+					&& sameMembers(expected.fields as List, actual.fields as List)
+					&& sameMembers(expected.methods as List, actual.methods as List)
+		}
+	}
+
+	def "missing names fall back like the parsed ones and have empty raw names"() {
+		given:
+		TinyTree source = parse()
+		ClassDef sourceClass = source.defaultNamespaceClassMap["c"]
+		MethodDef sourceMethod = source.defaultNamespaceClassMap["b"].methods.first()
+
+		when:
+		BinaryTinyTree compiled = BinaryTinyTree.load(writeMappings())
+		ClassDef unnamed = compiled.findClass("official", "c")
+		MethodDef method = compiled.findClass("official", "b").methods.first()
+
+		then:
+		unnamed.getName("named") == sourceClass.getName("named")
+		unnamed.getRawName("named") == ""
+		unnamed.getRawName("intermediary") == "net/minecraft/class_3"
+		method.getName("named") == sourceMethod.getName("named")
+		method.getRawName("named") == ""
+		method.parameters.first().getRawName("official") == ""
+		method.parameters.first().getName("named") == "entity"
+	}
+
+	def "names are decoded once and shared between views"() {
+		when:
+		BinaryTinyTree compiled = BinaryTinyTree.load(writeMappings())
+
+		then:
+		compiled.findClass("official", "b").getName("named").is(compiled.classes.first().getName("named"))
+		// The class a and the field a of class b share the same pooled name
+		compiled.findClass("official", "a").getName("official").is(compiled.findClass("official", "b").fields.first().getName("official"))
+	}
+
+	def "classes are found by name in every namespace"() {
+		given:
+		TinyTree source = parse()
+
+		when:
+		BinaryTinyTree compiled = BinaryTinyTree.load(writeMappings())
+
+		then:
+		compiled.findClass("official", "a").getName("named") == "net/minecraft/entity/Entity"
+		compiled.findClass("intermediary", "net/minecraft/class_2").getName("official") == "b"
+		compiled.findClass("named", "net/minecraft/world/World").getName("intermediary") == "net/minecraft/class_2"
+		compiled.findClass("named", source.defaultNamespaceClassMap["c"].getName("named")).getName("official") == "c"
+		compiled.findClass("named", "net/minecraft/Missing") == null
+		compiled.defaultNamespaceClassMap["b"].getName("named") == "net/minecraft/world/World"
+		compiled.defaultNamespaceClassMap.size() == 3
+	}
+
+	def "the compiled copy is reused until the tiny file changes"() {
+		given:
+		Path mappings = writeMappings()
+		Path compiledFile = mappings.resolveSibling("mappings.tiny.bin")
+
+		when:
+		BinaryTinyTree.load(mappings)
+		byte[] first = Files.readAllBytes(compiledFile)
+		compiledFile.toFile().setLastModified(0)
+		BinaryTinyTree.load(mappings)
+		long reusedModified = compiledFile.toFile().lastModified()
+		mappings.text = MAPPINGS.replace("getWorld", "world")
+		BinaryTinyTree changed = BinaryTinyTree.load(mappings)
+
+		then:
+		first.length > 0
+		reusedModified == 0
+		changed.findClass("official", "a").methods.first().getName("named") == "world"
+	}
+
+	private static boolean sameNames(Mapped expected, Mapped actual) {
+		return NAMESPACES.every { String namespace ->
+			expected.getName(namespace) == actual.getName(namespace) && expected.getRawName(namespace) == actual.getRawName(namespace)
+		}
+	}
+
+	private static boolean sameMembers(List expected, List actual) {
+		return expected.size() == actual.size() && [expected, actual].transpose().every { expectedMember, actualMember ->
+			boolean same = sameNames(expectedMember, actualMember) && expectedMember.comment == actualMember.comment
+					&& NAMESPACES.every { String namespace -> expectedMember.getDescriptor(namespace) == actualMember.getDescriptor(namespace) }
+
+			if (expectedMember instanceof MethodDef) {
+				same &= sameLocals(expectedMember.parameters as List, actualMember.parameters as List)
+				same &= sameLocals(expectedMember.localVariables as List, actualMember.localVariables as List)
+			}
+
+			return same
+		}
+	}
+
+	private static boolean sameLocals(List expected, List actual) {
+		return expected.size() == actual.size() && [expected, actual].transpose().every { expectedLocal, actualLocal ->
+			boolean same = sameNames(expectedLocal, actualLocal) && expectedLocal.localVariableIndex == actualLocal.localVariableIndex
+
+			if (expectedLocal instanceof LocalVariableDef) {
+				same &= expectedLocal.localVariableStartOffset == actualLocal.localVariableStartOffset
+				same &= expectedLocal.localVariableTableIndex == actualLocal.localVariableTableIndex
+			}
+
+			return same
+		}
+	}
+
+	private static TinyTree parse() {
+		return TinyMappingFactory.loadWithDetection(new BufferedReader(new StringReader(MAPPINGS)))
+	}
+
+	private Path writeMappings() {
+		Path path = temporaryFolder.root.toPath().resolve("mappings.tiny")
+		path.text = MAPPINGS
+		return path
+	}
+}
@@ -0,0 +1,110 @@
+package net.fabricmc.loom.configuration.providers.mappings
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import net.fabricmc.mapping.tree.ClassDef
+import net.fabricmc.mapping.tree.FieldDef
+import net.fabricmc.mapping.tree.MethodDef
+import net.fabricmc.mapping.tree.TinyMappingFactory
+import net.fabricmc.mapping.tree.TinyTree
+
+class MappingIndexTest extends Specification {
+	private static final String MAPPINGS = """tiny\t2\t0\tofficial\tsrg\tnamed
+c\ta\tnet/minecraft/block/Block\tnet/minecraft/block/Block
+\tf\tI\ta\tf_1_\thardness
+\tf\tLb;\tb\tf_2_\tworld
+\tm\t()V\ta\tm_1_\ttick
+\tm\t(Lb;)V\ta\tm_2_\ttick
+c\tb\tnet/minecraft/world/World\tnet/minecraft/world/World
+\tf\tI\ta\tf_3_\ttime
+\tm\t()V\ta\tm_3_\ttick
+\tm\t()Lb;\tb\tm_4_\tgetWorld
+"""
+
+	@Unroll
+	def "lookups in #namespace match scanning the tree"() {
+		given:
+		TinyTree mappings = parse()
+		MappingIndex index = MappingIndex.of(mappings)
+		List<MethodDef> methods = mappings.classes.collectMany { it.methods as List }
+		List<FieldDef> fields = mappings.classes.collectMany { it.fields as List }
+
+		expect:
+		mappings.classes.every { ClassDef klass ->
+			index.getClass(namespace, klass.getName(namespace)).is(klass)
+		}
+
+		mappings.classes.every { ClassDef klass ->
+			klass.methods.every { MethodDef method ->
+				index.getMethod(namespace, klass.getName(namespace), method.getName(namespace), method.getDescriptor(namespace)).is(method)
+			} && klass.fields.every { FieldDef field ->
+				index.getField(namespace, klass.getName(namespace), field.getName(namespace), field.getDescriptor(namespace)).is(field)
+			}
+		}
+
+		methods.every { MethodDef method ->
+			index.getAnyMethod(namespace, method.getName(namespace), method.getDescriptor(namespace)).is(methods.find {
+				it.getName(namespace) == method.getName(namespace) && it.getDescriptor(namespace) == method.getDescriptor(namespace)
+			}) && index.getAnyMethodByName(namespace, method.getName(namespace)).is(methods.find { it.getName(namespace) == method.getName(namespace) })
+		}
+
+		fields.every { FieldDef field ->
+			index.getAnyField(namespace, field.getName(namespace), field.getDescriptor(namespace)).is(fields.find {
+				it.getName(namespace) == field.getName(namespace) && it.getDescriptor(namespace) == field.getDescriptor(namespace)
+			}) && index.getAnyFieldByName(namespace, field.getName(namespace)).is(fields.find { it.getName(namespace) == field.getName(namespace) })
+		}
+
+		where:
+		namespace << ["official", "srg", "named"]
+	}
+
+	def "members without an owner are found in class order"() {
+		given:
+		TinyTree mappings = parse()
+		MappingIndex index = MappingIndex.of(mappings)
+
+		expect:
+		index.getAnyMethodByName("named", "tick").getName("srg") == "m_1_"
+		index.getAnyMethod("named", "tick", "()V").getName("srg") == "m_1_"
+		index.getAnyMethod("named", "tick", "(Lnet/minecraft/world/World;)V").getName("srg") == "m_2_"
+		index.getAnyFieldByName("official", "a").getName("srg") == "f_1_"
+		index.getMethod("named", "net/minecraft/world/World", "tick", "()V").getName("srg") == "m_3_"
+	}
+
+	def "missing names are not found"() {
+		given:
+		MappingIndex index = MappingIndex.of(parse())
+
+		expect:
+		index.getClass("named", "net/minecraft/Missing") == null
+		index.getMethod("named", "net/minecraft/block/Block", "tick", "(I)V") == null
+		index.getField("named", "net/minecraft/world/World", "hardness", "I") == null
+		index.getAnyMethodByName("srg", "m_5_") == null
+		index.getAnyField("srg", "f_1_", "J") == null
+		index.mapClass("official", "named", "b") == "net/minecraft/world/World"
+		index.mapClass("official", "named", "c") == "c"
+	}
+
+	def "unknown namespaces are rejected"() {
+		when:
+		MappingIndex.of(parse()).getClass("intermediary", "a")
+
+		then:
+		IllegalArgumentException e = thrown()
+		e.message.contains("intermediary")
+	}
+
+	def "each tree has one index"() {
+		given:
+		TinyTree mappings = parse()
+
+		expect:
+		MappingIndex.of(mappings).is(MappingIndex.of(mappings))
+		!MappingIndex.of(mappings).is(MappingIndex.of(parse()))
+	}
+
+	private static TinyTree parse() {
+		return TinyMappingFactory.loadWithDetection(new BufferedReader(new StringReader(MAPPINGS)))
+	}
+}
@@ -0,0 +1,147 @@
+package net.fabricmc.loom.configuration.providers.mappings
+
+import java.nio.file.Path
+import java.nio.file.Paths
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import net.fabricmc.mapping.tree.ClassDef
+import net.fabricmc.mapping.tree.LocalVariableDef
+import net.fabricmc.mapping.tree.Mapped
+import net.fabricmc.mapping.tree.MethodDef
+import net.fabricmc.mapping.tree.TinyMappingFactory
+import net.fabricmc.mapping.tree.TinyTree
+
+class TinyMappingsMergerTest extends Specification {
+	private static final String INTERMEDIARY = """tiny\t2\t0\tofficial\tintermediary
+c\ta\tnet/minecraft/class_1
+\tm\t(La;)V\ta\tmethod_1
+"""
+
+	@Rule
+	TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+	def "the merged mappings match the stitch merged ones"() {
+		given:
+		Path out = temporaryFolder.root.toPath().resolve("mappings.tiny")
+
+		when:
+		TinyMappingsMerger.mergeIntermediaryAndYarn(resource("intermediary.tiny"), resource("yarn.tiny"), out)
+
+		then:
+		flatten(parse(out.text)) == flatten(parse(resource("merged.tiny").text))
+	}
+
+	@Unroll
+	def "names are escaped in the merged mappings when #escapedFile has escaped names"() {
+		given:
+		Path intermediary = write("intermediary.tiny", escapedFile == "intermediary" ? withEscapedNames(INTERMEDIARY) : INTERMEDIARY)
+		Path yarn = write("yarn.tiny", escapedFile == "yarn" ? withEscapedNames(yarnMappings) : yarnMappings)
+		Path out = temporaryFolder.root.toPath().resolve("mappings.tiny")
+
+		when:
+		TinyMappingsMerger.mergeIntermediaryAndYarn(intermediary, yarn, out)
+		TinyTree merged = parse(out.text)
+		MethodDef method = merged.defaultNamespaceClassMap["a"].methods.first()
+
+		then:
+		out.readLines().count { it == "\tescaped-names" } == 1
+		out.text.contains("\tnet/minecraft/Block\\\\Old\n")
+		merged.defaultNamespaceClassMap["a"].getName("named") == "net/minecraft/Block\\Old"
+		method.getName("named") == methodName
+		method.parameters.first().getName("named") == "other\\"
+
+		where:
+		escapedFile    | yarnMappings                                                    || methodName
+		"yarn"         | yarn("net/minecraft/Block\\\\Old", "copy\\tblock", "other\\\\") || "copy\tblock"
+		"intermediary" | yarn("net/minecraft/Block\\Old", "copy\\block", "other\\")        || "copy\\block"
+	}
+
+	@Unroll
+	def "escaping #name round trips"() {
+		expect:
+		TinyMappingsMerger.escape(name, true) == escaped
+		TinyMappingsMerger.unescape(escaped) == name
+		TinyMappingsMerger.escape(name, false) == name
+
+		where:
+		name           | escaped
+		"class_1"      | "class_1"
+		"a\\b"         | "a\\\\b"
+		"tab\there"    | "tab\\there"
+		"line\n\r"     | "line\\n\\r"
+		"nul\u0000"    | "nul\\0"
+	}
+
+	def "invalid escapes are rejected"() {
+		when:
+		TinyMappingsMerger.unescape("bad\\q")
+
+		then:
+		IllegalArgumentException e = thrown()
+		e.message.contains("bad\\q")
+	}
+
+	private static String yarn(String className, String methodName, String parameterName) {
+		return """tiny\t2\t0\tintermediary\tnamed
+c\tnet/minecraft/class_1\t${className}
+\tm\t(Lnet/minecraft/class_1;)V\tmethod_1\t${methodName}
+\t\tp\t1\t\t${parameterName}
+"""
+	}
+
+	private static String withEscapedNames(String mappings) {
+		int header = mappings.indexOf('\n') + 1
+		return mappings.substring(0, header) + "\tescaped-names\n" + mappings.substring(header)
+	}
+
+	/**
+	 * Flattens mappings to a sorted list of entries, so that files written in a different order compare equal.
+	 */
+	private static List<String> flatten(TinyTree tree) {
+		List<String> namespaces = tree.metadata.namespaces
+		List<String> entries = ["namespaces " + namespaces, "properties " + tree.metadata.properties]
+
+		for (ClassDef klass : tree.classes) {
+			String classKey = names(klass, namespaces)
+			entries << "c " + classKey + " " + klass.comment
+
+			for (Mapped member : klass.fields + klass.methods) {
+				String memberKey = classKey + " " + member.getDescriptor(namespaces[0]) + " " + names(member, namespaces)
+				entries << memberKey + " " + member.comment
+
+				if (member instanceof MethodDef) {
+					for (Mapped local : member.parameters + member.localVariables) {
+						String position = local instanceof LocalVariableDef
+								? "v " + local.localVariableIndex + " " + local.localVariableStartOffset + " " + local.localVariableTableIndex
+								: "p " + local.localVariableIndex
+						entries << memberKey + " " + position + " " + names(local, namespaces) + " " + local.comment
+					}
+				}
+			}
+		}
+
+		return entries.sort()
+	}
+
+	private static String names(Mapped mapped, List<String> namespaces) {
+		return namespaces.collect { mapped.getRawName(it) }.join("|")
+	}
+
+	private static TinyTree parse(String mappings) {
+		return TinyMappingFactory.loadWithDetection(new BufferedReader(new StringReader(mappings)))
+	}
+
+	private static Path resource(String name) {
+		return Paths.get(TinyMappingsMergerTest.getResource("/mappings/merge/" + name).toURI())
+	}
+
+	private Path write(String name, String mappings) {
+		Path path = temporaryFolder.root.toPath().resolve(name)
+		path.text = mappings
+		return path
+	}
+}
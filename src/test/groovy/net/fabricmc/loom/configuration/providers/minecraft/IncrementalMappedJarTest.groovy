@@ -0,0 +1,299 @@
+package net.fabricmc.loom.configuration.providers.minecraft
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import java.util.zip.ZipOutputStream
+
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import org.objectweb.asm.ClassReader
+import org.objectweb.asm.ClassVisitor
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.Label
+import org.objectweb.asm.MethodVisitor
+import org.objectweb.asm.Opcodes
+import org.objectweb.asm.commons.ClassRemapper
+import org.objectweb.asm.commons.Remapper
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import net.fabricmc.mapping.tree.ClassDef
+import net.fabricmc.mapping.tree.Descriptored
+import net.fabricmc.mapping.tree.LocalVariableDef
+import net.fabricmc.mapping.tree.MethodDef
+import net.fabricmc.mapping.tree.ParameterDef
+import net.fabricmc.mapping.tree.TinyMappingFactory
+import net.fabricmc.mapping.tree.TinyTree
+
+class IncrementalMappedJarTest extends Specification {
+	private static final Logger LOGGER = Logging.getLogger(IncrementalMappedJarTest)
+	// Unrelated classes, so that the changed classes stay below the share that makes a full remap cheaper
+	private static final int UNRELATED_CLASSES = 8
+	private static final String MAPPINGS = """tiny\t2\t0\tofficial\tintermediary\tnamed
+c\ta\tclass_1\tBase
+\tf\tI\tf\tfield_1\tcount
+\tm\t()V\tm\tmethod_1\twork
+c\tb\tclass_2\tChild
+\tm\t()V\tn\tmethod_2\trun
+c\tc\tclass_3\tUser
+\tm\t(Ld;)V\tu\tmethod_3\tuse
+c\td\tclass_4\tTarget
+c\te\tclass_5\tOuter
+c\te\$i\tclass_5\$class_6\tOuter\$Inner
+c\tg\tclass_7\tLocals
+\tm\t(I)I\tr\tmethod_4\tsum
+\t\tp\t1\t\t\tamount
+\t\tv\t2\t2\t1\t\t\ttotal
+"""
+
+	@Rule
+	TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+	@Unroll
+	def "reusing the previous jar matches a full remap when #change"() {
+		given:
+		Path input = writeJar("input.jar", inputClasses())
+		Path oldMappingsFile = temporaryFolder.root.toPath().resolve("old.tiny")
+		oldMappingsFile.text = MAPPINGS
+		TinyTree oldMappings = parse(MAPPINGS)
+		TinyTree newMappings = parse(MAPPINGS.replace(from, to))
+
+		Path previous = writeJar("minecraft-old.jar", remap(input, null, oldMappings))
+		IncrementalMappedJar.writeState(previous, oldMappingsFile, input)
+
+		when:
+		IncrementalMappedJar incremental = IncrementalMappedJar.find([previous], input, newMappings, LOGGER)
+		Path affectedJar = temporaryFolder.root.toPath().resolve("affected.jar")
+		Path reusedJar = temporaryFolder.root.toPath().resolve("reused.jar")
+		incremental.splitInput(input, affectedJar, reusedJar)
+		Map<String, byte[]> classes = remap(affectedJar, reusedJar, newMappings)
+		incremental.copyReused { String name, byte[] data -> classes[name + ".class"] = data }
+		Map<String, byte[]> expected = remap(input, null, newMappings)
+
+		then:
+		incremental.affectedCount == affected
+		classes.keySet() == expected.keySet()
+		expected.every { String name, byte[] data -> Arrays.equals(classes[name], data) }
+
+		where:
+		change                                                    | from                   | to                      | affected
+		"a class referenced only through a descriptor is renamed" | "class_4\tTarget"      | "class_4\tDestination"  | 2
+		"an inherited method is renamed"                          | "method_1\twork"       | "method_1\tperform"     | 2
+		"an inner class is renamed"                               | "Outer\$Inner"         | "Outer\$Nested"         | 2
+		"a local is renamed"                                      | "\ttotal"              | "\tresult"              | 1
+	}
+
+	def "a jar remapped from another input is not reused"() {
+		given:
+		Path input = writeJar("input.jar", inputClasses())
+		Path otherInput = writeJar("other.jar", [:])
+		Path mappingsFile = temporaryFolder.root.toPath().resolve("old.tiny")
+		mappingsFile.text = MAPPINGS
+		TinyTree mappings = parse(MAPPINGS)
+		Path previous = writeJar("minecraft-old.jar", remap(input, null, mappings))
+		IncrementalMappedJar.writeState(previous, mappingsFile, otherInput)
+
+		expect:
+		IncrementalMappedJar.find([previous], input, mappings, LOGGER) == null
+	}
+
+	/**
+	 * The official classes covering each kind of reference to a mapped name.
+	 */
+	private static Map<String, byte[]> inputClasses() {
+		Map<String, byte[]> classes = [:]
+
+		// a has a field and a method, b calls the method it inherits through its own name
+		classes["a.class"] = type("a", "java/lang/Object") { ClassWriter writer ->
+			writer.visitField(Opcodes.ACC_PUBLIC, "f", "I", null, null).visitEnd()
+			method(writer, Opcodes.ACC_PUBLIC, "m", "()V") { MethodVisitor code ->
+				code.visitInsn(Opcodes.RETURN)
+			}
+		}
+		classes["b.class"] = type("b", "a") { ClassWriter writer ->
+			method(writer, Opcodes.ACC_PUBLIC, "n", "()V") { MethodVisitor code ->
+				code.visitVarInsn(Opcodes.ALOAD, 0)
+				code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "b", "m", "()V", false)
+				code.visitInsn(Opcodes.RETURN)
+			}
+		}
+
+		// c only refers to d in a method descriptor
+		classes["c.class"] = type("c", "java/lang/Object") { ClassWriter writer ->
+			method(writer, Opcodes.ACC_PUBLIC, "u", "(Ld;)V") { MethodVisitor code ->
+				code.visitInsn(Opcodes.RETURN)
+			}
+		}
+		classes["d.class"] = type("d", "java/lang/Object") { }
+
+		// e$i is an inner class of e
+		classes["e.class"] = type("e", "java/lang/Object") { ClassWriter writer ->
+			writer.visitInnerClass("e\$i", "e", "i", Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC)
+		}
+		classes["e\$i.class"] = type("e\$i", "java/lang/Object") { ClassWriter writer ->
+			writer.visitOuterClass("e", null, null)
+			writer.visitInnerClass("e\$i", "e", "i", Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC)
+		}
+
+		// g has a parameter and a local
+		classes["g.class"] = type("g", "java/lang/Object") { ClassWriter writer ->
+			method(writer, Opcodes.ACC_PUBLIC, "r", "(I)I") { MethodVisitor code ->
+				Label start = new Label()
+				Label end = new Label()
+				code.visitVarInsn(Opcodes.ILOAD, 1)
+				code.visitVarInsn(Opcodes.ISTORE, 2)
+				code.visitLabel(start)
+				code.visitVarInsn(Opcodes.ILOAD, 2)
+				code.visitInsn(Opcodes.IRETURN)
+				code.visitLabel(end)
+				code.visitLocalVariable("this", "Lg;", null, start, end, 0)
+				code.visitLocalVariable("x", "I", null, start, end, 1)
+				code.visitLocalVariable("y", "I", null, start, end, 2)
+			}
+		}
+
+		for (int i = 0; i < UNRELATED_CLASSES; i++) {
+			classes["z" + i + ".class"] = type("z" + i, "java/lang/Object") { }
+		}
+
+		return classes
+	}
+
+	private static byte[] type(String name, String superName, Closure body) {
+		ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS)
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, superName, null)
+		body(writer)
+		writer.visitEnd()
+		return writer.toByteArray()
+	}
+
+	private static void method(ClassWriter writer, int access, String name, String descriptor, Closure body) {
+		MethodVisitor code = writer.visitMethod(access, name, descriptor, null, null)
+		code.visitCode()
+		body(code)
+		code.visitMaxs(0, 0)
+		code.visitEnd()
+	}
+
+	/**
+	 * Remaps the classes of a jar from official to named, the reference that an incremental remap has to match.
+	 * Members are looked up through the hierarchy like tiny-remapper does, so the classpath has to contain the supertypes.
+	 */
+	private static Map<String, byte[]> remap(Path jar, Path classpath, TinyTree mappings) {
+		Map<String, byte[]> input = read(jar)
+		Map<String, String> supers = [:]
+		(input + (classpath != null ? read(classpath) : [:])).each { String name, byte[] data ->
+			ClassReader reader = new ClassReader(data)
+			supers[reader.className] = reader.superName
+		}
+
+		Map<String, ClassDef> classes = [:]
+		mappings.classes.each { ClassDef mapping -> classes[mapping.getName("official")] = mapping }
+
+		Remapper remapper = new Remapper() {
+			@Override
+			String map(String internalName) {
+				ClassDef mapping = classes[internalName]
+				return mapping != null ? mapping.getName("named") : internalName
+			}
+
+			@Override
+			String mapMethodName(String owner, String name, String descriptor) {
+				return mapMember(owner, name, descriptor, true)
+			}
+
+			@Override
+			String mapFieldName(String owner, String name, String descriptor) {
+				return mapMember(owner, name, descriptor, false)
+			}
+
+			private String mapMember(String owner, String name, String descriptor, boolean method) {
+				for (String type = owner; type != null; type = supers[type]) {
+					ClassDef mapping = classes[type]
+					Collection<Descriptored> members = mapping == null ? [] : (method ? mapping.methods : mapping.fields)
+					Descriptored member = members.find { it.getName("official") == name && it.getDescriptor("official") == descriptor }
+
+					if (member != null) {
+						return member.getName("named")
+					}
+				}
+
+				return name
+			}
+		}
+
+		Map<String, byte[]> output = [:]
+		input.each { String name, byte[] data ->
+			ClassReader reader = new ClassReader(data)
+			ClassWriter writer = new ClassWriter(0)
+			reader.accept(new LocalRenamer(new ClassRemapper(writer, remapper), classes[reader.className]), 0)
+			output[remapper.map(reader.className) + ".class"] = writer.toByteArray()
+		}
+
+		return output
+	}
+
+	private static TinyTree parse(String mappings) {
+		return TinyMappingFactory.loadWithDetection(new BufferedReader(new StringReader(mappings)))
+	}
+
+	private static Map<String, byte[]> read(Path jar) {
+		Map<String, byte[]> classes = [:]
+
+		new ZipFile(jar.toFile()).withCloseable { ZipFile zip ->
+			zip.entries().each { ZipEntry entry -> classes[entry.name] = zip.getInputStream(entry).bytes }
+		}
+
+		return classes
+	}
+
+	private Path writeJar(String name, Map<String, byte[]> classes) {
+		Path jar = temporaryFolder.root.toPath().resolve(name)
+
+		new ZipOutputStream(Files.newOutputStream(jar)).withCloseable { ZipOutputStream zip ->
+			classes.each { String entry, byte[] data ->
+				zip.putNextEntry(new ZipEntry(entry))
+				zip.write(data)
+				zip.closeEntry()
+			}
+		}
+
+		return jar
+	}
+
+	/**
+	 * Names the parameters and locals of the methods of a class from the mappings, by local variable index.
+	 */
+	private static final class LocalRenamer extends ClassVisitor {
+		private final ClassDef mappings
+
+		LocalRenamer(ClassVisitor next, ClassDef mappings) {
+			super(Opcodes.ASM9, next)
+			this.mappings = mappings
+		}
+
+		@Override
+		MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+			MethodVisitor next = super.visitMethod(access, name, descriptor, signature, exceptions)
+			MethodDef method = mappings?.methods?.find { it.getName("official") == name && it.getDescriptor("official") == descriptor }
+
+			if (method == null) {
+				return next
+			}
+
+			return new MethodVisitor(Opcodes.ASM9, next) {
+				@Override
+				void visitLocalVariable(String localName, String localDescriptor, String localSignature, Label start, Label end, int index) {
+					ParameterDef parameter = method.parameters.find { it.localVariableIndex == index }
+					LocalVariableDef local = method.localVariables.find { it.localVariableIndex == index }
+					String mapped = parameter != null ? parameter.getName("named") : local != null ? local.getName("named") : localName
+					super.visitLocalVariable(mapped, localDescriptor, localSignature, start, end, index)
+				}
+			}
+		}
+	}
+}
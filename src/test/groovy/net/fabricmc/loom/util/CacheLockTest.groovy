@@ -0,0 +1,103 @@
+package net.fabricmc.loom.util
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class CacheLockTest extends Specification {
+	private static final Logger LOGGER = Logging.getLogger(CacheLockTest)
+
+	@Rule
+	TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+	def "a released lock is not dirty"() {
+		given:
+		Path entry = temporaryFolder.root.toPath().resolve("entry.jar")
+		Path lockFile = entry.resolveSibling("entry.jar.lock")
+
+		when:
+		CacheLock first = CacheLock.acquire(entry, LOGGER)
+		long recordSize = Files.size(lockFile)
+		first.close()
+		CacheLock second = CacheLock.acquire(entry, LOGGER)
+		second.close()
+
+		then:
+		recordSize > 0
+		!first.dirty
+		!second.dirty
+		Files.size(lockFile) == 0
+	}
+
+	def "a record left by a dead owner makes the entry dirty"() {
+		given:
+		Path entry = temporaryFolder.root.toPath().resolve("entry.jar")
+		entry.resolveSibling("entry.jar.lock").write("1234@host since yesterday")
+
+		when:
+		CacheLock lock = CacheLock.acquire(entry, LOGGER)
+		lock.close()
+
+		then:
+		lock.dirty
+	}
+
+	def "nested acquisitions on one thread do not block"() {
+		given:
+		Path entry = temporaryFolder.root.toPath().resolve("entry")
+
+		when:
+		CacheLock outer = CacheLock.acquire(entry, LOGGER)
+		CacheLock inner = CacheLock.acquire(entry, LOGGER)
+		inner.close()
+		outer.close()
+
+		then:
+		!inner.dirty
+		!outer.dirty
+	}
+
+	def "other threads wait for the lock to be released"() {
+		given:
+		Path entry = temporaryFolder.root.toPath().resolve("entry")
+		CountDownLatch acquired = new CountDownLatch(1)
+		CacheLock lock = CacheLock.acquire(entry, LOGGER)
+		Thread waiter = Thread.start {
+			CacheLock.acquire(entry, LOGGER).close()
+			acquired.countDown()
+		}
+
+		when:
+		boolean acquiredWhileHeld = acquired.await(500, TimeUnit.MILLISECONDS)
+		lock.close()
+		boolean acquiredAfterRelease = acquired.await(10, TimeUnit.SECONDS)
+		waiter.join()
+
+		then:
+		!acquiredWhileHeld
+		acquiredAfterRelease
+	}
+
+	def "publishing replaces the target"() {
+		given:
+		Path target = temporaryFolder.root.toPath().resolve("mappings.tiny")
+		Path temp = CacheLock.tempFile(target)
+		target.write("old")
+		temp.write("new")
+
+		when:
+		CacheLock.publish(temp, target)
+
+		then:
+		target.text == "new"
+		Files.notExists(temp)
+		temp.fileName.toString() == "mappings.tiny.tmp"
+	}
+}
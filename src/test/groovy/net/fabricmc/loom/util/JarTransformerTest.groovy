@@ -0,0 +1,166 @@
+package net.fabricmc.loom.util
+
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.ForkJoinPool
+import java.util.zip.Deflater
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Shared
+import spock.lang.Specification
+
+class JarTransformerTest extends Specification {
+	private static final long TIME = 1589722930000L
+
+	@Rule
+	TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+	@Shared
+	ForkJoinPool pool = new ForkJoinPool(2)
+
+	def cleanupSpec() {
+		pool.shutdown()
+	}
+
+	def "later sources replace or only add entries"() {
+		given:
+		RawZipFile first = zip("first.zip", ["a.txt": "first a", "b.txt": "first b"])
+		RawZipFile second = zip("second.zip", ["b.txt": "second b", "c.txt": "second c"])
+		RawZipFile third = zip("third.zip", ["a.txt": "third a", "d.txt": "third d"])
+
+		when:
+		RawZipFile output = write(new JarTransformer()
+				.add(first, { true }, false, null)
+				.add(second, { true }, true, null)
+				.add(third, { true }, false, null))
+
+		then:
+		output.entries*.name == ["a.txt", "b.txt", "c.txt", "d.txt"]
+		text(output, "a.txt") == "first a"
+		text(output, "b.txt") == "second b"
+		text(output, "d.txt") == "third d"
+	}
+
+	def "entries are filtered and renamed, and empty names are dropped"() {
+		given:
+		RawZipFile source = zip("source.zip", ["keep/a.txt": "a", "drop/b.txt": "b", "skip.txt": "skip", "META-INF/MANIFEST.MF": "manifest"])
+
+		when:
+		RawZipFile output = write(new JarTransformer().add(source, { String name -> name != "skip.txt" }, { String name ->
+			name.startsWith("drop/") ? "" : name.replace("keep/", "kept/")
+		}, false, null))
+
+		then:
+		output.entries*.name == ["kept/a.txt", "META-INF/MANIFEST.MF"]
+		text(output, "kept/a.txt") == "a"
+	}
+
+	def "unchanged entries are copied raw and changed ones are written"() {
+		given:
+		String contents = (0..<200).collect { int i -> "line " + (i * 7919 % 1000) }.join("\n")
+		RawZipFile source = zip("source.zip", ["a.txt": contents, "b.txt": contents])
+		List<String> seen = []
+		JarTransformer.EntryTransformer transformer = { String name, byte[] data ->
+			seen << name
+			return name == "b.txt" ? "changed".getBytes("UTF-8") : data
+		}
+
+		when:
+		RawZipFile output = write(new JarTransformer().add(source, { true }, false, transformer))
+
+		then:
+		seen == ["a.txt", "b.txt"]
+		bytes(output.getRawData(output.getEntry("a.txt"))) == bytes(source.getRawData(source.getEntry("a.txt")))
+		text(output, "b.txt") == "changed"
+		output.getEntry("b.txt").dosTime == source.getEntry("b.txt").dosTime
+	}
+
+	def "in-memory entries are written with the given time"() {
+		when:
+		RawZipFile output = write(new JarTransformer().add(["a.txt": "a".getBytes("UTF-8")], TIME, false, null))
+
+		then:
+		text(output, "a.txt") == "a"
+		output.getEntry("a.txt").dosTime == RawZipWriter.toDosTime(TIME)
+	}
+
+	def "transforming on a pool gives the same jar"() {
+		given:
+		Map<String, String> files = (0..<32).collectEntries { int i -> ["file" + i + ".txt", "contents " * i] }
+		RawZipFile source = zip("source.zip", files)
+		JarTransformer.EntryTransformer transformer = { String name, byte[] data ->
+			return name.hashCode() % 2 == 0 ? (new String(data, "UTF-8") + name).getBytes("UTF-8") : data
+		}
+
+		Path sequential = temporaryFolder.root.toPath().resolve("sequential.jar")
+		Path parallel = temporaryFolder.root.toPath().resolve("parallel.jar")
+
+		when:
+		new JarTransformer().add(source, { true }, false, transformer).write(sequential)
+		new JarTransformer().add(source, { true }, false, transformer).write(parallel, pool)
+
+		then:
+		Files.readAllBytes(sequential) == Files.readAllBytes(parallel)
+	}
+
+	def "the output is deleted when a transformer fails"() {
+		given:
+		RawZipFile source = zip("source.zip", ["a.txt": "a"])
+		Path output = temporaryFolder.root.toPath().resolve("output.jar")
+		JarTransformer.EntryTransformer transformer = { String name, byte[] data ->
+			throw new IOException("Failed to transform " + name)
+		}
+
+		when:
+		new JarTransformer().add(source, { true }, false, transformer).write(output)
+
+		then:
+		IOException e = thrown()
+		e.message == "Failed to transform a.txt"
+		Files.notExists(output)
+	}
+
+	/**
+	 * Writes a zip with a different compression level than {@link RawZipWriter}, so that raw copies can be told apart.
+	 */
+	private RawZipFile zip(String name, Map<String, String> files) {
+		Path path = temporaryFolder.root.toPath().resolve(name)
+
+		path.withOutputStream { OutputStream out ->
+			ZipOutputStream zip = new ZipOutputStream(out)
+			zip.level = Deflater.BEST_SPEED
+
+			files.each { String file, String contents ->
+				ZipEntry entry = new ZipEntry(file)
+				entry.time = TIME
+				zip.putNextEntry(entry)
+				zip.write(contents.getBytes("UTF-8"))
+				zip.closeEntry()
+			}
+
+			zip.finish()
+		}
+
+		return RawZipFile.open(path)
+	}
+
+	private RawZipFile write(JarTransformer transformer) {
+		Path path = temporaryFolder.root.toPath().resolve("output.jar")
+		transformer.write(path)
+		return RawZipFile.open(path)
+	}
+
+	private static String text(RawZipFile zip, String name) {
+		return new String(zip.getData(zip.getEntry(name)), "UTF-8")
+	}
+
+	private static byte[] bytes(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()]
+		buffer.duplicate().get(bytes)
+		return bytes
+	}
+}
@@ -0,0 +1,117 @@
+package net.fabricmc.loom.util
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.time.LocalDateTime
+import java.time.ZoneId
+import java.util.zip.CRC32
+import java.util.zip.ZipEntry
+import java.util.zip.ZipException
+import java.util.zip.ZipOutputStream
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class RawZipFileTest extends Specification {
+	private static final byte[] CLASS_DATA = ("class data " * 64).getBytes("UTF-8")
+	private static final byte[] STORED_DATA = "stored".getBytes("UTF-8")
+	private static final long TIME = LocalDateTime.of(2020, 5, 17, 13, 42, 10).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+
+	@Rule
+	TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+	def "entries are read in order with their metadata"() {
+		when:
+		RawZipFile zip = RawZipFile.open(writeZip())
+
+		then:
+		zip.entries*.name == ["META-INF/", "a/B.class", "stored.txt", "caf\u00e9.txt"]
+		zip.getEntry("META-INF/").directory
+		!zip.getEntry("a/B.class").directory
+		zip.getEntry("a/B.class").method == ZipEntry.DEFLATED
+		zip.getEntry("stored.txt").method == ZipEntry.STORED
+		zip.getEntry("a/B.class").size == CLASS_DATA.length
+		zip.getEntry("a/B.class").crc == crc(CLASS_DATA)
+		zip.getEntry("a/B.class").dosTime == RawZipWriter.toDosTime(TIME)
+		zip.getEntry("missing") == null
+	}
+
+	def "the data of stored and deflated entries is read back"() {
+		when:
+		RawZipFile zip = RawZipFile.open(writeZip())
+
+		then:
+		zip.getData(zip.getEntry("a/B.class")) == CLASS_DATA
+		zip.getData(zip.getEntry("stored.txt")) == STORED_DATA
+		zip.getData(zip.getEntry("caf\u00e9.txt")) == STORED_DATA
+		zip.getData(zip.getEntry("META-INF/")).length == 0
+		zip.getRawData(zip.getEntry("a/B.class")).remaining() < CLASS_DATA.length
+		zip.getRawData(zip.getEntry("stored.txt")).remaining() == STORED_DATA.length
+	}
+
+	def "closed zips no longer hold their file"() {
+		given:
+		Path path = writeZip()
+		RawZipFile zip = RawZipFile.open(path)
+		byte[] data = zip.getData(zip.getEntry("a/B.class"))
+
+		when:
+		zip.close()
+		zip.close()
+
+		then:
+		data == CLASS_DATA
+		Files.deleteIfExists(path)
+	}
+
+	def "files that are not zips are rejected"() {
+		when:
+		RawZipFile.of("not a zip file, but long enough to look for the end header".getBytes("UTF-8"))
+
+		then:
+		ZipException e = thrown()
+		e.message.contains("end of the central directory")
+	}
+
+	private Path writeZip() {
+		Path path = temporaryFolder.root.toPath().resolve("test.zip")
+
+		path.withOutputStream { OutputStream out ->
+			ZipOutputStream zip = new ZipOutputStream(out)
+			zip.putNextEntry(entry("META-INF/"))
+			zip.closeEntry()
+			zip.putNextEntry(entry("a/B.class"))
+			zip.write(CLASS_DATA)
+			zip.closeEntry()
+			putStored(zip, "stored.txt")
+			putStored(zip, "caf\u00e9.txt")
+			zip.finish()
+		}
+
+		return path
+	}
+
+	private static void putStored(ZipOutputStream zip, String name) {
+		ZipEntry entry = entry(name)
+		entry.method = ZipEntry.STORED
+		entry.size = STORED_DATA.length
+		entry.compressedSize = STORED_DATA.length
+		entry.crc = Integer.toUnsignedLong(crc(STORED_DATA))
+		zip.putNextEntry(entry)
+		zip.write(STORED_DATA)
+		zip.closeEntry()
+	}
+
+	private static ZipEntry entry(String name) {
+		ZipEntry entry = new ZipEntry(name)
+		entry.time = TIME
+		return entry
+	}
+
+	private static int crc(byte[] data) {
+		CRC32 crc = new CRC32()
+		crc.update(data)
+		return (int) crc.value
+	}
+}
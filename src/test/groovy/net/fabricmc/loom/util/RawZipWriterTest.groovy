@@ -0,0 +1,124 @@
+package net.fabricmc.loom.util
+
+import java.nio.ByteBuffer
+import java.nio.file.Path
+import java.time.LocalDateTime
+import java.time.ZoneId
+import java.util.zip.ZipEntry
+import java.util.zip.ZipException
+import java.util.zip.ZipFile
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class RawZipWriterTest extends Specification {
+	private static final byte[] DATA = ("some data " * 64).getBytes("UTF-8")
+	private static final long TIME = LocalDateTime.of(2020, 5, 17, 13, 42, 10).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+
+	@Rule
+	TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+	def "written entries are read back by java.util.zip"() {
+		given:
+		Path path = temporaryFolder.root.toPath().resolve("out.zip")
+
+		when:
+		new RawZipWriter(path).withCloseable { RawZipWriter writer ->
+			writer.write("dir/", new byte[0], RawZipWriter.toDosTime(TIME))
+			writer.write("dir/data.txt", DATA, RawZipWriter.toDosTime(TIME))
+			writer.write("empty.txt", new byte[0], RawZipWriter.toDosTime(TIME))
+			writer.write("caf\u00e9.txt", DATA, RawZipWriter.toDosTime(TIME))
+		}
+
+		ZipFile zip = new ZipFile(path.toFile())
+
+		then:
+		zip.entries().toList()*.name == ["dir/", "dir/data.txt", "empty.txt", "caf\u00e9.txt"]
+		zip.getEntry("dir/data.txt").method == ZipEntry.DEFLATED
+		zip.getEntry("empty.txt").method == ZipEntry.STORED
+		zip.getEntry("dir/data.txt").time == TIME
+		zip.getInputStream(zip.getEntry("dir/data.txt")).bytes == DATA
+		zip.getInputStream(zip.getEntry("caf\u00e9.txt")).bytes == DATA
+
+		cleanup:
+		zip?.close()
+	}
+
+	def "copied entries keep their raw data"() {
+		given:
+		Path source = temporaryFolder.root.toPath().resolve("source.zip")
+		Path path = temporaryFolder.root.toPath().resolve("out.zip")
+		new RawZipWriter(source).withCloseable { RawZipWriter writer ->
+			writer.write("data.txt", DATA, RawZipWriter.toDosTime(TIME))
+		}
+
+		RawZipFile sourceZip = RawZipFile.open(source)
+		RawZipFile.Entry entry = sourceZip.getEntry("data.txt")
+
+		when:
+		new RawZipWriter(path).withCloseable { RawZipWriter writer ->
+			writer.copy(sourceZip, entry)
+			writer.copy("renamed.txt", sourceZip, entry)
+		}
+
+		RawZipFile copied = RawZipFile.open(path)
+
+		then:
+		copied.entries*.name == ["data.txt", "renamed.txt"]
+		copied.entries.every { RawZipFile.Entry copy ->
+			bytes(copied.getRawData(copy)) == bytes(sourceZip.getRawData(entry))
+					&& copy.crc == entry.crc && copy.dosTime == entry.dosTime && copy.size == entry.size
+		}
+
+		copied.getData(copied.getEntry("renamed.txt")) == DATA
+	}
+
+	def "duplicate entries are rejected"() {
+		given:
+		RawZipWriter writer = new RawZipWriter(temporaryFolder.root.toPath().resolve("out.zip"))
+		writer.write("data.txt", DATA, 0)
+
+		when:
+		writer.write("data.txt", DATA, 0)
+
+		then:
+		ZipException e = thrown()
+		e.message == "Duplicate entry: data.txt"
+
+		cleanup:
+		writer.close()
+	}
+
+	@Unroll
+	def "dos time of #date matches java.util.zip"() {
+		given:
+		long time = date.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+		Path path = temporaryFolder.root.toPath().resolve("out.zip")
+
+		when:
+		new RawZipWriter(path).withCloseable { RawZipWriter writer ->
+			writer.write("data.txt", DATA, RawZipWriter.toDosTime(time))
+		}
+
+		ZipFile zip = new ZipFile(path.toFile())
+		long read = zip.getEntry("data.txt").time
+		zip.close()
+
+		then:
+		read == expected.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+
+		where:
+		date                                     || expected
+		LocalDateTime.of(2020, 5, 17, 13, 42, 10) || LocalDateTime.of(2020, 5, 17, 13, 42, 10)
+		LocalDateTime.of(2020, 5, 17, 13, 42, 11) || LocalDateTime.of(2020, 5, 17, 13, 42, 10)
+		LocalDateTime.of(1970, 1, 1, 0, 0, 0)     || LocalDateTime.of(1980, 1, 1, 0, 0, 0)
+	}
+
+	private static byte[] bytes(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()]
+		buffer.duplicate().get(bytes)
+		return bytes
+	}
+}
@@ -0,0 +1,63 @@
+package net.fabricmc.loom.util
+
+import java.util.concurrent.CopyOnWriteArrayList
+
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class TaskGraphTest extends Specification {
+	private static final Logger LOGGER = Logging.getLogger(TaskGraphTest)
+
+	def "tasks run after their dependencies"() {
+		given:
+		List<String> order = new CopyOnWriteArrayList<>()
+		TaskGraph graph = new TaskGraph()
+		TaskGraph.Task client = graph.add("client", { order << "client" } as ThreadingUtils.UnsafeRunnable)
+		TaskGraph.Task server = graph.add("server", { order << "server" } as ThreadingUtils.UnsafeRunnable)
+		TaskGraph.Task merge = graph.add("merge", { order << "merge" } as ThreadingUtils.UnsafeRunnable, client, server)
+		graph.add("finish", { order << "finish" } as ThreadingUtils.UnsafeRunnable, merge, null)
+
+		when:
+		graph.run(LOGGER)
+
+		then:
+		order.size() == 4
+		order.subList(0, 2).toSet() == ["client", "server"] as Set
+		order.subList(2, 4) == ["merge", "finish"]
+	}
+
+	@Unroll
+	def "a failing task stops its dependents (#failure.class.simpleName)"() {
+		given:
+		List<String> order = new CopyOnWriteArrayList<>()
+		TaskGraph graph = new TaskGraph()
+		TaskGraph.Task patch = graph.add("patch", { throw failure } as ThreadingUtils.UnsafeRunnable)
+		graph.add("merge", { order << "merge" } as ThreadingUtils.UnsafeRunnable, patch)
+
+		when:
+		graph.run(LOGGER)
+
+		then:
+		RuntimeException e = thrown()
+		e.message == "Failed to run setup task 'patch'"
+		e.cause.is(failure)
+		order.isEmpty()
+
+		where:
+		failure << [new IOException("checked"), new IllegalStateException("unchecked")]
+	}
+
+	def "an empty graph does nothing"() {
+		given:
+		TaskGraph graph = new TaskGraph()
+
+		when:
+		graph.run(LOGGER)
+
+		then:
+		graph.empty
+		noExceptionThrown()
+	}
+}
@@ -0,0 +1,86 @@
+package net.fabricmc.loom.util.srg
+
+import java.nio.file.Path
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import java.util.zip.ZipOutputStream
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.MethodVisitor
+import org.objectweb.asm.Opcodes
+import spock.lang.Specification
+
+import net.fabricmc.mapping.tree.TinyMappingFactory
+import net.fabricmc.mapping.tree.TinyTree
+
+class AccessTransformerDeltaTest extends Specification {
+	private static final String MAPPINGS = """tiny\t2\t0\tsrg\tnamed
+c\tX\tNamed
+\tf\tI\tf_1_\tcount
+\tm\t()V\tm_1_\topen
+"""
+
+	@Rule
+	TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+	def "replaying the delta matches running the access transformer"() {
+		given:
+		TinyTree mappings = TinyMappingFactory.loadWithDetection(new BufferedReader(new StringReader(MAPPINGS)))
+		Path srg = jar("srg.jar", "X", "f_1_", "m_1_")
+		Path srgTransformed = temporaryFolder.root.toPath().resolve("srg-at.jar")
+		Path named = jar("named.jar", "Named", "count", "open")
+		Path namedTransformed = temporaryFolder.root.toPath().resolve("named-at.jar")
+
+		ForgeAccessTransformer.parse("public X f_1_\npublic X m_1_()V").apply(srg, srgTransformed, null)
+		ForgeAccessTransformer.parse("public Named count\npublic Named open()V").apply(named, namedTransformed, null)
+
+		when:
+		AccessTransformerDelta delta = AccessTransformerDelta.compute(srg, srgTransformed)
+		delta.apply(named, mappings, "named")
+
+		then:
+		delta.classes as List == ["X"]
+		read(named, "Named.class") == read(namedTransformed, "Named.class")
+	}
+
+	/**
+	 * Writes a jar with a class that has a private field and a private method, called with {@code invokespecial}.
+	 */
+	private Path jar(String fileName, String className, String fieldName, String methodName) {
+		ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS)
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, className, null, "java/lang/Object", null)
+		writer.visitField(Opcodes.ACC_PRIVATE, fieldName, "I", null, null).visitEnd()
+
+		MethodVisitor method = writer.visitMethod(Opcodes.ACC_PRIVATE, methodName, "()V", null, null)
+		method.visitCode()
+		method.visitInsn(Opcodes.RETURN)
+		method.visitMaxs(0, 0)
+		method.visitEnd()
+
+		MethodVisitor caller = writer.visitMethod(Opcodes.ACC_PUBLIC, "run", "()V", null, null)
+		caller.visitCode()
+		caller.visitVarInsn(Opcodes.ALOAD, 0)
+		caller.visitMethodInsn(Opcodes.INVOKESPECIAL, className, methodName, "()V", false)
+		caller.visitInsn(Opcodes.RETURN)
+		caller.visitMaxs(0, 0)
+		caller.visitEnd()
+		writer.visitEnd()
+
+		Path path = temporaryFolder.root.toPath().resolve(fileName)
+		new ZipOutputStream(path.newOutputStream()).withCloseable { ZipOutputStream zip ->
+			zip.putNextEntry(new ZipEntry(className + ".class"))
+			zip.write(writer.toByteArray())
+			zip.closeEntry()
+		}
+
+		return path
+	}
+
+	private static byte[] read(Path jar, String name) {
+		new ZipFile(jar.toFile()).withCloseable { ZipFile zip ->
+			return zip.getInputStream(zip.getEntry(name)).bytes
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package net.fabricmc.loom.util.srg
+
+import java.nio.file.Path
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import org.objectweb.asm.ClassReader
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.MethodVisitor
+import org.objectweb.asm.Opcodes
+import org.objectweb.asm.tree.ClassNode
+import org.objectweb.asm.tree.MethodInsnNode
+import org.objectweb.asm.tree.MethodNode
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import net.fabricmc.loom.util.RawZipFile
+import net.fabricmc.loom.util.RawZipWriter
+
+class ForgeAccessTransformerTest extends Specification {
+	@Rule
+	TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+	def "classes, fields and methods are widened"() {
+		given:
+		ForgeAccessTransformer transformer = ForgeAccessTransformer.parse("""# A comment
+public a.B # The class
+public-f a.B field
+protected a.B method()V
+
+protected a.B\$C
+""")
+
+		when:
+		ClassNode node = read(transformer.transform("a/B.class", outerClass()))
+
+		then:
+		node.access == (Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER)
+		node.fields.find { it.name == "field" }.access == Opcodes.ACC_PUBLIC
+		node.fields.find { it.name == "other" }.access == (Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL)
+		node.methods.find { it.name == "method" }.access == Opcodes.ACC_PROTECTED
+		node.innerClasses.find { it.name == "a/B\$C" }.access == (Opcodes.ACC_PROTECTED | Opcodes.ACC_STATIC)
+	}
+
+	def "calls to methods that are no longer private become virtual"() {
+		given:
+		ForgeAccessTransformer transformer = ForgeAccessTransformer.parse("public a.B method()V")
+
+		when:
+		ClassNode node = read(transformer.transform("a/B.class", outerClass()))
+		MethodInsnNode call = node.methods.find { it.name == "run" }.instructions.find { it instanceof MethodInsnNode }
+
+		then:
+		call.name == "method"
+		call.opcode == Opcodes.INVOKEVIRTUAL
+	}
+
+	def "wildcards match every field and method"() {
+		given:
+		ForgeAccessTransformer transformer = ForgeAccessTransformer.parse("public a.B *\npublic a.B *()")
+
+		when:
+		ClassNode node = read(transformer.transform("a/B.class", outerClass()))
+
+		then:
+		node.fields.every { (it.access & Opcodes.ACC_PUBLIC) != 0 }
+		node.methods.findAll { it.name != "<clinit>" }.every { (it.access & Opcodes.ACC_PUBLIC) != 0 }
+		node.methods.find { it.name == "<clinit>" }.access == Opcodes.ACC_STATIC
+	}
+
+	@Unroll
+	def "#first and #second on the same field give #expected"() {
+		given:
+		ForgeAccessTransformer transformer = ForgeAccessTransformer.parse(first + " a.B other", second + " a.B other")
+
+		when:
+		ClassNode node = read(transformer.transform("a/B.class", outerClass()))
+
+		then:
+		node.fields.find { it.name == "other" }.access == expected
+
+		where:
+		first       | second      || expected
+		"protected" | "public"    || Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL
+		"public"    | "default"   || Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL
+		"private"   | "default"   || Opcodes.ACC_FINAL
+		"public-f"  | "public+f"  || Opcodes.ACC_PUBLIC
+		"private"   | "private"   || Opcodes.ACC_PRIVATE + Opcodes.ACC_FINAL
+	}
+
+	def "visibility is never narrowed"() {
+		given:
+		ForgeAccessTransformer transformer = ForgeAccessTransformer.parse("private a.B run()V\ndefault a.B")
+
+		when:
+		ClassNode node = read(transformer.transform("a/B.class", outerClass()))
+
+		then:
+		node.methods.find { it.name == "run" }.access == Opcodes.ACC_PUBLIC
+		node.access == Opcodes.ACC_SUPER
+	}
+
+	def "outer classes of targets are targets too"() {
+		when:
+		ForgeAccessTransformer transformer = ForgeAccessTransformer.parse("public a.B\$C\$D")
+
+		then:
+		transformer.isTarget("a/B\$C\$D.class")
+		transformer.isTarget("a/B\$C.class")
+		transformer.isTarget("a/B.class")
+		!transformer.isTarget("a/E.class")
+	}
+
+	def "unchanged classes are returned as they are"() {
+		given:
+		ForgeAccessTransformer transformer = ForgeAccessTransformer.parse("public a.E\npublic a.B run()V")
+		byte[] bytes = outerClass()
+
+		expect:
+		transformer.transform("a/B.class", bytes).is(bytes)
+		transformer.transform("a/D.class", bytes).is(bytes)
+	}
+
+	def "unknown modifiers are rejected"() {
+		when:
+		ForgeAccessTransformer.parse("internal a.B")
+
+		then:
+		IllegalArgumentException e = thrown()
+		e.message.contains("internal")
+	}
+
+	def "jars are transformed and the other entries are kept"() {
+		given:
+		Path input = temporaryFolder.root.toPath().resolve("input.jar")
+		Path output = temporaryFolder.root.toPath().resolve("output.jar")
+		new RawZipWriter(input).withCloseable { RawZipWriter writer ->
+			writer.write("a/B.class", outerClass(), 0)
+			writer.write("a/D.class", outerClass(), 0)
+			writer.write("data.txt", "data".getBytes("UTF-8"), 0)
+		}
+
+		when:
+		ForgeAccessTransformer.parse("public a.B").apply(input, output, null)
+		RawZipFile zip = RawZipFile.open(output)
+
+		then:
+		zip.entries*.name == ["a/B.class", "a/D.class", "data.txt"]
+		read(zip.getData(zip.getEntry("a/B.class"))).access == (Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER)
+		zip.getData(zip.getEntry("a/D.class")) == outerClass()
+		new String(zip.getData(zip.getEntry("data.txt")), "UTF-8") == "data"
+	}
+
+	/**
+	 * Writes a package private class with private members, a private method called with {@code invokespecial}
+	 * and a private nested class.
+	 */
+	private static byte[] outerClass() {
+		ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS)
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_SUPER, "a/B", null, "java/lang/Object", null)
+		writer.visitInnerClass("a/B\$C", "a/B", "C", Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC)
+		writer.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, "field", "I", null, null).visitEnd()
+		writer.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, "other", "I", null, null).visitEnd()
+		emptyMethod(writer.visitMethod(Opcodes.ACC_PRIVATE, "method", "()V", null, null))
+		emptyMethod(writer.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null))
+
+		MethodVisitor caller = writer.visitMethod(Opcodes.ACC_PUBLIC, "run", "()V", null, null)
+		caller.visitCode()
+		caller.visitVarInsn(Opcodes.ALOAD, 0)
+		caller.visitMethodInsn(Opcodes.INVOKESPECIAL, "a/B", "method", "()V", false)
+		caller.visitInsn(Opcodes.RETURN)
+		caller.visitMaxs(0, 0)
+		caller.visitEnd()
+		writer.visitEnd()
+		return writer.toByteArray()
+	}
+
+	private static void emptyMethod(MethodVisitor method) {
+		method.visitCode()
+		method.visitInsn(Opcodes.RETURN)
+		method.visitMaxs(0, 0)
+		method.visitEnd()
+	}
+
+	private static ClassNode read(byte[] bytes) {
+		ClassNode node = new ClassNode()
+		new ClassReader(bytes).accept(node, 0)
+		return node
+	}
+}
@@ -0,0 +1,130 @@
+package net.fabricmc.loom.util.srg
+
+import java.nio.file.Path
+import java.util.concurrent.ForkJoinPool
+import java.util.jar.JarEntry
+import java.util.jar.JarOutputStream
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+import lzma.streams.LzmaOutputStream
+import net.minecraftforge.binarypatcher.Patch
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Shared
+import spock.lang.Specification
+
+class ForgePatchApplierTest extends Specification {
+	private static final Map<String, byte[]> CLEAN = [
+			"b.class": bytes("clean b"),
+			"a.class": bytes("clean a"),
+			"c.class": bytes("clean c"),
+			"data.txt": bytes("not a class"),
+	]
+
+	@Rule
+	TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+	@Shared
+	ForkJoinPool pool = new ForkJoinPool(2)
+
+	@Shared
+	ForkJoinPool singleThreadPool = new ForkJoinPool(1)
+
+	def cleanupSpec() {
+		pool.shutdown()
+		singleThreadPool.shutdown()
+	}
+
+	def "patched and added classes are returned in the order of the clean jar"() {
+		given:
+		Path archive = writePatches([
+				Patch.from("a", "net/minecraft/A", CLEAN["a.class"], bytes("patched a")),
+				Patch.from("b", "net/minecraft/B", CLEAN["b.class"], bytes("patched b")),
+				Patch.from("d", "net/minecraft/D", new byte[0], bytes("added d")),
+		])
+
+		when:
+		ForgePatchApplier applier = ForgePatchApplier.load(archive)
+		Map<String, byte[]> patched = applier.apply(writeClean(), pool)
+
+		then:
+		applier.patchedClassCount == 3
+		patched.keySet() as List == ["b.class", "a.class", "d.class"]
+		new String(patched["a.class"], "UTF-8") == "patched a"
+		new String(patched["b.class"], "UTF-8") == "patched b"
+		new String(patched["d.class"], "UTF-8") == "added d"
+	}
+
+	def "the result does not depend on the pool"() {
+		given:
+		Path archive = writePatches([
+				Patch.from("a", "net/minecraft/A", CLEAN["a.class"], bytes("patched a")),
+				Patch.from("d", "net/minecraft/D", new byte[0], bytes("added d")),
+		])
+		Path clean = writeClean()
+
+		when:
+		Map<String, byte[]> first = ForgePatchApplier.load(archive).apply(clean, pool)
+		Map<String, byte[]> second = ForgePatchApplier.load(archive).apply(clean, singleThreadPool)
+
+		then:
+		first.keySet() as List == second.keySet() as List
+		first.every { String name, byte[] data -> Arrays.equals(data, second[name]) }
+	}
+
+	def "a patch for different clean bytes fails"() {
+		given:
+		Path archive = writePatches([Patch.from("a", "net/minecraft/A", bytes("other a"), bytes("patched a"))])
+
+		Path clean = writeClean()
+
+		when:
+		ForgePatchApplier.load(archive).apply(clean, pool)
+
+		then:
+		IOException e = thrown()
+		e.message.contains(clean.toString())
+	}
+
+	private Path writeClean() {
+		Path path = temporaryFolder.root.toPath().resolve("clean.jar")
+
+		path.withOutputStream { OutputStream out ->
+			ZipOutputStream zip = new ZipOutputStream(out)
+
+			CLEAN.each { String name, byte[] data ->
+				zip.putNextEntry(new ZipEntry(name))
+				zip.write(data)
+				zip.closeEntry()
+			}
+
+			zip.finish()
+		}
+
+		return path
+	}
+
+	private Path writePatches(List<Patch> patches) {
+		Path path = temporaryFolder.root.toPath().resolve("patches.lzma")
+
+		path.withOutputStream { OutputStream out ->
+			LzmaOutputStream lzma = new LzmaOutputStream.Builder(out).build()
+			JarOutputStream jar = new JarOutputStream(lzma)
+
+			for (Patch patch : patches) {
+				jar.putNextEntry(new JarEntry(patch.srg + ".binpatch"))
+				jar.write(patch.toBytes())
+				jar.closeEntry()
+			}
+
+			jar.close()
+		}
+
+		return path
+	}
+
+	private static byte[] bytes(String text) {
+		return text.getBytes("UTF-8")
+	}
+}
@@ -0,0 +1,79 @@
+package net.fabricmc.loom.util.srg
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+import net.md_5.specialsource.SpecialSource
+import org.gradle.api.logging.Logging
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.MethodVisitor
+import org.objectweb.asm.Opcodes
+import spock.lang.Specification
+
+import net.fabricmc.loom.util.RawZipFile
+import net.fabricmc.loom.util.RawZipWriter
+
+class SpecialSourceExecutorTest extends Specification {
+	// a extends b, which is not in the mappings, and b extends c, which maps m to m_1_
+	private static final String SRG = "a A\n\tm ()V m_1_\n\tf field_1_\nc C\n\tm ()V m_1_\n"
+
+	@Rule
+	TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+	def "the srg jar is the same as the one of the command line"() {
+		given:
+		Path official = temporaryFolder.root.toPath().resolve("official.jar")
+		Path filtered = temporaryFolder.root.toPath().resolve("filtered.jar")
+		Path srg = temporaryFolder.root.toPath().resolve("joined.tsrg")
+		Path expected = temporaryFolder.root.toPath().resolve("expected.jar")
+		Path output = temporaryFolder.root.toPath().resolve("output.jar")
+		Files.write(srg, SRG.getBytes("UTF-8"))
+		new RawZipWriter(official).withCloseable { RawZipWriter writer ->
+			writer.write("a.class", type("a", "b"), 0)
+			writer.write("b.class", type("b", "c"), 0)
+			writer.write("c.class", type("c", "java/lang/Object"), 0)
+			writer.write("data.txt", "data".getBytes("UTF-8"), 0)
+		}
+		// The command line was given the official jar with only the classes of the mappings
+		new RawZipWriter(filtered).withCloseable { RawZipWriter writer ->
+			writer.write("a.class", type("a", "b"), 0)
+			writer.write("c.class", type("c", "java/lang/Object"), 0)
+		}
+
+		when:
+		SpecialSource.main(["--in-jar", filtered.toString(), "--out-jar", expected.toString(), "--srg-in", srg.toString()] as String[])
+		SpecialSourceExecutor.produceSrgJar(Logging.getLogger(SpecialSourceExecutorTest), "joined", SpecialSourceExecutor.readMappings(SRG), official, output)
+		RawZipFile expectedZip = RawZipFile.open(expected)
+		RawZipFile outputZip = RawZipFile.open(output)
+
+		then:
+		outputZip.entries*.name == ["A.class", "C.class"]
+		outputZip.entries*.name == expectedZip.entries*.name
+		outputZip.entries.every { outputZip.getData(it) == expectedZip.getData(expectedZip.getEntry(it.name)) }
+	}
+
+	/**
+	 * Writes a class with a field and a method {@code m} that calls the one of its super class.
+	 */
+	private static byte[] type(String name, String superName) {
+		ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS)
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, superName, null)
+		writer.visitField(Opcodes.ACC_PRIVATE, "f", "I", null, null).visitEnd()
+
+		MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC, "m", "()V", null, null)
+		method.visitCode()
+
+		if (superName != "java/lang/Object") {
+			method.visitVarInsn(Opcodes.ALOAD, 0)
+			method.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "m", "()V", false)
+		}
+
+		method.visitInsn(Opcodes.RETURN)
+		method.visitMaxs(0, 0)
+		method.visitEnd()
+		writer.visitEnd()
+		return writer.toByteArray()
+	}
+}